@@ -0,0 +1,46 @@
+package fsm.benchmarks;
+
+import fsm.batch.FSMBatch;
+import fsm.batch.FSMBatchDefinition;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Tick of a large population of machines in the batch engine:
+ * every instance loops between two steps, advancing every 4 ticks
+ * @author massimilianoscaletti
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BatchBenchmark {
+    @Param({"1000000", "10000000"})
+    int instances;
+
+    private FSMBatch batch;
+    private long time;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        FSMBatchDefinition definition = new FSMBatchDefinition("a");
+        int a = definition.addStep("a", null);
+        int b = definition.addStep("b", null);
+        definition.addAdvanceCondition(a, (i, elapsed) -> elapsed >= 4, "b");
+        definition.addAdvanceCondition(b, (i, elapsed) -> elapsed >= 4, "a");
+        batch = new FSMBatch(definition, instances);
+        batch.start(time);
+    }
+
+    @Benchmark
+    public long tick(){
+        return batch.tick(++time);
+    }
+}
@@ -0,0 +1,63 @@
+package fsm.benchmarks;
+
+import fsm.FSM;
+import fsm.FSMSharedScheduler;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Aggregate throughput of many concurrent sequences:
+ * time to run to the end a chain of 100 steps on every machine,
+ * with dedicated threads or on a shared scheduler
+ * @author massimilianoscaletti
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConcurrentMachinesBenchmark {
+    static final int LENGTH = 100;
+
+    @Param({"100", "1000"})
+    int machines;
+
+    private FSMSharedScheduler scheduler;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        scheduler = new FSMSharedScheduler(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    public void sharedScheduler() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(machines);
+        for (int i = 0; i < machines; i++){
+            Machines.chain("m" + i, LENGTH, false, done).start(scheduler);
+        }
+        done.await();
+    }
+
+    @Benchmark
+    public void threadPerMachine() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(machines);
+        for (int i = 0; i < machines; i++){
+            FSM fsm = Machines.chain("m" + i, LENGTH, false, done);
+            fsm.start();
+        }
+        done.await();
+    }
+}
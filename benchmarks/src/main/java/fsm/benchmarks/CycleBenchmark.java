@@ -0,0 +1,51 @@
+package fsm.benchmarks;
+
+import fsm.FSM;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Overhead of a single cycle of a sequence with zero delay,
+ * as the number of advance conditions of the step grows
+ * (conditions = 0 is the bare cycle overhead)
+ * @author massimilianoscaletti
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CycleBenchmark {
+    @Param({"0", "1", "4", "16", "64"})
+    int conditions;
+
+    private FSM fsm;
+    private DirectScheduler scheduler;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        scheduler = new DirectScheduler();
+        fsm = Machines.idle(conditions);
+        fsm.start(scheduler);
+        // setup and first cycle
+        scheduler.runNext();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        fsm.stop();
+        scheduler.runAll();
+    }
+
+    @Benchmark
+    public boolean cycle(){
+        return scheduler.runNext();
+    }
+}
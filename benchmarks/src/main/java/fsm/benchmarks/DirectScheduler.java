@@ -0,0 +1,89 @@
+package fsm.benchmarks;
+
+import fsm.FSMScheduler;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FSMScheduler running the cycles of a single sequence on the calling thread,
+ * one cycle for every call of runNext(), ignoring the cycle delays.
+ * Used to measure the cycles of the engine without threads and sleeps
+ * @author massimilianoscaletti
+ */
+public class DirectScheduler implements FSMScheduler {
+    private Runnable next;
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable cycle, long delay, TimeUnit unit) {
+        next = cycle;
+        return new Pending(cycle);
+    }
+
+    /**
+     * Runs the next cycle of the sequence
+     * @return false if there are no more cycles
+     */
+    public boolean runNext(){
+        Runnable r = next;
+        if (r == null){
+            return false;
+        }
+        next = null;
+        r.run();
+        return true;
+    }
+
+    /**
+     * Runs the sequence until it ends
+     */
+    public void runAll(){
+        while (runNext()){
+            // run next cycle
+        }
+    }
+
+    private class Pending implements ScheduledFuture<Object> {
+        private final Runnable cycle;
+
+        Pending(Runnable cycle) {
+            this.cycle = cycle;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return 0;
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return 0;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            // the cycle is rescheduled immediately by the FSM, runNext() ignores delays anyway
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return next != cycle;
+        }
+
+        @Override
+        public Object get() {
+            return null;
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package fsm.benchmarks;
+
+import fsm.FSM;
+import fsm.definition.FSMDefinition;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Cycles of a definition whose steps use many different actions and predicates:
+ * interpreted (every step calls its code through the same megamorphic call sites)
+ * against the generated dispatch of FSMDefinition.compile()
+ * @author massimilianoscaletti
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DispatchBenchmark {
+    static final int CYCLES = 1000;
+
+    @Param({"false", "true"})
+    boolean compiled;
+
+    @Param({"64"})
+    int length;
+
+    private FSM fsm;
+    private DirectScheduler scheduler;
+
+    @SuppressWarnings("unchecked")
+    @Setup(Level.Trial)
+    public void setup(){
+        // distinct classes of code, used in turn by the steps
+        Consumer<long[]>[] actions = new Consumer[]{
+                (Consumer<long[]>) c -> c[0]++, (Consumer<long[]>) c -> c[0] += 2,
+                (Consumer<long[]>) c -> c[0] += 3, (Consumer<long[]>) c -> c[0] ^= 1,
+                (Consumer<long[]>) c -> c[1]++, (Consumer<long[]>) c -> c[1] += 2,
+                (Consumer<long[]>) c -> c[1] += 3, (Consumer<long[]>) c -> c[1] ^= 1};
+        Predicate<long[]>[] predicates = new Predicate[]{
+                (Predicate<long[]>) c -> c[0] > 0, (Predicate<long[]>) c -> c[0] >= 0,
+                (Predicate<long[]>) c -> c[1] > 0, (Predicate<long[]>) c -> c[1] >= 0,
+                (Predicate<long[]>) c -> c[0] != -1, (Predicate<long[]>) c -> c[1] != -1,
+                (Predicate<long[]>) c -> (c[0] | 1) != 0, (Predicate<long[]>) c -> (c[1] | 1) != 0};
+        FSMDefinition.Builder<long[]> builder = FSMDefinition.<long[]>builder("s0").stepsDelay(0);
+        for (int i = 0; i < length; i++){
+            builder.step("s" + i).run(actions[i % actions.length])
+                    .when("never", c -> c[0] < 0, FSM.END)
+                    .when("next", predicates[i % predicates.length], "s" + ((i + 1) % length)).done();
+        }
+        FSMDefinition<long[]> definition = builder.build();
+        if (compiled){
+            definition.compile();
+        }
+        scheduler = new DirectScheduler();
+        fsm = definition.newInstance("dispatch", new long[2]);
+        fsm.start(scheduler);
+        scheduler.runNext();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        fsm.stop();
+        scheduler.runAll();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public void cycles(){
+        for (int i = 0; i < CYCLES; i++){
+            scheduler.runNext();
+        }
+    }
+}
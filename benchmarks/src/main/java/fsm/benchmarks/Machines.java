@@ -0,0 +1,111 @@
+package fsm.benchmarks;
+
+import fsm.FSM;
+import fsm.components.FSMCondition;
+import fsm.components.FSMStep;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Sequences used by the benchmarks
+ * @author massimilianoscaletti
+ */
+public final class Machines {
+
+    private Machines() {
+        super();
+    }
+
+    /**
+     * Step doing nothing
+     * @param name name of the step
+     * @return the step
+     */
+    public static FSMStep emptyStep(String name){
+        return new FSMStep(name) {
+            @Override
+            public void stepRunCode() {
+            }
+
+            @Override
+            public void resetCode() {
+            }
+        };
+    }
+
+    /**
+     * Condition always met or never met
+     * @param name name of the condition
+     * @param next next step
+     * @param value result of compare()
+     * @return the condition
+     */
+    public static FSMCondition constantCondition(String name, String next, final boolean value){
+        return new FSMCondition(name, next) {
+            @Override
+            protected boolean compare() {
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Sequence with a single step never left, with some conditions never met
+     * @param conditions number of conditions of the step
+     * @return the sequence
+     */
+    public static FSM idle(final int conditions){
+        return new FSM("idle", "step", 0) {
+            @Override
+            protected void threadSetup() {
+                FSMStep step = emptyStep("step");
+                for (int i = 0; i < conditions; i++){
+                    step.addAdvanceCondition(constantCondition("c" + i, FSM.END, false));
+                }
+                addStep(step);
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+            }
+        };
+    }
+
+    /**
+     * Sequence with a chain of steps, every step jumps immediately to the next one
+     * @param name name of the sequence
+     * @param length number of steps
+     * @param loop true if the last step jumps back to the first, false to end the sequence
+     * @param done counted down at the end of the sequence, can be null
+     * @return the sequence
+     */
+    public static FSM chain(String name, final int length, final boolean loop, final CountDownLatch done){
+        return new FSM(name, "s0", 0) {
+            @Override
+            protected void threadSetup() {
+                for (int i = 0; i < length; i++){
+                    FSMStep step = emptyStep("s" + i);
+                    String next = i < length - 1 ? "s" + (i + 1) : (loop ? "s0" : FSM.END);
+                    step.addAdvanceCondition(constantCondition("next", next, true));
+                    addStep(step);
+                }
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+                if (done != null){
+                    done.countDown();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,35 @@
+package fsm.benchmarks;
+
+import fsm.FSM;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Startup and reset cost of sequences with thousands of steps:
+ * threadSetup(), reset and compilation of the steps, first cycle, stop and final reset
+ * @author massimilianoscaletti
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StartupBenchmark {
+    @Param({"1000", "10000"})
+    int steps;
+
+    @Benchmark
+    public FSM startStop(){
+        DirectScheduler scheduler = new DirectScheduler();
+        FSM fsm = Machines.chain("startup", steps, true, null);
+        fsm.start(scheduler);
+        scheduler.runNext();
+        fsm.stop();
+        scheduler.runAll();
+        return fsm;
+    }
+}
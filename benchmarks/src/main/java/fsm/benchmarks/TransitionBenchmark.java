@@ -0,0 +1,55 @@
+package fsm.benchmarks;
+
+import fsm.FSM;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Transition throughput across a long chain of steps:
+ * every cycle jumps to the next step, the last step loops to the first
+ * @author massimilianoscaletti
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransitionBenchmark {
+    static final int TRANSITIONS = 1000;
+
+    @Param({"10", "1000"})
+    int length;
+
+    private FSM fsm;
+    private DirectScheduler scheduler;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        scheduler = new DirectScheduler();
+        fsm = Machines.chain("chain", length, true, null);
+        fsm.start(scheduler);
+        scheduler.runNext();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        fsm.stop();
+        scheduler.runAll();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRANSITIONS)
+    public void transitions(){
+        for (int i = 0; i < TRANSITIONS; i++){
+            scheduler.runNext();
+        }
+    }
+}
@@ -1,7 +1,30 @@
 package fsm;
 
+import fsm.checkpoint.FSMCheckpoint;
+import fsm.components.FSMClock;
+import fsm.components.FSMCondition;
+import fsm.components.FSMDataContext;
+import fsm.components.FSMDataSnapshot;
+import fsm.components.FSMInbox;
 import fsm.components.FSMStep;
+import fsm.components.FSMTimingWheel;
+import fsm.journal.FSMJournal;
+import fsm.listener.FSMDispatcher;
+import fsm.metrics.FSMMetrics;
+import fsm.trace.FSMTrace;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -14,23 +37,76 @@ import java.util.logging.Logger;
 public abstract class FSM implements Runnable{
     public static final String END = "end";
     public static final String ABORT = "abort";
-    private boolean run = false;
-    private boolean aborted = false;
+    /** index of the "end" step in the step table */
+    public static final int END_INDEX = -1;
+    /** index of the "abort" step in the step table */
+    public static final int ABORT_INDEX = -2;
+    private volatile boolean run = false;
+    private volatile boolean aborted = false;
     private int stepsDelay;
-    private int status = 0;
+    private volatile int status = 0;
+    private final AtomicReference<CompletableFuture<FSMResult>> completion = new AtomicReference<>();
     private ConcurrentHashMap<String, FSMStep> steps = new ConcurrentHashMap<>();
-    private Thread fsmThread;
-    protected String actualStep;
+    private volatile Thread fsmThread;
+    private ThreadFactory threadFactory;
+    private volatile FSMScheduler scheduler;
+    private volatile ScheduledFuture<?> pendingCycle;
+    private volatile boolean wakeRequested = false;
+    private volatile Runnable wakeParent;
+    private boolean fixedRate = false;
+    private FSMOverrunPolicy overrunPolicy = FSMOverrunPolicy.SKIP;
+    private FSMOverrunHandler overrunHandler;
+    private long cycleDeadline;
+    private volatile long overruns = 0;
+    private long expectedCycleStart;
+    private long stepEntryTime;
+    private volatile FSMMetrics metrics;
+    private volatile FSMTrace trace = new FSMTrace(256);
+    private volatile FSMClock clock = FSMClock.SYSTEM;
+    private volatile FSMTimingWheel timingWheel;
+    private volatile FSMInbox inbox;
+    private int inboxCapacity = 64;
+    private volatile FSMDataSnapshot data;
+    private volatile FSMDispatcher.Source dispatcherSource;
+    private Path traceDumpDirectory;
+    private FSMCheckpoint resumeFrom;
+    private volatile FSMJournal journal;
+    private FSMJournal registeredJournal;
+    private int journalId;
+    /** ticket of the cycle task scheduled and not started yet, CYCLE_RUNNING if there is none */
+    private final AtomicLong cycleTicket = new AtomicLong(CYCLE_RUNNING);
+    private final AtomicLong nextTicket = new AtomicLong();
+    private static final long CYCLE_RUNNING = -1;
+    protected volatile String actualStep;
+    private int actualIndex = ABORT_INDEX;
+    private FSMStep[] stepTable = new FSMStep[0];
+    private Map<String, Integer> stepIndex = new HashMap<>();
+    private volatile FSMStep[] resolvedTable;
+    private volatile Map<String, Integer> resolvedIndex;
+    private volatile boolean tableChanged = false;
     private String startStep;
     private String fsmName;
     private int actualRow = 0;
     private boolean stepChanged = false;
+    private volatile int adaptiveIdleCycles = 0;
+    private volatile int adaptiveMaxCycleTime = 0;
+    private int idleCycles = 0;
+    private volatile long effectiveCycleTime;
 
     /**
      * Called before entering int the main loop
      */
     protected abstract void threadSetup();
 
+    /**
+     * Called instead of threadSetup() when the sequence is resumed from a
+     * checkpoint (see resume()). It must register the steps not added in the
+     * constructor, without the side effects of threadSetup().
+     * The default implementation does nothing
+     */
+    protected void threadResume(){
+    }
+
     /**
      * Called inside the main loop
      * It can be used to override the actualStep, doing other operations
@@ -76,6 +152,248 @@ public abstract class FSM implements Runnable{
         this.stepsDelay = stepsDelay;
     }
 
+    /**
+     * Adaptive cycle mode, for sequences waiting long in polled steps: when the
+     * advance conditions of the actual step are not met for idleCycles
+     * consecutive cycles, the cycle time doubles on every further cycle up to
+     * maxCycleTime (or the ceiling of the step, see FSMStep.setMaxCycleTime()).
+     * The base cycle time comes back on a transition, on wake() (so on signals
+     * and posted events too) and before the timeout of the step expires
+     * @param idleCycles cycles without transitions before slowing down, 0 to disable
+     * @param maxCycleTime default ceiling of the cycle time in milliseconds
+     */
+    public void setAdaptiveCycle(int idleCycles, int maxCycleTime) {
+        this.adaptiveMaxCycleTime = maxCycleTime;
+        this.adaptiveIdleCycles = idleCycles;
+    }
+
+    /**
+     * Cycle time requested by the last cycle, including the slow down of the
+     * adaptive cycle mode
+     * @return cycle time in milliseconds, Long.MAX_VALUE if the step waits for a signal
+     */
+    public long getEffectiveCycleTime() {
+        return effectiveCycleTime;
+    }
+
+    /**
+     * Fixed rate mode: the cycle delay is counted from the start of the previous
+     * cycle instead of its end, so the period of the sequence doesn't drift
+     * with the time spent in the steps code
+     * @param fixedRate true to enable the fixed rate mode
+     */
+    public void setFixedRate(boolean fixedRate) {
+        this.fixedRate = fixedRate;
+    }
+
+    /**
+     * Fixed rate mode
+     * @return true if the fixed rate mode is enabled
+     */
+    public boolean isFixedRate() {
+        return fixedRate;
+    }
+
+    /**
+     * Policy applied in fixed rate mode when a cycle ends after the start
+     * of the next one
+     * @param overrunPolicy SKIP (default), CATCH_UP or CALLBACK
+     */
+    public void setOverrunPolicy(FSMOverrunPolicy overrunPolicy) {
+        this.overrunPolicy = overrunPolicy;
+    }
+
+    /**
+     * Code called on overruns when the overrun policy is CALLBACK
+     * @param overrunHandler the handler
+     */
+    public void setOverrunHandler(FSMOverrunHandler overrunHandler) {
+        this.overrunHandler = overrunHandler;
+    }
+
+    /**
+     * Number of overruns in fixed rate mode since the start of the sequence
+     * @return the number of overruns
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * Enables the runtime metrics of the sequence (cycles, jitter, steps and
+     * conditions latency, transitions, timeouts), exposed as JMX MBean
+     * fsm:type=FSM,name=<i>name</i>. Disabled by default: when disabled
+     * no measure is taken
+     * @param enabled true to collect the metrics
+     */
+    public synchronized void setMetricsEnabled(boolean enabled) {
+        FSMMetrics m = metrics;
+        if (enabled && m == null){
+            m = new FSMMetrics(getName());
+            m.install(stepTable);
+            m.register();
+            metrics = m;
+        } else if (!enabled && m != null){
+            metrics = null;
+            m.uninstall(stepTable);
+            m.unregister();
+        }
+    }
+
+    /**
+     * Runtime metrics of the sequence
+     * @return the metrics, null if not enabled
+     */
+    public FSMMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Time source of the sequence and of its steps, FSMClock.SYSTEM by default.
+     * A FSMVirtualClock passed to start(FSMScheduler) is set automatically.
+     * On a dedicated thread the waits between the cycles are always real time
+     * @param clock the clock
+     */
+    public void setClock(FSMClock clock) {
+        this.clock = clock;
+        for (FSMStep step : steps.values()){
+            step.setClock(clock);
+        }
+    }
+
+    public FSMClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Timing wheel firing the timeouts of the steps: the timeout is scheduled
+     * when the sequence enters a step and cancelled when it leaves it, and on
+     * expiration the sequence is woken up. A wheel can be shared by any number
+     * of sequences, it must use the same clock of the sequences.
+     * Without a wheel the timeouts are checked on every cycle
+     * @param timingWheel the wheel, null to check the timeouts on every cycle
+     */
+    public void setTimingWheel(FSMTimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+        for (FSMStep step : steps.values()){
+            step.setTimingWheel(timingWheel);
+        }
+    }
+
+    public FSMTimingWheel getTimingWheel() {
+        return timingWheel;
+    }
+
+    /**
+     * Dispatcher delivering the transitions and the status changes of the
+     * sequence to its listeners, on the dispatcher thread.
+     * A dispatcher can be shared by any number of sequences
+     * @param dispatcher the dispatcher, null to stop publishing the events
+     */
+    public synchronized void setDispatcher(FSMDispatcher dispatcher) {
+        FSMDispatcher.Source old = dispatcherSource;
+        if (old != null){
+            old.getDispatcher().unregister(old);
+        }
+        dispatcherSource = dispatcher == null ? null : dispatcher.register(this);
+    }
+
+    public FSMDispatcher getDispatcher() {
+        FSMDispatcher.Source source = dispatcherSource;
+        return source == null ? null : source.getDispatcher();
+    }
+
+    /**
+     * Posts an event to the sequence, from any thread, and wakes it up.
+     * The events are moved to the inbox in a batch at the start of every
+     * cycle, where the FSMEventCondition of the steps consume them; unmatched
+     * events are dropped when the inbox is full and at the end of the run
+     * (see FSMInbox)
+     * @param event the event
+     * @return false if the inbox is full
+     */
+    public boolean post(Object event){
+        FSMInbox i = inbox;
+        if (i == null){
+            i = getInbox();
+        }
+        if (!i.offer(event)){
+            return false;
+        }
+        wake();
+        return true;
+    }
+
+    /**
+     * Inbox of the events posted to the sequence, created on first use
+     * @return the inbox
+     */
+    public FSMInbox getInbox() {
+        FSMInbox i = inbox;
+        if (i == null){
+            synchronized (this){
+                i = inbox;
+                if (i == null){
+                    i = new FSMInbox(inboxCapacity);
+                    for (FSMStep step : steps.values()){
+                        step.setInbox(i);
+                    }
+                    inbox = i;
+                }
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Maximum number of events waiting in the inbox (64 by default).
+     * To be set before the first post()
+     * @param capacity number of events, rounded up to a power of two
+     */
+    public synchronized void setInboxCapacity(int capacity) {
+        this.inboxCapacity = capacity;
+    }
+
+    /**
+     * Set the data context read by the steps and conditions of the sequence:
+     * at the start of every cycle the context is refreshed and copied to the
+     * snapshot returned by getData(), so all the conditions of the cycle see
+     * the same values
+     * @param context the context, can be shared by many sequences, null to remove it
+     */
+    public synchronized void setDataContext(FSMDataContext context) {
+        FSMDataSnapshot d = context == null ? null : new FSMDataSnapshot(context);
+        for (FSMStep step : steps.values()){
+            step.setData(d);
+        }
+        data = d;
+    }
+
+    /**
+     * Data context of the sequence
+     * @return the context, null if not set
+     */
+    public FSMDataContext getDataContext() {
+        FSMDataSnapshot d = data;
+        return d == null ? null : d.getContext();
+    }
+
+    /**
+     * Snapshot of the data context taken at the start of the actual cycle
+     * @return the snapshot, null if the sequence has no data context
+     */
+    public FSMDataSnapshot getData() {
+        return data;
+    }
+
+    /**
+     * Factory used by start() to create the sequence thread
+     * @param threadFactory factory of the thread, null for a plain platform thread
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
     /**
      * Name of the step to start from the sequence
      * @param startStep name of the step (use <i>step</i>.getName() to reduce mistakes)
@@ -113,21 +431,225 @@ public abstract class FSM implements Runnable{
     }
 
     /**
-     * Start the execution of the sequence
+     * Start the execution of the sequence on a dedicated thread.
+     * The thread is created by the ThreadFactory set with setThreadFactory(), if any
+     * @return future completed when the sequence is over, after threadEnd();
+     * if the sequence is already running the future of the actual run
      */
-    public void start(){
-        if (!this.run){
+    public CompletableFuture<FSMResult> start(){
+        return startThread(null);
+    }
+
+    /**
+     * Start the execution of the sequence on a thread created by the given factory
+     * (i.e. FSMThreads.virtual() to run on a virtual thread on Java 21+)
+     * @param threadFactory factory of the sequence thread
+     * @return future completed when the sequence is over
+     */
+    public CompletableFuture<FSMResult> start(ThreadFactory threadFactory){
+        setThreadFactory(threadFactory);
+        return start();
+    }
+
+    /**
+     * Future of the last run of the sequence
+     * @return the future, null if the sequence has never been started
+     */
+    public CompletableFuture<FSMResult> getCompletion() {
+        return completion.get();
+    }
+
+    /**
+     * Claims the start of a new run: only one run at a time
+     * @return the future of the new run, null if a run is in progress
+     */
+    private CompletableFuture<FSMResult> claimStart(){
+        CompletableFuture<FSMResult> current = completion.get();
+        if (current != null && !current.isDone()){
+            return null;
+        }
+        CompletableFuture<FSMResult> next = new CompletableFuture<>();
+        if (!completion.compareAndSet(current, next)){
+            return null;
+        }
+        run = true;
+        return next;
+    }
+
+    /**
+     * Starts the sequence thread
+     * @param resume checkpoint to resume from, null to start from the start step
+     * @return future completed when the sequence is over
+     */
+    private CompletableFuture<FSMResult> startThread(FSMCheckpoint resume){
+        CompletableFuture<FSMResult> future = claimStart();
+        if (future == null){
+            return completion.get();
+        }
+        resumeFrom = resume;
+        scheduler = null;
+        if (threadFactory == null){
             fsmThread = new Thread(this, getName());
-            fsmThread.start();
+        } else {
+            fsmThread = threadFactory.newThread(this);
+            fsmThread.setName(getName());
+        }
+        fsmThread.start();
+        return future;
+    }
+
+    /**
+     * Start the execution of the sequence as cycle tasks of a shared scheduler.
+     * No dedicated thread is created: every cycle is scheduled on the scheduler
+     * after the cycle time of the actual step (or the FSM default delay).
+     * threadSetup(), threadOverallChecks() and threadEnd() are called as in the
+     * threaded execution, but on the scheduler threads.
+     * A scheduler that is also a FSMClock (i.e. FSMVirtualClock) becomes the clock of the sequence
+     * @param scheduler scheduler running the cycles of the sequence
+     * @return future completed when the sequence is over
+     */
+    public CompletableFuture<FSMResult> start(FSMScheduler scheduler){
+        return startScheduled(null, scheduler);
+    }
+
+    /**
+     * Schedules the first cycle of the sequence
+     * @param resume checkpoint to resume from, null to start from the start step
+     * @param scheduler scheduler running the cycles of the sequence
+     * @return future completed when the sequence is over
+     */
+    private CompletableFuture<FSMResult> startScheduled(FSMCheckpoint resume, FSMScheduler scheduler){
+        CompletableFuture<FSMResult> future = claimStart();
+        if (future == null){
+            return completion.get();
+        }
+        resumeFrom = resume;
+        if (scheduler instanceof FSMClock){
+            setClock((FSMClock) scheduler);
+        }
+        fsmThread = null;
+        this.scheduler = scheduler;
+        // the first cycle runs in the start task: no wake() can reschedule it
+        cycleTicket.set(CYCLE_RUNNING);
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                threadStart();
+                scheduledCycle();
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    /**
+     * Resumes the sequence from a checkpoint on a dedicated thread (see start()).
+     * threadResume() is called instead of threadSetup(), then the sequence goes on
+     * from the step of the checkpoint with its elapsed time, and the steps
+     * restore their state (see FSMStep.restoreState())
+     * @param checkpoint checkpoint taken with checkpoint()
+     * @return future completed when the sequence is over
+     */
+    public CompletableFuture<FSMResult> resume(FSMCheckpoint checkpoint){
+        return startThread(checkpoint);
+    }
+
+    /**
+     * Resumes the sequence from a checkpoint on a shared scheduler (see start(FSMScheduler))
+     * @param checkpoint checkpoint taken with checkpoint()
+     * @param scheduler scheduler running the cycles of the sequence
+     * @return future completed when the sequence is over
+     */
+    public CompletableFuture<FSMResult> resume(FSMCheckpoint checkpoint, FSMScheduler scheduler){
+        return startScheduled(checkpoint, scheduler);
+    }
+
+    /**
+     * Takes a snapshot of the sequence: actual step, time elapsed in the step,
+     * status and state of the steps (see FSMStep.saveState()).
+     * The snapshot is consistent when taken by the sequence code or with the
+     * sequence not running; taken by another thread it reflects the last
+     * completed transition
+     * @return the checkpoint
+     */
+    public FSMCheckpoint checkpoint(){
+        String step = actualStep == null ? startStep : actualStep;
+        FSMStep actual = step == null ? null : steps.get(step);
+        long elapsed = actual != null && run ? actual.getElapsedTime() : 0;
+        LinkedHashMap<String, byte[]> states = new LinkedHashMap<>();
+        for (FSMStep s : steps.values()){
+            byte[] state = s.saveState();
+            if (state != null){
+                states.put(s.getName(), state);
+            }
         }
+        return new FSMCheckpoint(getName(), step, status, elapsed, System.currentTimeMillis(), states);
     }
 
     /**
      * Stops the sequence
      */
     public void stop(){
-        this.run = false;
+        // status first: the loop sees run false only with the stop status
         status = 0;
+        this.run = false;
+        wake();
+    }
+
+    /**
+     * Wakes up the sequence: the next cycle is executed immediately instead of
+     * waiting the cycle delay. Used to react at once to external events
+     * (see FSMCondition.signal() and FSMStep.setWaitForSignal())
+     */
+    public void wake(){
+        wakeRequested = true;
+        Thread thread = fsmThread;
+        FSMScheduler sched = scheduler;
+        if (thread != null){
+            LockSupport.unpark(thread);
+        } else if (sched != null){
+            // if the next cycle has not started yet run it now,
+            // a running cycle sees wakeRequested and reschedules itself at once
+            rescheduleNow(cycleTicket.get());
+        } else {
+            // sub-machine: wake up the sequence driving it
+            Runnable w = wakeParent;
+            if (w != null){
+                w.run();
+            }
+        }
+    }
+
+    /**
+     * Starts the sequence as sub-machine: no thread nor scheduler,
+     * the cycles are driven by the parent sequence with cycleInline()
+     * @param wakeParent code waking up the parent sequence
+     */
+    void startInline(Runnable wakeParent){
+        fsmThread = null;
+        scheduler = null;
+        this.wakeParent = wakeParent;
+        completion.set(new CompletableFuture<FSMResult>());
+        run = true;
+        threadStart();
+    }
+
+    /**
+     * Executes a cycle of a sub-machine
+     * @return the delay in milliseconds requested before the next cycle, -1 if the sequence is over
+     */
+    long cycleInline(){
+        if (!run){
+            return -1;
+        }
+        return cycle();
+    }
+
+    /**
+     * Closes a sub-machine, at its end or when the parent leaves the step
+     */
+    void stopInline(){
+        threadStop();
+        wakeParent = null;
     }
 
     /**
@@ -135,99 +657,603 @@ public abstract class FSM implements Runnable{
      */
     @Override
     public void run() {
+        threadStart();
+        // enter in loop
+        while (run){
+            long delay = cycle();
+            if (delay < 0){
+                break;
+            }
+            waitNextCycle(cycleDelay(delay));
+        }
+        threadStop();
+    }
+
+    /**
+     * Computes the wait before the next cycle.
+     * In fixed rate mode the delay is counted from the start of the cycle
+     * just executed, so the period doesn't drift with the cycle work time
+     * @param delay delay in milliseconds requested by the cycle
+     * @return the wait in nanoseconds
+     */
+    private long cycleDelay(long delay){
+        long now = clock.nanoTime();
+        long wait = fixedRateDelay(delay, now);
+        // planned start of the next cycle, used to measure the jitter
+        expectedCycleStart = wait == Long.MAX_VALUE ? 0 : now + wait;
+        return wait;
+    }
+
+    /**
+     * Computes the wait before the next cycle, in fixed rate mode
+     * counted from the start of the cycle just executed
+     * @param delay delay in milliseconds requested by the cycle
+     * @param now actual time in nanoseconds
+     * @return the wait in nanoseconds
+     */
+    private long fixedRateDelay(long delay, long now){
+        if (!fixedRate || delay == Long.MAX_VALUE || wakeRequested){
+            // the grid restarts from now
+            cycleDeadline = now;
+            return TimeUnit.MILLISECONDS.toNanos(delay);
+        }
+        long period = TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 1));
+        long next = cycleDeadline + period;
+        long late = now - next;
+        if (late > 0){
+            overruns++;
+            if (overrunPolicy == FSMOverrunPolicy.CATCH_UP){
+                // run the missed cycle immediately keeping the grid
+                cycleDeadline = next;
+                return 0;
+            }
+            if (overrunPolicy == FSMOverrunPolicy.CALLBACK && overrunHandler != null){
+                overrunHandler.overrun(this, late);
+            }
+            // skip the missed cycles: next deadline on the grid after now
+            next += (late / period + 1) * period;
+        }
+        cycleDeadline = next;
+        return next - now;
+    }
+
+    /**
+     * Parks the sequence thread until the delay is elapsed or wake() is called
+     * @param nanos delay in nanoseconds
+     */
+    private void waitNextCycle(long nanos){
+        long begin = System.nanoTime();
+        while (run && !wakeRequested){
+            long left = nanos - (System.nanoTime() - begin);
+            if (left <= 0){
+                break;
+            }
+            LockSupport.parkNanos(this, left);
+            if (Thread.interrupted()){
+                Logger.getLogger(FSM.class.getName()).log(Level.SEVERE, null, new InterruptedException());
+                break;
+            }
+        }
+    }
+
+    /**
+     * Cycle task used when the sequence runs on a shared scheduler:
+     * executes one cycle and schedules the next one, or closes the sequence
+     */
+    private void scheduledCycle(){
+        long delay = run ? cycle() : -1;
+        if (delay >= 0 && run){
+            delay = wakeRequested ? 0 : cycleDelay(delay);
+            long ticket = scheduleCycle(scheduler, delay);
+            // a wake() between the cycle and the scheduling found no task to reschedule
+            if (delay > 0 && wakeRequested){
+                rescheduleNow(ticket);
+            }
+        } else {
+            pendingCycle = null;
+            threadStop();
+        }
+    }
+
+    /**
+     * Schedules the next cycle task. Every task has its own ticket and runs the
+     * cycle only if it is still the pending one, so a task replaced by wake()
+     * never runs a cycle, even if it could not be cancelled.
+     * A sequence waiting for a signal gets only the ticket: no task is left in
+     * the scheduler queue (huge delays break its ordering), wake() schedules the cycle
+     * @param sched scheduler of the sequence
+     * @param delay delay in nanoseconds, Long.MAX_VALUE to wait for a signal
+     * @return the ticket of the task
+     */
+    private long scheduleCycle(FSMScheduler sched, long delay){
+        final long ticket = nextTicket.incrementAndGet();
+        cycleTicket.set(ticket);
+        if (delay == Long.MAX_VALUE){
+            pendingCycle = null;
+            return ticket;
+        }
+        pendingCycle = sched.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // only one cycle at a time: the task claims the ticket
+                if (cycleTicket.compareAndSet(ticket, CYCLE_RUNNING)){
+                    scheduledCycle();
+                }
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+        return ticket;
+    }
+
+    /**
+     * Replaces the pending cycle task with one running immediately, if the
+     * pending task has not started yet
+     * @param ticket ticket of the pending task
+     */
+    private void rescheduleNow(long ticket){
+        FSMScheduler sched = scheduler;
+        if (ticket == CYCLE_RUNNING || sched == null || !cycleTicket.compareAndSet(ticket, CYCLE_RUNNING)){
+            return;
+        }
+        ScheduledFuture<?> pending = pendingCycle;
+        if (pending != null){
+            pending.cancel(false);
+        }
+        scheduleCycle(sched, 0);
+    }
+
+    /**
+     * Initialize the sequence before entering the main loop
+     */
+    private void threadStart(){
         // initialize fsm variables
         // reset aborted flag
         aborted = false;
-        // set actual status to 1
+        // set actual status to 1, keeping the status of a stop() called before the start
         status = 1;
+        if (!run){
+            status = 0;
+        }
+        // events left by the previous run are not delivered
+        FSMInbox in = inbox;
+        if (in != null){
+            in.clear();
+        }
         // execute setup of thread
-        // set the start step name
-        actualStep = startStep;
-        // run the setup function for the sequence
-        threadSetup();
+        FSMCheckpoint resume = resumeFrom;
+        resumeFrom = null;
+        if (resume == null){
+            // set the start step name
+            actualStep = startStep;
+            // run the setup function for the sequence
+            threadSetup();
+        } else {
+            // go on from the checkpoint without the setup side effects
+            actualStep = resume.getStep();
+            threadResume();
+        }
         // reset all the steps
-        steps.forEach(new BiConsumer<String, FSMStep>() {
-                          @Override
-                          public void accept(String t, FSMStep u) {
-                              u.reset();
-                          }
-                      }
-        );
-        // initialization completed
-        // set run to true
-        run = true;
-        // enter in loop
-        while (run){
-            // check that there are steps to execute
-            if (steps.size() == 0){
-                status = -1;
-                actualStep = ABORT;
+        resetSteps();
+        // resolve the steps: wrong step names stop the sequence before the first cycle
+        if (!compileSteps()){
+            status = -2;
+            actualStep = ABORT;
+        }
+        setActualIndex(lookupActualStep());
+        if (actualIndex >= 0){
+            stepTable[actualIndex].enter();
+        }
+        overruns = 0;
+        idleCycles = 0;
+        cycleDeadline = clock.nanoTime();
+        stepEntryTime = cycleDeadline;
+        trace.clear();
+        expectedCycleStart = 0;
+        if (resume != null){
+            restoreCheckpoint(resume);
+        }
+        registeredJournal = null;
+        FSMJournal j = journal;
+        if (j != null){
+            registerJournal(j);
+        }
+        FSMDispatcher.Source d = dispatcherSource;
+        if (d != null){
+            d.status(status, actualStep);
+        }
+        // initialization completed: run is set by the start, so a stop()
+        // called during the setup is not lost
+    }
+
+    /**
+     * Restores the elapsed time of the actual step and the state of the steps
+     * @param checkpoint checkpoint of the sequence
+     */
+    private void restoreCheckpoint(FSMCheckpoint checkpoint){
+        for (FSMStep step : stepTable){
+            byte[] state = checkpoint.getStepState(step.getName());
+            if (state != null){
+                step.restoreState(state);
             }
-            // check that the actual step exists
-            if (!steps.containsKey(actualStep)){
-                status = -2;
-                actualStep = ABORT;
+        }
+        if (actualIndex >= 0){
+            long elapsed = checkpoint.getElapsedTime();
+            stepTable[actualIndex].setElapsedTime(elapsed);
+            stepEntryTime -= TimeUnit.MILLISECONDS.toNanos(elapsed);
+        }
+    }
+
+    /**
+     * Executes a single cycle of the main loop
+     * @return the delay in milliseconds before the next cycle, -1 if the sequence is over
+     */
+    private long cycle(){
+        FSMMetrics m = metrics;
+        if (m != null){
+            m.cycle();
+            long expected = expectedCycleStart;
+            if (expected != 0 && !wakeRequested){
+                m.jitter(Math.abs(clock.nanoTime() - expected));
             }
-            // execute the overall checks 
-            if (!threadOverallChecks() && !actualStep.equals(ABORT)) {
-                try {
-                    // if the step has a custom delayTime use is otherwise use the FSM default
-                    Thread.sleep(stepsDelay);
-                } catch (InterruptedException ex) {
-                    Logger.getLogger(FSM.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        // the cycle is running, pending wake requests are served
+        if (wakeRequested){
+            // woken up: back to the base cycle time
+            idleCycles = 0;
+        }
+        wakeRequested = false;
+        // events posted since the last cycle
+        FSMInbox in = inbox;
+        if (in != null){
+            in.drain();
+        }
+        // inputs read once per cycle, shared by all the conditions
+        FSMDataSnapshot d = data;
+        if (d != null){
+            d.getContext().refresh();
+            d.update();
+        }
+        // steps added while running: rebuild the step table
+        if (tableChanged && !compileSteps()){
+            status = -2;
+            transition(ABORT_INDEX, FSMTrace.CAUSE_ERROR);
+        }
+        FSMStep[] table = stepTable;
+        // check that there are steps to execute
+        if (table.length == 0){
+            status = -1;
+            transition(ABORT_INDEX, FSMTrace.CAUSE_ERROR);
+        }
+        // execute the overall checks
+        boolean checks = threadOverallChecks();
+        // the overall checks can override the actual step by name
+        if (!indexName(actualIndex).equals(actualStep)){
+            transition(lookupActualStep(), FSMTrace.CAUSE_OVERRIDE);
+        }
+        if (!checks && actualIndex != ABORT_INDEX) {
+            return stepsDelay;
+        }
+
+        if (actualIndex >= 0){
+            //System.out.println("[FSM] FSMStep running: " + table[actualIndex].getName());
+            // Run the the actual step and check if any advance condition is verified
+            stepChanged = false; // memory used to force fsm cycle time on changing step
+            FSMStep step = table[actualIndex];
+            if (step.runStep()){
+                stepChanged = true;
+                // if the advance conditions are met
+                int cause = step.getAdvanceCause();
+                // get the index of the next step and reset the internal variables of the step
+                int next = step.getNextIndexAndReset();
+                if (next == FSMStep.UNRESOLVED){
+                    // the next step is not in the sequence
+                    status = -2;
+                    next = ABORT_INDEX;
+                    cause = FSMTrace.CAUSE_ERROR;
                 }
-                continue;
+                transition(next, cause);
             }
+        }
 
-            if (!actualStep.equals(END) && !actualStep.equals(ABORT)){
-                //System.out.println("[FSM] FSMStep running: " + steps.get(actualStep).getName());
-                // Run the the actual step and check if any advance condition is verified
-                stepChanged = false; // memory used to force fsm cycle time on changing step
-
-                if (steps.get(actualStep).runStep()){
-                    stepChanged = true;
-                    // if the advance conditions are met
-                    // save the actual step
-                    String memory = actualStep;
-                    // get the name of the next step and reset the internal variables of the step
-                    actualStep = steps.get(actualStep).getNextAndReset();
-                    // if the name of the step is not "end" set the actual step as last step and go on
-                    if (!actualStep.equals(END) && !actualStep.equals(ABORT)){
-                        if (actualStep.equals("") || actualStep.equals(null) ||
-                                !steps.containsKey(actualStep)
-                            ){
-                            actualStep=ABORT;
-                            status = -2;
-                        }
-                    }
+        // if the actual step is not "end" wait the cycle delay time
+        if (actualIndex >= 0){
+            FSMStep step = table[actualIndex];
+            // a step waiting for signals sleeps until wake() or its timeout
+            if (step.isWaitForSignal() && !stepChanged){
+                // a timeout scheduled on the timing wheel wakes up the sequence
+                long left = step.isTimeOutScheduled() ? -1 : step.getTimeLeft();
+                long delay = left < 0 ? Long.MAX_VALUE : left + 1;
+                effectiveCycleTime = delay;
+                return delay;
+            }
+            // a child sequence run inline sets the delay, 0 is a request of an immediate cycle
+            long childDelay = !stepChanged && step instanceof FSMSubMachineStep ?
+                    ((FSMSubMachineStep) step).getChildDelay() : -1;
+            // if the step has a custom delayTime use is otherwise use the FSM default
+            long delay = stepsDelay;
+            if (childDelay >= 0){
+                delay = Math.min(childDelay, Integer.MAX_VALUE);
+            } else if (step.getCycleTime() > 0 && !stepChanged){
+                delay = step.getCycleTime();
+            }
+            if (!stepChanged && childDelay < 0){
+                delay = adaptiveDelay(step, delay);
+            }
+            effectiveCycleTime = delay;
+            return delay;
+        } else if (actualIndex == END_INDEX){
+            // if the actual step is "end" set the status to 2 and exit loop
+            status = 2;
+        } else {
+            // abort requested
+            aborted = true;
+        }
+        return -1;
+    }
 
-                }
+    /**
+     * Cycle time of the adaptive cycle mode: after adaptiveIdleCycles cycles
+     * without transitions the base delay doubles on every cycle up to the ceiling,
+     * but the sequence wakes up in time for the timeout of the step
+     * @param step actual step
+     * @param base cycle time of the step in milliseconds
+     * @return the cycle time in milliseconds
+     */
+    private long adaptiveDelay(FSMStep step, long base){
+        int threshold = adaptiveIdleCycles;
+        if (threshold <= 0){
+            return base;
+        }
+        if (idleCycles < Integer.MAX_VALUE){
+            idleCycles++;
+        }
+        int ceiling = step.getMaxCycleTime() >= 0 ? step.getMaxCycleTime() : adaptiveMaxCycleTime;
+        if (idleCycles <= threshold || ceiling <= base){
+            return base;
+        }
+        long delay = Math.min(Math.max(base, 1) << Math.min(idleCycles - threshold, 30), ceiling);
+        // a timeout on the timing wheel wakes up the sequence by itself
+        if (!step.isTimeOutScheduled()){
+            long left = step.getTimeLeft();
+            if (left >= 0 && left < delay){
+                delay = Math.max(base, left + 1);
             }
+        }
+        return delay;
+    }
 
-            // if the actual step name is not "end" wait the cycle delay time
-            if (!actualStep.equals(END) && !actualStep.equals(ABORT)){
-                try {
-                    // if the step has a custom delayTime use is otherwise use the FSM default
-                    if (steps.get(actualStep).getCycleTime() > 0 && !stepChanged){
-                        Thread.sleep(steps.get(actualStep).getCycleTime());
-                    } else {
-                        Thread.sleep(stepsDelay);
-                    }
-                } catch (InterruptedException ex) {
-                    Logger.getLogger(FSM.class.getName()).log(Level.SEVERE, null, ex);
-                }
-            } else if (actualStep.equals(END)){
-                // if the actual step is "end" set the status to 2 and exit loop
-                status = 2;
-                break;
-            } else {
-                // abort requested
-                aborted = true;
-                break;
+    /**
+     * Builds the step table: every step and every target of the advance conditions
+     * and of the timeouts is resolved to an index of the table, so the main loop
+     * doesn't need to look up the steps by name
+     * @return false if a step refers to a step not in the sequence
+     */
+    private boolean compileSteps(){
+        tableChanged = false;
+        Map<String, Integer> index = resolvedIndex;
+        FSMStep[] table = resolvedTable;
+        if (table == null){
+            HashMap<String, Integer> built = new HashMap<>();
+            built.put(END, END_INDEX);
+            built.put(ABORT, ABORT_INDEX);
+            table = steps.values().toArray(new FSMStep[0]);
+            for (int i = 0; i < table.length; i++){
+                built.put(table[i].getName(), i);
             }
+            index = built;
+        }
+        stepTable = table;
+        stepIndex = index;
+        // the journal must know the new step table
+        registeredJournal = null;
+        FSMMetrics m = metrics;
+        if (m != null){
+            m.install(table);
+        }
+        try {
+            for (int i = 0; i < table.length; i++){
+                table[i].compile(i, index);
+            }
+        } catch (IllegalArgumentException ex){
+            Logger.getLogger(FSM.class.getName()).log(Level.SEVERE, "[" + getName() + "] " + ex.getMessage());
+            return false;
+        }
+        return true;
+    }
 
+    /**
+     * Name of a step of the table
+     * @param index index of the step
+     * @return the name of the step, "end" or "abort"
+     */
+    private String indexName(int index){
+        if (index >= 0){
+            return stepTable[index].getName();
+        }
+        return index == END_INDEX ? END : ABORT;
+    }
+
+    /**
+     * Set the actual step by index
+     * @param index index of the step in the table
+     */
+    private void setActualIndex(int index){
+        actualIndex = index;
+        actualStep = indexName(index);
+    }
+
+    /**
+     * Jumps to another step
+     * @param next index of the next step in the table
+     * @param cause position of the condition met or one of the FSMTrace.CAUSE_ constants
+     */
+    private void transition(int next, int cause){
+        long now = clock.nanoTime();
+        idleCycles = 0;
+        trace.record(actualIndex, next, cause, now);
+        FSMMetrics m = metrics;
+        if (m != null){
+            m.transition(actualIndex, indexName(next), now - stepEntryTime);
+        }
+        FSMDispatcher.Source d = dispatcherSource;
+        if (d != null){
+            d.transition(indexName(actualIndex), indexName(next), cause, now);
+        }
+        FSMJournal j = journal;
+        if (j != null){
+            if (j != registeredJournal){
+                registerJournal(j);
+            }
+            j.transition(journalId, actualIndex, next, cause, status);
+        }
+        stepEntryTime = now;
+        setActualIndex(next);
+        if (next >= 0){
+            stepTable[next].enter();
+        }
+    }
+
+    /**
+     * Looks up the index of the actual step when it is set by name
+     * @return the index of the step, abort if the step doesn't exist
+     */
+    private int lookupActualStep(){
+        Integer index = actualStep == null ? null : stepIndex.get(actualStep);
+        if (index == null){
+            // check that the actual step exists
+            status = -2;
+            return ABORT_INDEX;
+        }
+        return index;
+    }
+
+    /**
+     * Close the sequence after the main loop
+     */
+    private void threadStop(){
+        // save the trace before the steps reset
+        if (aborted && traceDumpDirectory != null){
+            dumpTraceOnAbort();
         }
         // reset all the steps
+        resetSteps();
+        // if status is not 2 (clean exit) set the status to -3 (forced)
+        if(status == 1) status = -3;
+        threadEnd();
+        // unmatched events of this run are discarded
+        FSMInbox in = inbox;
+        if (in != null){
+            in.discard();
+        }
+        // the journal records how the run is over: ended, aborted or stopped
+        FSMJournal j = journal;
+        if (j != null){
+            if (j != registeredJournal){
+                registerJournal(j);
+            }
+            j.status(journalId, actualIndex, status);
+        }
+        // reset the run variable before exiting
+        run = false;
+        FSMDispatcher.Source d = dispatcherSource;
+        if (d != null){
+            d.status(status, actualStep);
+        }
+        CompletableFuture<FSMResult> future = completion.get();
+        if (future != null){
+            future.complete(new FSMResult(getName(), status, actualStep, aborted));
+        }
+    }
+
+    /**
+     * Writes the trace in the dump directory after an abort
+     */
+    private void dumpTraceOnAbort(){
+        Path file = traceDumpDirectory.resolve(getName().replaceAll("[^A-Za-z0-9_.-]", "_") +
+                "-" + System.currentTimeMillis() + ".fsmtrace");
+        try {
+            dumpTrace(file);
+        } catch (IOException ex) {
+            Logger.getLogger(FSM.class.getName()).log(Level.SEVERE, "[" + getName() + "] trace dump failed", ex);
+        }
+    }
+
+    /**
+     * Writes the last transitions of the sequence to a binary file,
+     * readable with fsm.trace.FSMTraceDecoder
+     * @param file the file to be written
+     * @throws IOException on write errors
+     */
+    public void dumpTrace(Path file) throws IOException {
+        FSMStep[] table = stepTable;
+        String[] stepNames = new String[table.length];
+        String[][] conditionNames = new String[table.length][];
+        for (int i = 0; i < table.length; i++){
+            stepNames[i] = table[i].getName();
+            conditionNames[i] = new String[table[i].getConditionCount()];
+            for (int c = 0; c < conditionNames[i].length; c++){
+                FSMCondition condition = table[i].getCondition(c);
+                conditionNames[i][c] = condition == null ? "" : condition.getName();
+            }
+        }
+        trace.dump(file, getName(), stepNames, conditionNames, clock);
+    }
+
+    /**
+     * Directory where the trace is written when the sequence is aborted
+     * @param traceDumpDirectory the directory, null to disable the dump on abort
+     */
+    public void setTraceDumpDirectory(Path traceDumpDirectory) {
+        this.traceDumpDirectory = traceDumpDirectory;
+    }
+
+    /**
+     * Journal where every transition of the sequence is recorded.
+     * A journal can be shared by any number of sequences
+     * @param journal the journal, null to stop recording
+     */
+    public void setJournal(FSMJournal journal) {
+        this.journal = journal;
+    }
+
+    public FSMJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Writes the machine frame of the sequence in the journal, with the
+     * actual step table
+     * @param j the journal
+     */
+    private void registerJournal(FSMJournal j){
+        FSMStep[] table = stepTable;
+        String[] names = new String[table.length];
+        for (int i = 0; i < table.length; i++){
+            names[i] = table[i].getName();
+        }
+        journalId = j.register(getName(), names, actualIndex);
+        registeredJournal = j;
+    }
+
+    /**
+     * Changes the number of transitions kept in the trace (256 by default)
+     * @param capacity number of transitions, rounded up to a power of two
+     */
+    public void setTraceCapacity(int capacity) {
+        this.trace = new FSMTrace(capacity);
+    }
+
+    /**
+     * Trace of the last transitions of the sequence
+     * @return the trace
+     */
+    public FSMTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * Reset all the steps of the sequence
+     */
+    private void resetSteps(){
         steps.forEach(new BiConsumer<String, FSMStep>() {
                           @Override
                           public void accept(String t, FSMStep u) {
@@ -235,11 +1261,6 @@ public abstract class FSM implements Runnable{
                           }
                       }
         );
-        // if status is not 2 (clean exit) set the status to -3 (forced)
-        if(status == 1) status = -3;
-        threadEnd();
-        // reset the run variable before exiting
-        run = false;
     }
 
     /**
@@ -273,7 +1294,37 @@ public abstract class FSM implements Runnable{
      * @param step instance of FSMStep object
      */
     public void addStep(FSMStep step){
+        step.setWakeUp(new Runnable() {
+            @Override
+            public void run() {
+                wake();
+            }
+        });
+        step.setClock(clock);
+        step.setTimingWheel(timingWheel);
         this.steps.put(step.getName(), step);
+        resolvedTable = null;
+        // after the put: getInbox() and setDataContext() set the steps in the map
+        synchronized (this){
+            step.setInbox(inbox);
+            step.setData(data);
+        }
+        tableChanged = true;
+    }
+
+    /**
+     * Step table resolved in advance by a sequence with a fixed set of steps
+     * (see FSMInstance): when the sequence starts the table and the index are
+     * used as they are instead of being built again from the steps, and every
+     * step is compiled with its index (see FSMStep.compile()). Adding a step
+     * afterwards discards them
+     * @param table all the steps added, in table order
+     * @param index indexes of the steps by name, including end and abort, never modified
+     */
+    protected void setResolvedSteps(FSMStep[] table, Map<String, Integer> index){
+        resolvedIndex = index;
+        resolvedTable = table.clone();
+        tableChanged = true;
     }
 
     /**
@@ -0,0 +1,54 @@
+package fsm;
+
+import fsm.components.FSMCondition;
+import fsm.components.FSMStep;
+
+/**
+ * Step starting parallel regions: all the regions are started when the step
+ * is run, then the sequence jumps immediately to the next step.
+ * The regions are waited by a FSMJoinStep on the same FSMRegions
+ * @author massimilianoscaletti
+ */
+public class FSMForkStep extends FSMStep {
+    public static final String FORKED_CONDITION = "forked";
+    private final FSMRegions regions;
+    private boolean forked = false;
+
+    /**
+     * Constructor
+     * @param name name of the step
+     * @param regions regions to be started
+     * @param nextStep step executed while the regions are running (i.e. the join step)
+     */
+    public FSMForkStep(String name, FSMRegions regions, String nextStep) {
+        super(name);
+        this.regions = regions;
+        addAdvanceCondition(new FSMCondition(FORKED_CONDITION, "regions started", nextStep) {
+            @Override
+            protected boolean compare() {
+                return forked;
+            }
+        });
+    }
+
+    /**
+     * Regions started by the step
+     * @return the regions
+     */
+    public FSMRegions getRegions() {
+        return regions;
+    }
+
+    @Override
+    public void stepRunCode() {
+        if (!forked){
+            regions.start();
+            forked = true;
+        }
+    }
+
+    @Override
+    public void resetCode() {
+        forked = false;
+    }
+}
@@ -0,0 +1,17 @@
+package fsm;
+
+/**
+ * Completion rule of a join step
+ * @author massimilianoscaletti
+ */
+public enum FSMJoinMode {
+    /**
+     * the join step advances when all the regions are ended
+     */
+    ALL,
+    /**
+     * the join step advances when the first region ends,
+     * the other regions are stopped
+     */
+    ANY
+}
@@ -0,0 +1,78 @@
+package fsm;
+
+import fsm.components.FSMCondition;
+import fsm.components.FSMStep;
+
+/**
+ * Step waiting the parallel regions started by a FSMForkStep.
+ * With FSMJoinMode.ALL the step advances when all the regions are ended,
+ * with FSMJoinMode.ANY when the first one ends. If a region aborts the step
+ * jumps to the abort step. The regions still running when the step is left
+ * are stopped.
+ * The step doesn't poll the regions: the sequence is woken up when a region ends
+ * @author massimilianoscaletti
+ */
+public class FSMJoinStep extends FSMStep {
+    public static final String JOINED_CONDITION = "joined";
+    public static final String ABORTED_CONDITION = "regionAborted";
+    private final FSMRegions regions;
+    private final FSMJoinMode mode;
+
+    /**
+     * Constructor
+     * @param name name of the step
+     * @param regions regions to be waited
+     * @param mode ALL or ANY
+     * @param joinedStep step to jump to when the regions are ended
+     * @param abortStep step to jump to when a region aborts
+     */
+    public FSMJoinStep(String name, FSMRegions regions, FSMJoinMode mode, String joinedStep, String abortStep) {
+        super(name);
+        this.regions = regions;
+        this.mode = mode;
+        setWaitForSignal(true);
+        regions.setWaiting(this);
+        addAdvanceCondition(new FSMCondition(ABORTED_CONDITION, "a region aborted", abortStep) {
+            @Override
+            protected boolean compare() {
+                return FSMJoinStep.this.regions.getAborted() > 0;
+            }
+        });
+        addAdvanceCondition(new FSMCondition(JOINED_CONDITION, "regions ended", joinedStep) {
+            @Override
+            protected boolean compare() {
+                int ended = FSMJoinStep.this.regions.getEnded();
+                if (FSMJoinStep.this.mode == FSMJoinMode.ANY){
+                    return ended > 0;
+                }
+                return ended == FSMJoinStep.this.regions.size();
+            }
+        });
+    }
+
+    /**
+     * Regions waited by the step
+     * @return the regions
+     */
+    public FSMRegions getRegions() {
+        return regions;
+    }
+
+    /**
+     * Completion rule of the step
+     * @return ALL or ANY
+     */
+    public FSMJoinMode getMode() {
+        return mode;
+    }
+
+    @Override
+    public void stepRunCode() {
+    }
+
+    @Override
+    public void resetCode() {
+        // the step is left: regions still running are stopped
+        regions.stop();
+    }
+}
@@ -0,0 +1,16 @@
+package fsm;
+
+/**
+ * Handler of the overruns of a sequence in fixed rate mode
+ * (see FSMOverrunPolicy.CALLBACK)
+ * @author massimilianoscaletti
+ */
+public interface FSMOverrunHandler {
+
+    /**
+     * Called on the sequence thread when a cycle ends after the start of the next one
+     * @param fsm the sequence
+     * @param lateNanos delay of the next cycle in nanoseconds
+     */
+    void overrun(FSM fsm, long lateNanos);
+}
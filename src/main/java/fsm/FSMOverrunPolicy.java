@@ -0,0 +1,22 @@
+package fsm;
+
+/**
+ * Policy applied in fixed rate mode when a cycle lasts longer than its period
+ * @author massimilianoscaletti
+ */
+public enum FSMOverrunPolicy {
+    /**
+     * the missed cycles are skipped, the next cycle starts on the next period
+     */
+    SKIP,
+    /**
+     * the missed cycles are executed immediately, one after the other,
+     * until the sequence is back on time
+     */
+    CATCH_UP,
+    /**
+     * the FSMOverrunHandler of the sequence is called,
+     * then the missed cycles are skipped
+     */
+    CALLBACK
+}
@@ -0,0 +1,186 @@
+package fsm;
+
+import fsm.components.FSMStep;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Parallel regions of a sequence: independent sequences started together by a
+ * FSMForkStep and waited by a FSMJoinStep.
+ * Regions run on the given scheduler, or on their own threads if no scheduler is set.
+ * Abort propagation: when a region aborts the other regions are stopped and
+ * the join step jumps to its abort step; when the parent leaves the join step
+ * for any other reason (timeout, end or abort of the parent) the regions still
+ * running are stopped.
+ * Every start is a new round: a region stopped by the previous round is
+ * started again as soon as its previous run is over, and the results of the
+ * previous rounds are ignored
+ * @author massimilianoscaletti
+ */
+public class FSMRegions {
+    private static final int RUNNING = 0;
+    private static final int ENDED = 1;
+    private static final int ABORTED = 2;
+    private static final int STOPPED = 3;
+
+    private final List<FSM> regions;
+    private final FSMScheduler scheduler;
+    private final int[] outcome;
+    private int ended;
+    private int aborted;
+    private boolean started = false;
+    private int round = 0;
+    private FSMStep waiting;
+
+    /**
+     * Constructor, regions run on their own threads
+     * @param regions sequences run in parallel
+     */
+    public FSMRegions(FSM... regions) {
+        this(null, regions);
+    }
+
+    /**
+     * Constructor
+     * @param scheduler scheduler running the regions, null for a thread per region
+     * @param regions sequences run in parallel
+     */
+    public FSMRegions(FSMScheduler scheduler, FSM... regions) {
+        super();
+        this.scheduler = scheduler;
+        this.regions = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(regions)));
+        this.outcome = new int[regions.length];
+    }
+
+    /**
+     * Starts all the regions
+     */
+    synchronized void start(){
+        stop();
+        Arrays.fill(outcome, RUNNING);
+        ended = 0;
+        aborted = 0;
+        started = true;
+        round++;
+        for (int i = 0; i < regions.size(); i++){
+            startRegion(round, i);
+        }
+    }
+
+    /**
+     * Starts a region, after the end of its previous run if it is still stopping
+     * @param round round of the start
+     * @param region index of the region
+     */
+    private synchronized void startRegion(final int round, final int region){
+        if (round != this.round || !started){
+            return;
+        }
+        FSM fsm = regions.get(region);
+        CompletableFuture<FSMResult> previous = fsm.getCompletion();
+        if (previous != null && !previous.isDone()){
+            previous.whenComplete(new BiConsumer<FSMResult, Throwable>() {
+                @Override
+                public void accept(FSMResult result, Throwable error) {
+                    startRegion(round, region);
+                }
+            });
+            return;
+        }
+        CompletableFuture<FSMResult> done = scheduler == null ? fsm.start() : fsm.start(scheduler);
+        done.thenAccept(new Consumer<FSMResult>() {
+            @Override
+            public void accept(FSMResult result) {
+                regionEnded(round, region, result);
+            }
+        });
+    }
+
+    /**
+     * Stops the regions still running
+     */
+    synchronized void stop(){
+        if (!started){
+            return;
+        }
+        started = false;
+        for (int i = 0; i < regions.size(); i++){
+            if (outcome[i] == RUNNING){
+                outcome[i] = STOPPED;
+                regions.get(i).stop();
+            }
+        }
+    }
+
+    /**
+     * Called by a region at its end
+     * @param round round of the run
+     * @param region index of the region
+     * @param result outcome of the region
+     */
+    private void regionEnded(int round, int region, FSMResult result){
+        FSMStep step;
+        synchronized (this){
+            if (round != this.round || outcome[region] != RUNNING){
+                return;
+            }
+            if (result.isEnded()){
+                outcome[region] = ENDED;
+                ended++;
+            } else {
+                outcome[region] = ABORTED;
+                aborted++;
+            }
+            step = waiting;
+        }
+        // wake up the parent waiting in the join step
+        if (step != null){
+            step.signal();
+        }
+    }
+
+    /**
+     * Set the join step to be signaled when a region ends
+     * @param step the join step
+     */
+    synchronized void setWaiting(FSMStep step){
+        this.waiting = step;
+    }
+
+    /**
+     * Number of regions ended cleanly
+     * @return the number of regions
+     */
+    public synchronized int getEnded(){
+        return ended;
+    }
+
+    /**
+     * Number of regions aborted
+     * @return the number of regions
+     */
+    public synchronized int getAborted(){
+        return aborted;
+    }
+
+    /**
+     * The sequences of the regions
+     * @return the regions
+     */
+    public List<FSM> getRegions() {
+        return regions;
+    }
+
+    /**
+     * Number of regions
+     * @return the number of regions
+     */
+    public int size(){
+        return regions.size();
+    }
+}
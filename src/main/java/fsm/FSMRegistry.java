@@ -0,0 +1,402 @@
+package fsm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Supervisor of many sequences, looked up by name.
+ * The registry owns a fixed set of worker threads: every sequence runs on the
+ * worker chosen by the hash of its name, so all its cycles, wakes and restarts
+ * are executed by the same thread. When a run fails (see
+ * FSMRestartPolicy.isFailed()) the sequence is restarted by its restart policy.
+ * The sequences are indexed by name and by status (see FSM.getStatus()), both
+ * updated in constant time when a sequence starts or completes
+ * @author massimilianoscaletti
+ */
+public class FSMRegistry {
+    private final ScheduledExecutorService[] workers;
+    private final FSMSharedScheduler[] shards;
+    private final ConcurrentHashMap<String, Entry> machines = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Set<String>> byStatus = new ConcurrentHashMap<>();
+    private volatile FSMRestartPolicy defaultPolicy = FSMRestartPolicy.NEVER;
+
+    /**
+     * Constructor
+     * @param workers number of worker threads
+     */
+    public FSMRegistry(int workers) {
+        super();
+        if (workers <= 0){
+            throw new IllegalArgumentException("At least one worker is needed");
+        }
+        this.workers = new ScheduledExecutorService[workers];
+        this.shards = new FSMSharedScheduler[workers];
+        for (int i = 0; i < workers; i++){
+            final String name = "fsm-worker-" + i;
+            this.workers[i] = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, name);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            this.shards[i] = new FSMSharedScheduler(this.workers[i]);
+        }
+    }
+
+    /**
+     * Restart policy of the sequences registered without a policy
+     * @param policy the policy, FSMRestartPolicy.NEVER by default
+     */
+    public void setDefaultPolicy(FSMRestartPolicy policy) {
+        this.defaultPolicy = policy;
+    }
+
+    /**
+     * Adds a sequence with the default restart policy
+     * @param fsm the sequence, not started
+     */
+    public void register(FSM fsm){
+        register(fsm, defaultPolicy);
+    }
+
+    /**
+     * Adds a sequence
+     * @param fsm the sequence, not started
+     * @param policy restart policy of the sequence
+     * @throws IllegalArgumentException if a sequence with the same name is registered
+     */
+    public void register(FSM fsm, FSMRestartPolicy policy){
+        Entry entry = new Entry(fsm, policy, shard(fsm.getName()));
+        if (machines.putIfAbsent(fsm.getName(), entry) != null){
+            throw new IllegalArgumentException("Duplicated sequence name '" + fsm.getName() + "'");
+        }
+        synchronized (entry){
+            entry.status = fsm.getStatus();
+            statusSet(entry.status).add(entry.name);
+        }
+    }
+
+    /**
+     * Stops and removes a sequence
+     * @param name name of the sequence
+     * @return the sequence, null if not registered
+     */
+    public FSM unregister(String name){
+        Entry entry = machines.remove(name);
+        if (entry == null){
+            return null;
+        }
+        stop(entry);
+        synchronized (entry){
+            statusSet(entry.status).remove(name);
+            entry.removed = true;
+        }
+        return entry.fsm;
+    }
+
+    /**
+     * Returns a sequence by name
+     * @param name name of the sequence
+     * @return the sequence, null if not registered
+     */
+    public FSM get(String name){
+        Entry entry = machines.get(name);
+        return entry == null ? null : entry.fsm;
+    }
+
+    /**
+     * Number of sequences registered
+     * @return the number of sequences
+     */
+    public int size(){
+        return machines.size();
+    }
+
+    /**
+     * Status of a sequence, updated when it starts and when it completes
+     * @param name name of the sequence
+     * @return the status (see FSM.getStatus()), 0 if not registered
+     */
+    public int getStatus(String name){
+        Entry entry = machines.get(name);
+        return entry == null ? 0 : entry.status;
+    }
+
+    /**
+     * Number of restarts of a sequence done by the registry
+     * @param name name of the sequence
+     * @return the number of restarts
+     */
+    public int getRestarts(String name){
+        Entry entry = machines.get(name);
+        return entry == null ? 0 : entry.restarts;
+    }
+
+    /**
+     * Index of the worker thread running a sequence
+     * @param name name of the sequence
+     * @return the index of the worker, the thread is named fsm-worker-index
+     */
+    public int getShard(String name){
+        return shard(name);
+    }
+
+    /**
+     * Names of the sequences with a status
+     * @param status the status (see FSM.getStatus())
+     * @return unmodifiable live view of the names
+     */
+    public Set<String> getNames(int status){
+        return Collections.unmodifiableSet(statusSet(status));
+    }
+
+    /**
+     * Sequences with a status
+     * @param status the status (see FSM.getStatus())
+     * @return the sequences
+     */
+    public List<FSM> getMachines(int status){
+        Set<String> names = statusSet(status);
+        ArrayList<FSM> list = new ArrayList<>(names.size());
+        for (String name : names){
+            FSM fsm = get(name);
+            if (fsm != null){
+                list.add(fsm);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Number of sequences with a status
+     * @param status the status (see FSM.getStatus())
+     * @return the number of sequences
+     */
+    public int count(int status){
+        return statusSet(status).size();
+    }
+
+    /**
+     * Starts a sequence on its worker
+     * @param name name of the sequence
+     * @return future completed when the run is over, null if not registered
+     */
+    public CompletableFuture<FSMResult> start(String name){
+        Entry entry = machines.get(name);
+        return entry == null ? null : start(entry, false);
+    }
+
+    /**
+     * Stops a sequence, that is not restarted
+     * @param name name of the sequence
+     */
+    public void stop(String name){
+        Entry entry = machines.get(name);
+        if (entry != null){
+            stop(entry);
+        }
+    }
+
+    /**
+     * Starts all the sequences not running
+     */
+    public void startAll(){
+        for (Entry entry : machines.values()){
+            start(entry, false);
+        }
+    }
+
+    /**
+     * Stops all the sequences
+     */
+    public void stopAll(){
+        for (Entry entry : machines.values()){
+            stop(entry);
+        }
+    }
+
+    /**
+     * Stops all the sequences, waits for them and stops the worker threads
+     * @param timeout maximum wait for the sequences
+     * @param unit time unit of the timeout
+     * @return false if some sequence is still running
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        stopAll();
+        ArrayList<CompletableFuture<FSMResult>> running = new ArrayList<>();
+        for (Entry entry : machines.values()){
+            CompletableFuture<FSMResult> f = entry.fsm.getCompletion();
+            if (f != null && !f.isDone()){
+                running.add(f);
+            }
+        }
+        boolean completed = true;
+        try {
+            CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0])).get(timeout, unit);
+        } catch (ExecutionException ex){
+            Logger.getLogger(FSMRegistry.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (TimeoutException ex){
+            completed = false;
+        }
+        for (ScheduledExecutorService worker : workers){
+            worker.shutdown();
+        }
+        return completed;
+    }
+
+    /**
+     * Starts a run of a sequence
+     * @param entry the sequence
+     * @param restart true for a restart of the policy, skipped if the sequence has been stopped meanwhile
+     * @return future of the run
+     */
+    private CompletableFuture<FSMResult> start(final Entry entry, boolean restart){
+        synchronized (entry){
+            if (entry.removed || restart && entry.stopped){
+                return entry.fsm.getCompletion();
+            }
+            entry.stopped = false;
+            ScheduledFuture<?> pending = entry.pendingRestart;
+            if (pending != null){
+                pending.cancel(false);
+                entry.pendingRestart = null;
+            }
+            CompletableFuture<FSMResult> before = entry.fsm.getCompletion();
+            final CompletableFuture<FSMResult> run = entry.fsm.start(shards[entry.shard]);
+            if (run == before){
+                // already running
+                return run;
+            }
+            if (restart){
+                entry.restarts++;
+            }
+            setStatus(entry, 1);
+            run.thenAccept(new Consumer<FSMResult>() {
+                @Override
+                public void accept(FSMResult result) {
+                    completed(entry, result);
+                }
+            });
+            return run;
+        }
+    }
+
+    private void stop(Entry entry){
+        synchronized (entry){
+            entry.stopped = true;
+            ScheduledFuture<?> pending = entry.pendingRestart;
+            if (pending != null){
+                pending.cancel(false);
+                entry.pendingRestart = null;
+            }
+        }
+        entry.fsm.stop();
+    }
+
+    /**
+     * End of a run: updates the status and applies the restart policy
+     * @param entry the sequence
+     * @param result outcome of the run
+     */
+    private void completed(final Entry entry, FSMResult result){
+        synchronized (entry){
+            if (entry.removed){
+                return;
+            }
+            setStatus(entry, result.getStatus());
+            FSMRestartPolicy policy = entry.policy;
+            if (entry.stopped || !policy.isFailed(result)){
+                return;
+            }
+            // restart intensity: restarts within the period
+            long now = System.nanoTime();
+            long period = TimeUnit.MILLISECONDS.toNanos(policy.getPeriod());
+            while (!entry.restartTimes.isEmpty() && now - entry.restartTimes.peekFirst() > period){
+                entry.restartTimes.pollFirst();
+            }
+            if (entry.restartTimes.size() >= policy.getMaxRestarts()){
+                if (policy.getMaxRestarts() > 0){
+                    Logger.getLogger(FSMRegistry.class.getName()).log(Level.SEVERE, "[" + entry.name +
+                            "] too many restarts, left in status " + FSM.statusString(result.getStatus()));
+                }
+                return;
+            }
+            long delay = policy.getBackOff(entry.restartTimes.size());
+            entry.restartTimes.addLast(now);
+            entry.pendingRestart = workers[entry.shard].schedule(new Runnable() {
+                @Override
+                public void run() {
+                    start(entry, true);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Moves a sequence to the set of its new status, called holding the lock of the entry
+     */
+    private void setStatus(Entry entry, int status){
+        if (entry.status != status){
+            statusSet(entry.status).remove(entry.name);
+            entry.status = status;
+        }
+        statusSet(status).add(entry.name);
+    }
+
+    private Set<String> statusSet(int status){
+        Set<String> set = byStatus.get(status);
+        if (set == null){
+            Set<String> created = ConcurrentHashMap.newKeySet();
+            set = byStatus.putIfAbsent(status, created);
+            if (set == null){
+                set = created;
+            }
+        }
+        return set;
+    }
+
+    private int shard(String name){
+        return (name.hashCode() & 0x7fffffff) % shards.length;
+    }
+
+    /**
+     * A sequence of the registry and its supervision state
+     */
+    private static final class Entry {
+        final String name;
+        final FSM fsm;
+        final FSMRestartPolicy policy;
+        final int shard;
+        final ArrayDeque<Long> restartTimes = new ArrayDeque<>();
+        volatile int status;
+        volatile int restarts;
+        boolean stopped;
+        boolean removed;
+        ScheduledFuture<?> pendingRestart;
+
+        Entry(FSM fsm, FSMRestartPolicy policy, int shard) {
+            this.name = fsm.getName();
+            this.fsm = fsm;
+            this.policy = policy;
+            this.shard = shard;
+        }
+    }
+}
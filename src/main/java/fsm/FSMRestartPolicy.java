@@ -0,0 +1,77 @@
+package fsm;
+
+/**
+ * Restart policy of a sequence supervised by a FSMRegistry.
+ * One for one: only the failed sequence is restarted, after a back-off that
+ * doubles on every restart up to a ceiling. When the sequence fails more than
+ * maxRestarts times within the period the registry gives up and leaves it in
+ * its failed status
+ * @author massimilianoscaletti
+ */
+public final class FSMRestartPolicy {
+    /** sequences never restarted */
+    public static final FSMRestartPolicy NEVER = new FSMRestartPolicy(0, 0, 0, 0);
+
+    private final int maxRestarts;
+    private final long period;
+    private final long backOff;
+    private final long maxBackOff;
+
+    private FSMRestartPolicy(int maxRestarts, long period, long backOff, long maxBackOff) {
+        super();
+        this.maxRestarts = maxRestarts;
+        this.period = period;
+        this.backOff = backOff;
+        this.maxBackOff = maxBackOff;
+    }
+
+    /**
+     * One for one restart policy
+     * @param maxRestarts maximum number of restarts within the period
+     * @param period period of the restart intensity in milliseconds
+     * @param backOff delay of the first restart in milliseconds
+     * @param maxBackOff ceiling of the delay of the restarts in milliseconds
+     * @return the policy
+     */
+    public static FSMRestartPolicy oneForOne(int maxRestarts, long period, long backOff, long maxBackOff){
+        if (maxRestarts < 0 || period < 0 || backOff < 0 || maxBackOff < backOff){
+            throw new IllegalArgumentException("Wrong restart policy");
+        }
+        return new FSMRestartPolicy(maxRestarts, period, backOff, maxBackOff);
+    }
+
+    /**
+     * Checks if a run of a sequence is failed and must be restarted:
+     * aborted, without steps or with a wrong step name
+     * @param result outcome of the run
+     * @return true if the sequence is failed
+     */
+    public boolean isFailed(FSMResult result){
+        return result.isAborted() || result.getStatus() == -1 || result.getStatus() == -2;
+    }
+
+    /**
+     * Delay of a restart
+     * @param attempt number of the restarts already done within the period
+     * @return the delay in milliseconds
+     */
+    public long getBackOff(int attempt){
+        if (backOff == 0){
+            return 0;
+        }
+        long delay = backOff << Math.min(attempt, 30);
+        return delay < 0 ? maxBackOff : Math.min(delay, maxBackOff);
+    }
+
+    public int getMaxRestarts() {
+        return maxRestarts;
+    }
+
+    /**
+     * Period of the restart intensity
+     * @return the period in milliseconds
+     */
+    public long getPeriod() {
+        return period;
+    }
+}
@@ -0,0 +1,64 @@
+package fsm;
+
+/**
+ * Outcome of a run of a sequence, the value of the future returned by FSM.start()
+ * @author massimilianoscaletti
+ */
+public final class FSMResult {
+    private final String name;
+    private final int status;
+    private final String lastStep;
+    private final boolean aborted;
+
+    /**
+     * Constructor
+     * @param name name of the sequence
+     * @param status final status of the sequence (see FSM.getStatus())
+     * @param lastStep last step of the sequence
+     * @param aborted true if the sequence has been aborted
+     */
+    public FSMResult(String name, int status, String lastStep, boolean aborted) {
+        super();
+        this.name = name;
+        this.status = status;
+        this.lastStep = lastStep;
+        this.aborted = aborted;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Final status of the sequence
+     * @return the status, see FSM.statusString()
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Last step of the sequence
+     * @return name of the step, "end" or "abort" when the sequence is over by itself
+     */
+    public String getLastStep() {
+        return lastStep;
+    }
+
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Sequence ended cleanly
+     * @return true if the status is 2
+     */
+    public boolean isEnded() {
+        return status == 2;
+    }
+
+    @Override
+    public String toString() {
+        return "FSM " + name + ": " + FSM.statusString(status) + " at " + lastStep;
+    }
+}
@@ -0,0 +1,21 @@
+package fsm;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler used to run the cycles of one or more sequences
+ * without a dedicated thread for every FSM
+ * @author massimilianoscaletti
+ */
+public interface FSMScheduler {
+
+    /**
+     * Schedule a single cycle of a sequence
+     * @param cycle code of the cycle to be executed
+     * @param delay delay before running the cycle
+     * @param unit time unit of the delay
+     * @return handle of the scheduled cycle
+     */
+    ScheduledFuture<?> schedule(Runnable cycle, long delay, TimeUnit unit);
+}
@@ -0,0 +1,64 @@
+package fsm;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FSMScheduler backed by a ScheduledExecutorService shared by many sequences.
+ * A few threads are enough to run thousands of FSM instances, since the
+ * sequences do not sleep on their own thread between cycles
+ * @author massimilianoscaletti
+ */
+public class FSMSharedScheduler implements FSMScheduler {
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Constructor, creates a pool of daemon threads
+     * @param threads number of threads of the pool
+     */
+    public FSMSharedScheduler(int threads) {
+        super();
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "fsm-scheduler-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Constructor, uses an existing executor
+     * @param executor executor running the cycles
+     */
+    public FSMSharedScheduler(ScheduledExecutorService executor) {
+        super();
+        this.executor = executor;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable cycle, long delay, TimeUnit unit) {
+        return executor.schedule(cycle, delay, unit);
+    }
+
+    /**
+     * Returns the executor running the cycles
+     * @return the ScheduledExecutorService
+     */
+    public ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Stops the executor. Sequences still running are not completed
+     */
+    public void shutdown(){
+        executor.shutdown();
+    }
+}
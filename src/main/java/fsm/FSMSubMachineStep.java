@@ -0,0 +1,128 @@
+package fsm;
+
+import fsm.components.FSMClock;
+import fsm.components.FSMCondition;
+import fsm.components.FSMStep;
+import fsm.components.FSMTimingWheel;
+
+/**
+ * Step running a child sequence inline, on the thread of the parent sequence.
+ * The child is started when the step is entered and executes one cycle for
+ * every cycle of the step; when the child ends or aborts the step jumps
+ * immediately to the corresponding step of the parent.
+ * While the child is running the parent cycles with the delay requested by the
+ * child (see getChildDelay()), and signals of the child wake up the parent.
+ * getCycleTime() is the cycle time set on the step, used when the child is not running.
+ * Leaving the step for other reasons (timeout, other conditions added to the step)
+ * stops the child
+ * @author massimilianoscaletti
+ */
+public class FSMSubMachineStep extends FSMStep {
+    public static final String END_CONDITION = "subMachineEnd";
+    public static final String ABORT_CONDITION = "subMachineAbort";
+    private final FSM child;
+    private boolean started = false;
+    private boolean ended = false;
+    private boolean aborted = false;
+    private long childDelay = -1;
+
+    /**
+     * Constructor
+     * @param name name of the step
+     * @param child sequence run inline
+     * @param endStep step of the parent to jump to when the child ends
+     * @param abortStep step of the parent to jump to when the child aborts
+     */
+    public FSMSubMachineStep(String name, FSM child, String endStep, String abortStep) {
+        super(name);
+        this.child = child;
+        addAdvanceCondition(new FSMCondition(END_CONDITION, "sub-machine " + child.getName() + " ended", endStep) {
+            @Override
+            protected boolean compare() {
+                return ended;
+            }
+        });
+        addAdvanceCondition(new FSMCondition(ABORT_CONDITION, "sub-machine " + child.getName() + " aborted", abortStep) {
+            @Override
+            protected boolean compare() {
+                return aborted;
+            }
+        });
+    }
+
+    /**
+     * Sequence run by the step
+     * @return the child sequence
+     */
+    public FSM getChild() {
+        return child;
+    }
+
+    /**
+     * The child sequence runs with the clock of the parent
+     * @param clock the clock
+     */
+    @Override
+    public void setClock(FSMClock clock) {
+        super.setClock(clock);
+        child.setClock(clock);
+    }
+
+    /**
+     * The child sequence uses the timing wheel of the parent
+     * @param timingWheel the wheel
+     */
+    @Override
+    public void setTimingWheel(FSMTimingWheel timingWheel) {
+        super.setTimingWheel(timingWheel);
+        child.setTimingWheel(timingWheel);
+    }
+
+    @Override
+    public void stepRunCode() {
+        if (ended || aborted){
+            return;
+        }
+        if (!started){
+            started = true;
+            child.startInline(new Runnable() {
+                @Override
+                public void run() {
+                    signal();
+                }
+            });
+        }
+        childDelay = child.cycleInline();
+        if (childDelay < 0){
+            child.stopInline();
+            started = false;
+            if (child.getStatus() == 2){
+                ended = true;
+            } else {
+                aborted = true;
+            }
+        }
+    }
+
+    @Override
+    public void resetCode() {
+        // the parent leaves the step or is starting/stopping: close the child
+        if (started){
+            child.stop();
+            child.stopInline();
+            started = false;
+        }
+        ended = false;
+        aborted = false;
+        childDelay = -1;
+    }
+
+    /**
+     * Delay requested by the child for its next cycle, 0 included,
+     * used by the parent instead of the cycle time of the step
+     * @return the delay in milliseconds, -1 if the child is not running
+     */
+    long getChildDelay() {
+        return started ? childDelay : -1;
+    }
+}
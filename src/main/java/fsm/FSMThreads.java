@@ -0,0 +1,71 @@
+package fsm;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Thread factories for the sequence threads.
+ * On Java 21+ virtual() returns a factory of virtual threads, so blocking code
+ * in the steps and the cycle delay of the sequences do not pin an OS thread each.
+ * This is the Java 8 version, it looks up the virtual threads API by reflection.
+ * The multi-release jar contains a Java 21 version using the API directly
+ * @author massimilianoscaletti
+ */
+public final class FSMThreads {
+    private static final ThreadFactory VIRTUAL = lookupVirtual();
+
+    private FSMThreads() {
+        super();
+    }
+
+    /**
+     * Factory of platform threads, same as FSM.start() without factory
+     * @return the ThreadFactory
+     */
+    public static ThreadFactory platform(){
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r);
+            }
+        };
+    }
+
+    /**
+     * Factory of virtual threads.
+     * Falls back to platform threads if virtual threads are not supported by the JVM
+     * @return the ThreadFactory
+     */
+    public static ThreadFactory virtual(){
+        if (VIRTUAL == null){
+            return platform();
+        }
+        return VIRTUAL;
+    }
+
+    /**
+     * Checks if the JVM supports virtual threads
+     * @return true if virtual() creates virtual threads
+     */
+    public static boolean isVirtualSupported(){
+        return VIRTUAL != null;
+    }
+
+    private static ThreadFactory lookupVirtual(){
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, "fsm-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException | ClassNotFoundException ex) {
+            // virtual threads not available before Java 21
+            return null;
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            Logger.getLogger(FSMThreads.class.getName()).log(Level.WARNING, null, ex);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package fsm;
+
+import fsm.components.FSMClock;
+import java.util.PriorityQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Virtual time clock and scheduler: the sequences started with
+ * start(FSMScheduler) on this scheduler run on the thread calling run(),
+ * runFor() or runNext(), and the time jumps straight to the next due cycle,
+ * so hours of sequence run in milliseconds, always in the same order.
+ * Cycles due at the same time run in scheduling order.
+ * The time starts from 0
+ * @author massimilianoscaletti
+ */
+public class FSMVirtualClock implements FSMClock, FSMScheduler {
+    private final PriorityQueue<Task> queue = new PriorityQueue<>();
+    private long now = 0;
+    private long sequence = 0;
+
+    @Override
+    public synchronized long nanoTime() {
+        return now;
+    }
+
+    /**
+     * Actual virtual time
+     * @param unit time unit of the result
+     * @return the time elapsed from the clock creation
+     */
+    public long getTime(TimeUnit unit) {
+        return unit.convert(nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized ScheduledFuture<?> schedule(Runnable cycle, long delay, TimeUnit unit) {
+        long nanos = Math.max(unit.toNanos(delay), 0);
+        long deadline = nanos >= Long.MAX_VALUE - now ? Long.MAX_VALUE : now + nanos;
+        Task task = new Task(cycle, deadline, sequence++);
+        queue.add(task);
+        return task;
+    }
+
+    /**
+     * Runs the next scheduled cycle, moving the time to its deadline.
+     * Cycles waiting a signal without timeout are not run
+     * @return false if there are no cycles to run
+     */
+    public boolean runNext() {
+        return runNext(Long.MAX_VALUE - 1);
+    }
+
+    /**
+     * Runs the cycles until no cycle is scheduled, except those waiting a
+     * signal without timeout. Never returns if a sequence cycles forever
+     * @return number of cycles run
+     */
+    public long run() {
+        long count = 0;
+        while (runNext()){
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Runs the cycles due in the next period of virtual time, then moves the time
+     * to the end of the period
+     * @param time the period
+     * @param unit time unit of the period
+     * @return number of cycles run
+     */
+    public long runFor(long time, TimeUnit unit) {
+        long limit;
+        synchronized (this){
+            long nanos = unit.toNanos(time);
+            limit = nanos >= Long.MAX_VALUE - 1 - now ? Long.MAX_VALUE - 1 : now + nanos;
+        }
+        long count = 0;
+        while (runNext(limit)){
+            count++;
+        }
+        synchronized (this){
+            now = Math.max(now, limit);
+        }
+        return count;
+    }
+
+    /**
+     * Number of cycles scheduled
+     * @return the pending cycles
+     */
+    public synchronized int getPending() {
+        return queue.size();
+    }
+
+    /**
+     * Runs the next cycle due before a limit, on the calling thread
+     * @param limit latest deadline in nanoseconds
+     * @return false if no cycle is due before the limit
+     */
+    private boolean runNext(long limit) {
+        Task task;
+        synchronized (this){
+            task = queue.peek();
+            if (task == null || task.deadline > limit){
+                return false;
+            }
+            queue.poll();
+            now = Math.max(now, task.deadline);
+            task.state = Task.RUNNING;
+        }
+        try {
+            task.cycle.run();
+        } finally {
+            synchronized (this){
+                task.state = Task.DONE;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cycle scheduled in virtual time
+     */
+    private final class Task implements ScheduledFuture<Object> {
+        static final int WAITING = 0;
+        static final int RUNNING = 1;
+        static final int DONE = 2;
+        static final int CANCELLED = 3;
+        final Runnable cycle;
+        final long deadline;
+        final long order;
+        int state = WAITING;
+
+        Task(Runnable cycle, long deadline, long order) {
+            this.cycle = cycle;
+            this.deadline = deadline;
+            this.order = order;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            Task t = (Task) o;
+            if (deadline != t.deadline){
+                return deadline < t.deadline ? -1 : 1;
+            }
+            return Long.compare(order, t.order);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (FSMVirtualClock.this){
+                if (state != WAITING){
+                    return false;
+                }
+                state = CANCELLED;
+                queue.remove(this);
+                return true;
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            synchronized (FSMVirtualClock.this){
+                return state == CANCELLED;
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            synchronized (FSMVirtualClock.this){
+                return state >= DONE;
+            }
+        }
+
+        @Override
+        public Object get() {
+            if (!isDone()){
+                throw new IllegalStateException("Virtual cycle not run yet");
+            }
+            return null;
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) throws TimeoutException {
+            if (!isDone()){
+                throw new TimeoutException("Virtual cycle not run yet");
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package fsm.batch;
+
+import fsm.FSM;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Engine running many instances of the same machine definition.
+ * The state of the instances is kept in primitive arrays (struct of arrays):
+ * actual step, entry time in the step and status, about 13 bytes per instance,
+ * so tens of millions of instances fit in memory.
+ * Every tick advances all the running instances; the instances are
+ * partitioned across the cores with fork/join
+ * @author massimilianoscaletti
+ */
+public class FSMBatch {
+    public static final byte IDLE = 0;
+    public static final byte RUNNING = 1;
+    public static final byte ENDED = 2;
+    public static final byte ABORTED = 3;
+    /** instances processed by a single fork/join task */
+    static final int CHUNK = 16384;
+
+    private final FSMBatchDefinition definition;
+    private final FSMBatchDefinition.Compiled machine;
+    private final int instances;
+    private final int[] step;
+    private final long[] entryTime;
+    private final byte[] status;
+    private final ForkJoinPool pool;
+    private final LongAdder running = new LongAdder();
+    private long epoch;
+    private long now;
+
+    /**
+     * Constructor, uses the common fork/join pool
+     * @param definition definition of the machine
+     * @param instances number of instances
+     * @throws IllegalArgumentException if the definition contains wrong step names
+     */
+    public FSMBatch(FSMBatchDefinition definition, int instances) {
+        this(definition, instances, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor
+     * @param definition definition of the machine
+     * @param instances number of instances
+     * @param pool pool running the ticks
+     * @throws IllegalArgumentException if the definition contains wrong step names
+     */
+    public FSMBatch(FSMBatchDefinition definition, int instances, ForkJoinPool pool) {
+        super();
+        this.definition = definition;
+        this.machine = definition.compile();
+        this.instances = instances;
+        this.step = new int[instances];
+        this.entryTime = new long[instances];
+        this.status = new byte[instances];
+        this.pool = pool;
+    }
+
+    /**
+     * Puts all the instances in the start step
+     * @param nowMillis actual time in milliseconds
+     */
+    public void start(long nowMillis){
+        epoch = nowMillis;
+        now = nowMillis;
+        for (int i = 0; i < instances; i++){
+            step[i] = machine.start;
+            entryTime[i] = 0;
+            status[i] = RUNNING;
+        }
+        running.reset();
+        running.add(instances);
+    }
+
+    /**
+     * Advances all the running instances of one cycle
+     * @param nowMillis actual time in milliseconds
+     * @return the number of instances still running
+     */
+    public long tick(long nowMillis){
+        now = nowMillis;
+        if (instances <= CHUNK){
+            advance(0, instances, nowMillis - epoch);
+        } else {
+            pool.invoke(new Tick(0, instances, nowMillis - epoch));
+        }
+        return running.sum();
+    }
+
+    /**
+     * Advances the instances in a range
+     * @param from first instance
+     * @param to last instance (excluded)
+     * @param time actual time relative to the start of the batch
+     */
+    private void advance(int from, int to, long time){
+        FSMBatchAction[] actions = machine.actions;
+        FSMBatchCondition[][] conditions = machine.conditions;
+        int[][] next = machine.next;
+        long[] timeOut = machine.timeOut;
+        int[] timeOutNext = machine.timeOutNext;
+        int done = 0;
+        for (int i = from; i < to; i++){
+            if (status[i] != RUNNING){
+                continue;
+            }
+            int s = step[i];
+            FSMBatchAction action = actions[s];
+            if (action != null){
+                action.run(i);
+            }
+            long elapsed = time - entryTime[i];
+            int target = Integer.MIN_VALUE;
+            if (timeOut[s] >= 0 && elapsed > timeOut[s]){
+                target = timeOutNext[s];
+            } else {
+                FSMBatchCondition[] c = conditions[s];
+                for (int k = 0; k < c.length; k++){
+                    if (c[k].test(i, elapsed)){
+                        target = next[s][k];
+                        break;
+                    }
+                }
+            }
+            if (target == Integer.MIN_VALUE){
+                continue;
+            }
+            if (target >= 0){
+                step[i] = target;
+                entryTime[i] = time;
+            } else {
+                step[i] = target;
+                status[i] = target == FSM.END_INDEX ? ENDED : ABORTED;
+                done++;
+            }
+        }
+        if (done > 0){
+            running.add(-done);
+        }
+    }
+
+    /**
+     * Number of instances
+     * @return the number of instances
+     */
+    public int size(){
+        return instances;
+    }
+
+    /**
+     * Number of instances still running
+     * @return the number of instances
+     */
+    public long getRunning(){
+        return running.sum();
+    }
+
+    /**
+     * Actual step of an instance
+     * @param instance index of the instance
+     * @return index of the step, FSM.END_INDEX or FSM.ABORT_INDEX
+     */
+    public int getStep(int instance){
+        return step[instance];
+    }
+
+    /**
+     * Name of the actual step of an instance
+     * @param instance index of the instance
+     * @return name of the step
+     */
+    public String getStepName(int instance){
+        return definition.getName(step[instance]);
+    }
+
+    /**
+     * Status of an instance
+     * @param instance index of the instance
+     * @return IDLE, RUNNING, ENDED or ABORTED
+     */
+    public byte getStatus(int instance){
+        return status[instance];
+    }
+
+    /**
+     * Time spent by an instance in its actual step
+     * @param instance index of the instance
+     * @return the time in milliseconds
+     */
+    public long getElapsed(int instance){
+        return (now - epoch) - entryTime[instance];
+    }
+
+    /**
+     * Fork/join task advancing a range of instances
+     */
+    private class Tick extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+        private final long time;
+
+        Tick(int from, int to, long time) {
+            this.from = from;
+            this.to = to;
+            this.time = time;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK){
+                advance(from, to, time);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Tick(from, middle, time), new Tick(middle, to, time));
+        }
+    }
+}
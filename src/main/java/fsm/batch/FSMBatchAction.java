@@ -0,0 +1,14 @@
+package fsm.batch;
+
+/**
+ * Code of a step of a batch machine, run for a single instance
+ * @author massimilianoscaletti
+ */
+public interface FSMBatchAction {
+
+    /**
+     * Executes the step code for an instance
+     * @param instance index of the instance
+     */
+    void run(int instance);
+}
@@ -0,0 +1,16 @@
+package fsm.batch;
+
+/**
+ * Advance condition of a step of a batch machine, checked for a single instance
+ * @author massimilianoscaletti
+ */
+public interface FSMBatchCondition {
+
+    /**
+     * Checks the condition for an instance
+     * @param instance index of the instance
+     * @param elapsed time spent by the instance in the step, in milliseconds
+     * @return true if the instance must jump to the next step
+     */
+    boolean test(int instance, long elapsed);
+}
@@ -0,0 +1,150 @@
+package fsm.batch;
+
+import fsm.FSM;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Definition of a machine run by FSMBatch: steps are identified by index,
+ * step code and conditions work on the index of the instance, so the
+ * instances have no object of their own
+ * @author massimilianoscaletti
+ */
+public class FSMBatchDefinition {
+    private final String startStep;
+    private final List<String> names = new ArrayList<>();
+    private final List<FSMBatchAction> actions = new ArrayList<>();
+    private final List<List<FSMBatchCondition>> conditions = new ArrayList<>();
+    private final List<List<String>> targets = new ArrayList<>();
+    private final List<Long> timeOuts = new ArrayList<>();
+    private final List<String> timeOutSteps = new ArrayList<>();
+
+    /**
+     * Constructor
+     * @param startStep name of the first step of every instance
+     */
+    public FSMBatchDefinition(String startStep) {
+        super();
+        this.startStep = startStep;
+    }
+
+    /**
+     * Add a step
+     * @param name name of the step
+     * @param action code run on every tick for every instance in the step, can be null
+     * @return the index of the step
+     */
+    public int addStep(String name, FSMBatchAction action){
+        if (names.contains(name)){
+            throw new IllegalArgumentException("Duplicated step name '" + name + "'");
+        }
+        names.add(name);
+        actions.add(action);
+        conditions.add(new ArrayList<>());
+        targets.add(new ArrayList<>());
+        timeOuts.add(-1L);
+        timeOutSteps.add("");
+        return names.size() - 1;
+    }
+
+    /**
+     * Add an advance condition to a step, conditions are checked in insertion order
+     * @param step index of the step
+     * @param condition the condition
+     * @param nextStep name of the step to jump to, FSM.END or FSM.ABORT
+     */
+    public void addAdvanceCondition(int step, FSMBatchCondition condition, String nextStep){
+        conditions.get(step).add(condition);
+        targets.get(step).add(nextStep);
+    }
+
+    /**
+     * Set the timeout of a step
+     * @param step index of the step
+     * @param timeOut timeout in milliseconds
+     * @param timeOutStep name of the step to jump to on timeout
+     */
+    public void setTimeOut(int step, long timeOut, String timeOutStep){
+        timeOuts.set(step, timeOut);
+        timeOutSteps.set(step, timeOutStep);
+    }
+
+    /**
+     * Number of steps
+     * @return the number of steps
+     */
+    public int size(){
+        return names.size();
+    }
+
+    /**
+     * Name of a step
+     * @param step index of the step
+     * @return the name
+     */
+    public String getName(int step){
+        if (step == FSM.END_INDEX){
+            return FSM.END;
+        }
+        if (step == FSM.ABORT_INDEX){
+            return FSM.ABORT;
+        }
+        return names.get(step);
+    }
+
+    /**
+     * Resolves the definition to the arrays used by the batch engine
+     * @return the compiled definition
+     * @throws IllegalArgumentException if a step name is wrong
+     */
+    Compiled compile(){
+        HashMap<String, Integer> index = new HashMap<>();
+        index.put(FSM.END, FSM.END_INDEX);
+        index.put(FSM.ABORT, FSM.ABORT_INDEX);
+        for (int i = 0; i < names.size(); i++){
+            index.put(names.get(i), i);
+        }
+        Compiled c = new Compiled();
+        int n = names.size();
+        c.start = lookup(index, startStep, "start step");
+        if (c.start < 0){
+            throw new IllegalArgumentException("Wrong start step name '" + startStep + "'");
+        }
+        c.actions = actions.toArray(new FSMBatchAction[0]);
+        c.conditions = new FSMBatchCondition[n][];
+        c.next = new int[n][];
+        c.timeOut = new long[n];
+        c.timeOutNext = new int[n];
+        for (int s = 0; s < n; s++){
+            c.conditions[s] = conditions.get(s).toArray(new FSMBatchCondition[0]);
+            c.next[s] = new int[c.conditions[s].length];
+            for (int k = 0; k < c.next[s].length; k++){
+                c.next[s][k] = lookup(index, targets.get(s).get(k), "step " + names.get(s));
+            }
+            c.timeOut[s] = timeOuts.get(s);
+            c.timeOutNext[s] = c.timeOut[s] >= 0 ? lookup(index, timeOutSteps.get(s), "timeout of step " + names.get(s)) : 0;
+        }
+        return c;
+    }
+
+    private static int lookup(HashMap<String, Integer> index, String name, String where){
+        Integer i = index.get(name);
+        if (i == null){
+            throw new IllegalArgumentException(where + ": wrong step name '" + name + "'");
+        }
+        return i;
+    }
+
+    /**
+     * Definition resolved to arrays
+     */
+    static class Compiled {
+        int start;
+        FSMBatchAction[] actions;
+        FSMBatchCondition[][] conditions;
+        int[][] next;
+        long[] timeOut;
+        int[] timeOutNext;
+    }
+}
@@ -0,0 +1,234 @@
+package fsm.checkpoint;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Snapshot of a sequence: actual step, time elapsed in the step (for the
+ * timeout accounting), status and the state saved by the steps
+ * (see FSMStep.saveState()). Taken with FSM.checkpoint() and restored
+ * with FSM.resume().
+ * Binary layout of a record, big endian:
+ * <pre>
+ * int    magic "FSMC"
+ * short  version
+ * string name of the sequence
+ * string actual step
+ * int    status
+ * long   elapsed time in the step, milliseconds
+ * long   checkpoint time, System.currentTimeMillis()
+ * int    number of step states, then for each: string step name, int length, bytes
+ * </pre>
+ * strings are written as int length and UTF-8 bytes
+ * @author massimilianoscaletti
+ */
+public final class FSMCheckpoint {
+    /** record signature "FSMC" */
+    public static final int MAGIC = 0x46534D43;
+    public static final short VERSION = 1;
+
+    private final String name;
+    private final String step;
+    private final int status;
+    private final long elapsedTime;
+    private final long timestamp;
+    private final Map<String, byte[]> stepStates;
+
+    /**
+     * Constructor
+     * @param name name of the sequence
+     * @param step actual step of the sequence
+     * @param status status of the sequence
+     * @param elapsedTime time elapsed in the actual step in milliseconds
+     * @param timestamp checkpoint time, System.currentTimeMillis()
+     * @param stepStates states of the steps by step name
+     */
+    public FSMCheckpoint(String name, String step, int status, long elapsedTime, long timestamp,
+                         Map<String, byte[]> stepStates) {
+        super();
+        this.name = name;
+        this.step = step;
+        this.status = status;
+        this.elapsedTime = elapsedTime;
+        this.timestamp = timestamp;
+        this.stepStates = Collections.unmodifiableMap(new LinkedHashMap<>(stepStates));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Step running when the checkpoint was taken
+     * @return name of the step
+     */
+    public String getStep() {
+        return step;
+    }
+
+    /**
+     * Status of the sequence when the checkpoint was taken (see FSM.getStatus())
+     * @return the status
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Time elapsed in the actual step
+     * @return elapsed time in milliseconds
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Checkpoint time
+     * @return System.currentTimeMillis() of the checkpoint
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * State saved by a step
+     * @param stepName name of the step
+     * @return the state, null if the step has no state
+     */
+    public byte[] getStepState(String stepName) {
+        return stepStates.get(stepName);
+    }
+
+    /**
+     * States saved by the steps
+     * @return unmodifiable map of the states by step name
+     */
+    public Map<String, byte[]> getStepStates() {
+        return stepStates;
+    }
+
+    /**
+     * Size of the binary record
+     * @return size in bytes
+     */
+    public int size(){
+        int size = 4 + 2 + stringSize(name) + stringSize(step) + 4 + 8 + 8 + 4;
+        for (Map.Entry<String, byte[]> e : stepStates.entrySet()){
+            size += stringSize(e.getKey()) + 4 + e.getValue().length;
+        }
+        return size;
+    }
+
+    /**
+     * Writes the binary record at the position of the buffer
+     * @param buffer the buffer, with at least size() bytes remaining
+     */
+    public void writeTo(ByteBuffer buffer){
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        putString(buffer, name);
+        putString(buffer, step);
+        buffer.putInt(status);
+        buffer.putLong(elapsedTime);
+        buffer.putLong(timestamp);
+        buffer.putInt(stepStates.size());
+        for (Map.Entry<String, byte[]> e : stepStates.entrySet()){
+            putString(buffer, e.getKey());
+            buffer.putInt(e.getValue().length);
+            buffer.put(e.getValue());
+        }
+    }
+
+    /**
+     * Reads a binary record from the position of the buffer
+     * @param buffer the buffer
+     * @return the checkpoint
+     * @throws IOException if the buffer doesn't contain a valid record
+     */
+    public static FSMCheckpoint readFrom(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC){
+                throw new IOException("Not a FSM checkpoint record");
+            }
+            short version = buffer.getShort();
+            if (version != VERSION){
+                throw new IOException("Unsupported FSM checkpoint version " + version);
+            }
+            String name = getString(buffer);
+            String step = getString(buffer);
+            int status = buffer.getInt();
+            long elapsedTime = buffer.getLong();
+            long timestamp = buffer.getLong();
+            int count = buffer.getInt();
+            LinkedHashMap<String, byte[]> states = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++){
+                String stepName = getString(buffer);
+                byte[] state = new byte[buffer.getInt()];
+                buffer.get(state);
+                states.put(stepName, state);
+            }
+            return new FSMCheckpoint(name, step, status, elapsedTime, timestamp, states);
+        } catch (BufferUnderflowException | NegativeArraySizeException ex){
+            throw new IOException("Truncated FSM checkpoint record", ex);
+        }
+    }
+
+    /**
+     * Writes the checkpoint to a file
+     * @param file the file to be written
+     * @throws IOException on write errors
+     */
+    public void write(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size());
+        writeTo(buffer);
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Reads a checkpoint written by write()
+     * @param file the file to be read
+     * @return the checkpoint
+     * @throws IOException if the file cannot be read or is not a checkpoint
+     */
+    public static FSMCheckpoint read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0){
+                // read the whole file
+            }
+            buffer.flip();
+            return readFrom(buffer);
+        }
+    }
+
+    static int stringSize(String s){
+        return 4 + s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    static void putString(ByteBuffer buffer, String s){
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer){
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
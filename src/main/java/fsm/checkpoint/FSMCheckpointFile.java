@@ -0,0 +1,99 @@
+package fsm.checkpoint;
+
+import fsm.FSM;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bulk checkpoint of many sequences in a single memory-mapped file.
+ * Layout: int magic "FSMB", short version, int number of records,
+ * then the FSMCheckpoint records one after another
+ * @author massimilianoscaletti
+ */
+public final class FSMCheckpointFile {
+    /** file signature "FSMB" */
+    public static final int MAGIC = 0x46534D42;
+    public static final short VERSION = 1;
+    private static final int HEADER = 4 + 2 + 4;
+
+    private FSMCheckpointFile() {
+    }
+
+    /**
+     * Takes a checkpoint of every sequence and writes them to a file
+     * @param file the file to be written
+     * @param machines the sequences
+     * @return the checkpoints written
+     * @throws IOException on write errors
+     */
+    public static List<FSMCheckpoint> checkpoint(Path file, Collection<? extends FSM> machines) throws IOException {
+        List<FSMCheckpoint> checkpoints = new ArrayList<>(machines.size());
+        for (FSM fsm : machines){
+            checkpoints.add(fsm.checkpoint());
+        }
+        write(file, checkpoints);
+        return checkpoints;
+    }
+
+    /**
+     * Writes checkpoints to a file
+     * @param file the file to be written
+     * @param checkpoints the checkpoints
+     * @throws IOException on write errors
+     */
+    public static void write(Path file, Collection<FSMCheckpoint> checkpoints) throws IOException {
+        long size = HEADER;
+        for (FSMCheckpoint c : checkpoints){
+            size += c.size();
+        }
+        if (size > Integer.MAX_VALUE){
+            throw new IOException("Checkpoint file too big: " + size + " bytes");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            buffer.putShort(VERSION);
+            buffer.putInt(checkpoints.size());
+            for (FSMCheckpoint c : checkpoints){
+                c.writeTo(buffer);
+            }
+            buffer.force();
+        }
+    }
+
+    /**
+     * Reads the checkpoints written by write() or checkpoint()
+     * @param file the file to be read
+     * @return the checkpoints by sequence name, in file order
+     * @throws IOException if the file cannot be read or is not a checkpoint file
+     */
+    public static Map<String, FSMCheckpoint> read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER || buffer.getInt() != MAGIC){
+                throw new IOException("Not a FSM checkpoint file: " + file);
+            }
+            short version = buffer.getShort();
+            if (version != VERSION){
+                throw new IOException("Unsupported FSM checkpoint file version " + version);
+            }
+            int count = buffer.getInt();
+            LinkedHashMap<String, FSMCheckpoint> checkpoints = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++){
+                FSMCheckpoint c = FSMCheckpoint.readFrom(buffer);
+                checkpoints.put(c.getName(), c);
+            }
+            return checkpoints;
+        }
+    }
+}
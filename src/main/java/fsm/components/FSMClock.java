@@ -0,0 +1,26 @@
+package fsm.components;
+
+/**
+ * Time source of the sequences and of their steps (cycle deadlines,
+ * step timeouts). SYSTEM is the real monotonic time; fsm.FSMVirtualClock
+ * runs the sequences in virtual time
+ * @author massimilianoscaletti
+ */
+public interface FSMClock {
+
+    /**
+     * Real time, System.nanoTime()
+     */
+    FSMClock SYSTEM = new FSMClock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Actual time, monotonic, with arbitrary origin
+     * @return the time in nanoseconds
+     */
+    long nanoTime();
+}
@@ -10,7 +10,11 @@ public abstract class FSMCondition{
     String description;
     String next;
     String name;
-    boolean jumpNext = false;
+    volatile boolean jumpNext = false;
+    volatile FSMStep step;
+    String resolvedNext;
+    int nextIndex = FSMStep.UNRESOLVED;
+    int priority = 0;
 
     /**
      * Constructor for AdvanceCondition
@@ -39,6 +43,36 @@ public abstract class FSMCondition{
      */
     public void setNext(String next) {
         this.next = next;
+        this.nextIndex = FSMStep.UNRESOLVED;
+    }
+
+    /**
+     * Returns the index in the step table of the step to jump to
+     * @return index of the step, FSMStep.UNRESOLVED if the sequence is not started
+     */
+    public int getNextIndex() {
+        return nextIndex;
+    }
+
+    /**
+     * Returns the priority of the condition
+     * @return the priority, higher is checked first
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the priority of the condition, used when the step evaluation
+     * policy is FSMEvaluation.PRIORITY
+     * @param priority priority of the condition, higher is checked first
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+        FSMStep s = step;
+        if (s != null){
+            s.buildConditionTable();
+        }
     }
 
     /**
@@ -89,10 +123,33 @@ public abstract class FSMCondition{
 
     /**
      * Force a jump to the next step
-     * The jump it's executed in the isCompare() method
+     * The jump it's executed in the isCompare() method,
+     * the sequence is woken up to execute it immediately
      */
     public void setJumpNext() {
         this.jumpNext = true;
+        signal();
+    }
+
+    /**
+     * Wakes up the sequence owning this condition, so the condition is
+     * checked immediately instead of the next cycle.
+     * To be called when the data checked by compare() are changed
+     */
+    public void signal(){
+        FSMStep s = step;
+        if (s != null){
+            s.signal();
+        }
+    }
+
+    /**
+     * Snapshot of the data context of the sequence owning this condition
+     * @return the snapshot, null if the sequence has no data context
+     */
+    public FSMDataSnapshot getData(){
+        FSMStep s = step;
+        return s == null ? null : s.getData();
     }
 
     /**
@@ -0,0 +1,336 @@
+package fsm.components;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Typed data shared by the conditions of many steps and sequences, e.g. the
+ * I/O points of a plant. The values are kept in primitive slots allocated by
+ * index (int, long, double and boolean, all stored as 64 bits) and are written
+ * only by the FSMInputProvider, when the context is refreshed.
+ * <p>
+ * The provider writes a private staging copy of the slots, outside of any
+ * lock seen by the readers. The values are then published under a sequence
+ * lock: the sequence is odd only while the staging copy is copied to the
+ * slots, readers copy the slots and retry if the sequence changed, so they
+ * never wait for the inputs being read nor see a refresh half done.
+ * Every sequence with the context takes one snapshot per cycle (see
+ * FSMDataSnapshot): the conditions read the snapshot, a plain array owned by
+ * the sequence thread, without boxing or locking.
+ * <pre>
+ * FSMDataContext io = new FSMDataContext();
+ * final int pressure = io.doubleSlot("pressure");
+ * io.setProvider(new FSMInputProvider() {
+ *     public void read(FSMDataContext.Writer in) {
+ *         in.setDouble(pressure, plc.readPressure());
+ *     }
+ * });
+ * fsm.setDataContext(io);
+ * ...
+ * protected boolean compare() {
+ *     return getData().getDouble(pressure) &gt; 2.5;
+ * }
+ * </pre>
+ * @author massimilianoscaletti
+ */
+public class FSMDataContext {
+    /** types of the slots */
+    public static final byte INT = 0;
+    public static final byte LONG = 1;
+    public static final byte DOUBLE = 2;
+    public static final byte BOOLEAN = 3;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile AtomicLongArray slots = new AtomicLongArray(16);
+    /** values written by the provider, guarded by writerLock */
+    private long[] staging = new long[16];
+    private final ReentrantLock writerLock = new ReentrantLock();
+    private final ArrayList<String> names = new ArrayList<>();
+    private final ArrayList<Byte> types = new ArrayList<>();
+    private final HashMap<String, Integer> index = new HashMap<>();
+    private volatile int size = 0;
+    private volatile FSMInputProvider provider;
+    private volatile FSMClock clock = FSMClock.SYSTEM;
+    private volatile long refreshPeriod = 0;
+    private volatile long lastRefresh;
+    private volatile boolean refreshed = false;
+    private final Writer writer = new Writer();
+
+    /**
+     * Allocates an int slot
+     * @param name name of the slot
+     * @return index of the slot
+     */
+    public int intSlot(String name){
+        return allocate(name, INT);
+    }
+
+    /**
+     * Allocates a long slot
+     * @param name name of the slot
+     * @return index of the slot
+     */
+    public int longSlot(String name){
+        return allocate(name, LONG);
+    }
+
+    /**
+     * Allocates a double slot
+     * @param name name of the slot
+     * @return index of the slot
+     */
+    public int doubleSlot(String name){
+        return allocate(name, DOUBLE);
+    }
+
+    /**
+     * Allocates a boolean slot
+     * @param name name of the slot
+     * @return index of the slot
+     */
+    public int booleanSlot(String name){
+        return allocate(name, BOOLEAN);
+    }
+
+    private synchronized int allocate(String name, byte type){
+        if (index.containsKey(name)){
+            throw new IllegalArgumentException("Duplicated slot name '" + name + "'");
+        }
+        int slot = size;
+        if (slot == slots.length()){
+            // grow under the sequence lock, so a publication doesn't write the old array
+            long s = lockWriter();
+            try {
+                AtomicLongArray old = slots;
+                AtomicLongArray grown = new AtomicLongArray(old.length() * 2);
+                for (int i = 0; i < old.length(); i++){
+                    grown.set(i, old.get(i));
+                }
+                slots = grown;
+            } finally {
+                sequence.set(s + 2);
+            }
+        }
+        names.add(name);
+        types.add(type);
+        index.put(name, slot);
+        size = slot + 1;
+        return slot;
+    }
+
+    /**
+     * Returns the index of a slot
+     * @param name name of the slot
+     * @return the index, -1 if not allocated
+     */
+    public synchronized int getSlot(String name){
+        Integer i = index.get(name);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * Returns the name of a slot
+     * @param slot index of the slot
+     * @return the name
+     */
+    public synchronized String getSlotName(int slot){
+        return names.get(slot);
+    }
+
+    /**
+     * Returns the type of a slot
+     * @param slot index of the slot
+     * @return INT, LONG, DOUBLE or BOOLEAN
+     */
+    public synchronized byte getSlotType(int slot){
+        return types.get(slot);
+    }
+
+    /**
+     * Number of slots allocated
+     * @return the number of slots
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Set the code reading the inputs on every refresh
+     * @param provider the provider, null to keep the values written by write()
+     */
+    public void setProvider(FSMInputProvider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Set the clock of the refresh period
+     * @param clock the clock
+     */
+    public void setClock(FSMClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Minimum time between two refreshes. Many sequences sharing the context
+     * refresh it on every cycle: with a period they share the same reading of
+     * the inputs. 0 (default) reads the inputs on every refresh
+     * @param period minimum time between two readings
+     * @param unit time unit of the period
+     */
+    public void setRefreshPeriod(long period, TimeUnit unit) {
+        this.refreshPeriod = unit.toNanos(period);
+    }
+
+    /**
+     * Reads the inputs through the provider, called by every sequence with the
+     * context at the start of its cycles. The reading is skipped if another
+     * thread is refreshing the context or if the refresh period is not elapsed.
+     * The readers of the slots go on with the previous values while the inputs are read
+     * @return true if the inputs have been read
+     */
+    public boolean refresh(){
+        FSMInputProvider p = provider;
+        if (p == null){
+            return false;
+        }
+        long now = clock.nanoTime();
+        if (refreshed && now - lastRefresh < refreshPeriod){
+            return false;
+        }
+        // another thread is reading the same inputs
+        if (!writerLock.tryLock()){
+            return false;
+        }
+        try {
+            p.read(writer);
+            publish();
+            lastRefresh = now;
+            refreshed = true;
+        } finally {
+            writerLock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Writes the slots from any thread, outside of the provider.
+     * Waits for a refresh in progress, the readers never wait for it
+     * @param provider the code writing the slots
+     */
+    public void write(FSMInputProvider provider){
+        writerLock.lock();
+        try {
+            provider.read(writer);
+            publish();
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    /**
+     * Copies the staging values to the slots under the sequence lock,
+     * called holding the writer lock
+     */
+    private void publish(){
+        long s = lockWriter();
+        try {
+            AtomicLongArray a = slots;
+            long[] values = staging;
+            int n = Math.min(values.length, a.length());
+            for (int i = 0; i < n; i++){
+                a.set(i, values[i]);
+            }
+        } finally {
+            sequence.set(s + 2);
+        }
+    }
+
+    /**
+     * Takes a snapshot of the slots
+     * @return a new snapshot, to be updated with FSMDataSnapshot.update()
+     */
+    public FSMDataSnapshot snapshot(){
+        FSMDataSnapshot snapshot = new FSMDataSnapshot(this);
+        snapshot.update();
+        return snapshot;
+    }
+
+    /**
+     * Copies the slots to an array, retrying while a refresh is in progress
+     * @param values destination, at least size() long
+     * @return number of slots copied
+     */
+    int copy(long[] values){
+        while (true){
+            long s = sequence.get();
+            if ((s & 1) == 0){
+                AtomicLongArray a = slots;
+                int n = Math.min(size, values.length);
+                for (int i = 0; i < n; i++){
+                    values[i] = a.get(i);
+                }
+                // the slots are volatile: read before the sequence is read again
+                if (sequence.get() == s){
+                    return n;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Waits for the sequence lock, held only to copy values to the slots
+     * @return the sequence before the lock, to be set to +2 on unlock
+     */
+    private long lockWriter(){
+        while (true){
+            long s = sequence.get();
+            if ((s & 1) == 0 && sequence.compareAndSet(s, s + 1)){
+                return s;
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Writes the staging copy of the slots, handed to the FSMInputProvider
+     * during the refresh. The values are published when the provider returns
+     */
+    public final class Writer {
+        private Writer() {
+        }
+
+        public void setInt(int slot, int value){
+            stage(slot)[slot] = value;
+        }
+
+        public void setLong(int slot, long value){
+            stage(slot)[slot] = value;
+        }
+
+        public void setDouble(int slot, double value){
+            stage(slot)[slot] = Double.doubleToRawLongBits(value);
+        }
+
+        public void setBoolean(int slot, boolean value){
+            stage(slot)[slot] = value ? 1 : 0;
+        }
+
+        /**
+         * The staging array, grown to the slots allocated after the last writing
+         */
+        private long[] stage(int slot){
+            long[] values = staging;
+            if (slot >= values.length){
+                values = Arrays.copyOf(values, Math.max(slots.length(), slot + 1));
+                staging = values;
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package fsm.components;
+
+/**
+ * Consistent copy of the slots of a FSMDataContext, updated by the sequence
+ * at the start of every cycle and read by its steps and conditions.
+ * Not thread safe: it belongs to the sequence thread
+ * @author massimilianoscaletti
+ */
+public class FSMDataSnapshot {
+    private final FSMDataContext context;
+    private long[] values = new long[0];
+
+    /**
+     * Constructor
+     * @param context the shared context
+     */
+    public FSMDataSnapshot(FSMDataContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Copies the actual values of the slots of the context
+     */
+    public void update(){
+        int size = context.size();
+        if (values.length < size){
+            values = new long[size];
+        }
+        context.copy(values);
+    }
+
+    /**
+     * The shared context of the snapshot
+     * @return the context
+     */
+    public FSMDataContext getContext() {
+        return context;
+    }
+
+    public int getInt(int slot){
+        return (int) values[slot];
+    }
+
+    public long getLong(int slot){
+        return values[slot];
+    }
+
+    public double getDouble(int slot){
+        return Double.longBitsToDouble(values[slot]);
+    }
+
+    public boolean getBoolean(int slot){
+        return values[slot] != 0;
+    }
+}
@@ -0,0 +1,23 @@
+package fsm.components;
+
+/**
+ * Evaluation policy of the advance conditions of a step
+ * @author massimilianoscaletti
+ */
+public enum FSMEvaluation {
+    /**
+     * conditions are checked in insertion order,
+     * the check stops at the first condition met
+     */
+    FIRST_MATCH,
+    /**
+     * conditions are checked by priority (higher first, insertion order for
+     * the same priority), the check stops at the first condition met
+     */
+    PRIORITY,
+    /**
+     * all the conditions are checked on every cycle, the first one met wins.
+     * Legacy behavior, for conditions with side effects in compare()
+     */
+    EVALUATE_ALL
+}
@@ -0,0 +1,64 @@
+package fsm.components;
+
+/**
+ * Condition met by an event posted to the sequence (see FSM.post()).
+ * The pending events of the given type are checked in arrival order with match();
+ * the first matching event is consumed and kept as last event of the condition
+ * @param <E> type of the events
+ * @author massimilianoscaletti
+ */
+public abstract class FSMEventCondition<E> extends FSMCondition {
+    private final Class<E> type;
+    private E lastEvent;
+
+    /**
+     * Constructor
+     * @param name name of the condition
+     * @param type type of the events checked
+     * @param nextStep name of the step to jump to when an event matches
+     */
+    public FSMEventCondition(String name, Class<E> type, String nextStep) {
+        super(name, nextStep);
+        this.type = type;
+    }
+
+    /**
+     * Checks an event
+     * @param event pending event of the condition type
+     * @return true if the event meets the condition and must be consumed
+     */
+    protected abstract boolean match(E event);
+
+    @Override
+    protected boolean compare() {
+        FSMStep s = step;
+        FSMInbox inbox = s == null ? null : s.inbox;
+        if (inbox == null){
+            return false;
+        }
+        for (int i = 0; i < inbox.size(); i++){
+            Object event = inbox.get(i);
+            if (type.isInstance(event)){
+                E e = type.cast(event);
+                if (match(e)){
+                    inbox.consume(i);
+                    lastEvent = e;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public Class<E> getType() {
+        return type;
+    }
+
+    /**
+     * Last event consumed by the condition
+     * @return the event, null if none
+     */
+    public E getLastEvent() {
+        return lastEvent;
+    }
+}
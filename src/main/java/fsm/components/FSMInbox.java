@@ -0,0 +1,174 @@
+package fsm.components;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Inbox of the events posted to a sequence (see FSM.post()).
+ * The events are queued in a bounded lock-free ring, multi producer single
+ * consumer: posting doesn't lock nor allocate. At the start of every cycle the
+ * sequence moves the queued events in a batch to the pending events, where the
+ * conditions (see FSMEventCondition) find and consume them.
+ * <p>
+ * Unmatched events: pending events stay across cycles and steps until a
+ * condition consumes them, so events posted together are all received. When
+ * the pending events fill the inbox the oldest ones are dropped to make room
+ * for the new ones (see getDropped()), so the sequence never stops receiving.
+ * The events still in the inbox when a run ends are discarded, the next run
+ * starts with an empty inbox. post() fails only when more events than the
+ * capacity are posted between two cycles
+ * @author massimilianoscaletti
+ */
+public final class FSMInbox {
+    private final int mask;
+    private final AtomicReferenceArray<Object> slots;
+    // sequence of every slot: == position free for the producer, == position + 1 published
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;
+    private final Object[] pending;
+    private int pendingCount = 0;
+    private long dropped = 0;
+
+    /**
+     * Constructor
+     * @param capacity maximum number of events, rounded up to a power of two
+     */
+    public FSMInbox(int capacity) {
+        super();
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = size - 1;
+        slots = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++){
+            sequences.set(i, i);
+        }
+        pending = new Object[size];
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Queues an event, from any thread
+     * @param event the event
+     * @return false if the queue is full
+     */
+    public boolean offer(Object event){
+        if (event == null){
+            throw new NullPointerException("event");
+        }
+        long t;
+        int index;
+        while (true){
+            t = tail.get();
+            index = (int) (t & mask);
+            long available = sequences.get(index) - t;
+            if (available == 0){
+                if (tail.compareAndSet(t, t + 1)){
+                    break;
+                }
+            } else if (available < 0){
+                // the consumer has not freed the slot yet
+                return false;
+            }
+        }
+        slots.lazySet(index, event);
+        sequences.lazySet(index, t + 1);
+        return true;
+    }
+
+    /**
+     * Moves the queued events to the pending events, called by the sequence
+     * at the start of the cycle. If the pending events are full the oldest
+     * unmatched events are dropped
+     * @return number of events moved
+     */
+    public int drain(){
+        int moved = 0;
+        // at most one inbox of events per cycle: the newest are kept for the next one
+        while (moved < pending.length){
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1){
+                break;
+            }
+            if (pendingCount == pending.length){
+                consume(0);
+                dropped++;
+            }
+            pending[pendingCount++] = slots.get(index);
+            slots.lazySet(index, null);
+            sequences.lazySet(index, head + mask + 1);
+            head++;
+            moved++;
+        }
+        return moved;
+    }
+
+    /**
+     * Number of pending events, to be called by the sequence thread
+     * @return the pending events
+     */
+    public int size(){
+        return pendingCount;
+    }
+
+    /**
+     * Pending event, to be called by the sequence thread
+     * @param index position of the event, in arrival order
+     * @return the event
+     */
+    public Object get(int index){
+        if (index < 0 || index >= pendingCount){
+            throw new IndexOutOfBoundsException("Event " + index + ", pending " + pendingCount);
+        }
+        return pending[index];
+    }
+
+    /**
+     * Removes a pending event, to be called by the sequence thread
+     * @param index position of the event
+     * @return the event
+     */
+    public Object consume(int index){
+        Object event = get(index);
+        System.arraycopy(pending, index + 1, pending, index, pendingCount - index - 1);
+        pending[--pendingCount] = null;
+        return event;
+    }
+
+    /**
+     * Discards the pending events, to be called by the sequence thread
+     */
+    public void clear(){
+        for (int i = 0; i < pendingCount; i++){
+            pending[i] = null;
+        }
+        pendingCount = 0;
+    }
+
+    /**
+     * Discards the pending and the queued events, called by the sequence at the end of the run
+     * @return number of events discarded
+     */
+    public int discard(){
+        int count = pendingCount;
+        clear();
+        int moved;
+        while ((moved = drain()) > 0){
+            count += moved;
+            clear();
+        }
+        return count;
+    }
+
+    /**
+     * Number of unmatched events dropped because the pending events were full
+     * @return the events dropped
+     */
+    public long getDropped() {
+        return dropped;
+    }
+}
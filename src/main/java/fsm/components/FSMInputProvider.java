@@ -0,0 +1,17 @@
+package fsm.components;
+
+/**
+ * Reads the inputs of a FSMDataContext, e.g. from a PLC or a fieldbus.
+ * Called by FSMDataContext.refresh() at the start of the cycles of the
+ * sequences with the context, one refresh at a time
+ * @author massimilianoscaletti
+ */
+public interface FSMInputProvider {
+
+    /**
+     * Writes the actual value of the inputs in the slots.
+     * New slots must not be allocated here
+     * @param in writer of the slots of the context
+     */
+    void read(FSMDataContext.Writer in);
+}
@@ -1,6 +1,9 @@
 package fsm.components;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * FSMStep of the sequencer
@@ -8,16 +11,39 @@ import java.util.LinkedHashMap;
  * @author massimilianoscaletti
  */
 public abstract class FSMStep {
+    /** index of a step name not resolved in the step table */
+    public static final int UNRESOLVED = Integer.MIN_VALUE;
+    /** advance cause of a step left for timeout */
+    public static final int CAUSE_TIMEOUT = -1;
     String name;
     String description;
     int timeOut = -1;
     int cycleTime = -1;
+    int maxCycleTime = -1;
     String callingStep = "";
     String timeOutStep = "";
     boolean isNotAForcedJump = true;
     String advanceTo = "";
     LinkedHashMap<String, FSMCondition> advanceConditions = new LinkedHashMap<>();
-    long startTime;
+    FSMCondition[] conditionTable = new FSMCondition[0];
+    FSMEvaluation evaluation = FSMEvaluation.FIRST_MATCH;
+    long startTime; // clock time on step entry, monotonic
+    int index = UNRESOLVED;
+    int advanceToIndex = UNRESOLVED;
+    int advanceCause = UNRESOLVED;
+    String resolvedTimeOutStep;
+    int timeOutIndex = UNRESOLVED;
+    Map<String, Integer> stepIndex;
+    boolean waitForSignal = false;
+    volatile Runnable wakeUp;
+    volatile FSMStepProbe probe;
+    FSMClock clock = FSMClock.SYSTEM;
+    volatile FSMTimingWheel timingWheel;
+    FSMTimingWheel.Timeout timer;
+    volatile long timerGeneration;
+    volatile boolean timedOut = false;
+    volatile FSMInbox inbox;
+    volatile FSMDataSnapshot data;
 
     /**
      * Constructor sets the name of the step and the description -same as name- (used fo debug and logging)
@@ -69,6 +95,24 @@ public abstract class FSMStep {
         this.cycleTime = cycleTime;
     }
 
+    /**
+     * Returns the ceiling of the adaptive cycle time of the step
+     * @return the ceiling in ms, -1 if the default of the sequence is used
+     */
+    public int getMaxCycleTime() {
+        return maxCycleTime;
+    }
+
+    /**
+     * Set the ceiling of the cycle time when the sequence slows down because
+     * the advance conditions of the step are not met (see FSM.setAdaptiveCycle())
+     * @param maxCycleTime ceiling in ms, 0 to keep the base cycle time,
+     *                     -1 to use the default of the sequence
+     */
+    public void setMaxCycleTime(int maxCycleTime) {
+        this.maxCycleTime = maxCycleTime;
+    }
+
     /**
      * Return the name of the previous step <b>executed</b> in the sequence
      * @return the neame of the previus step as used in the sequence
@@ -98,7 +142,9 @@ public abstract class FSMStep {
     }
 
     /**
-     * Set the name of the exit step in case of timeout
+     * Set the name of the exit step in case of timeout.
+     * Without exit step (empty name, the default) the step is reset and
+     * starts again on timeout
      * @param timeOutStep the name of the step to jump in in case of timeout
      */
     public void setTimeOutStep(String timeOutStep) {
@@ -121,13 +167,230 @@ public abstract class FSMStep {
         if (timeOut == -1){
             return -1;
         }
-        long delay = System.currentTimeMillis() - startTime;
+        long delay = elapsed();
         if (delay <= 0){
             return 0;
         }
         return delay;
     }
 
+    /**
+     * time elapsed since the step reset
+     * @return the elapsed time in milliseconds
+     */
+    long elapsed(){
+        return (clock.nanoTime() - startTime) / 1000000L;
+    }
+
+    /**
+     * returns the time elapsed since the step reset, used for the timeout
+     * @return the elapsed time in milliseconds
+     */
+    public long getElapsedTime(){
+        return elapsed();
+    }
+
+    /**
+     * Moves back the step start time, so the timeout accounting goes on
+     * from the given elapsed time (used to resume a sequence from a checkpoint)
+     * @param elapsedTime elapsed time in milliseconds
+     */
+    public void setElapsedTime(long elapsedTime){
+        startTime = clock.nanoTime() - elapsedTime * 1000000L;
+        if (timerGeneration != 0){
+            scheduleTimeOut();
+        }
+    }
+
+    /**
+     * Called by the FSM when the sequence enters the step:
+     * the timeout is counted from the entry
+     */
+    public void enter(){
+        startTime = clock.nanoTime();
+        scheduleTimeOut();
+    }
+
+    /**
+     * Set the inbox of the events posted to the sequence, checked by the
+     * FSMEventCondition of the step. It is set by the FSM
+     * @param inbox the inbox
+     */
+    public void setInbox(FSMInbox inbox) {
+        this.inbox = inbox;
+    }
+
+    /**
+     * Inbox of the events posted to the sequence
+     * @return the inbox, null if no event has been posted
+     */
+    public FSMInbox getInbox() {
+        return inbox;
+    }
+
+    /**
+     * Set the snapshot of the data context of the sequence, updated at the
+     * start of every cycle. It is set by the FSM
+     * @param data the snapshot, null if the sequence has no data context
+     */
+    public void setData(FSMDataSnapshot data) {
+        this.data = data;
+    }
+
+    /**
+     * Snapshot of the data context of the sequence, the same values for every
+     * step and condition during a cycle
+     * @return the snapshot, null if the sequence has no data context
+     */
+    public FSMDataSnapshot getData() {
+        return data;
+    }
+
+    /**
+     * Set the timing wheel firing the timeout of the step.
+     * It is set by the FSM when the step is added
+     * @param timingWheel the wheel, null to check the timeout on every cycle
+     */
+    public void setTimingWheel(FSMTimingWheel timingWheel) {
+        cancelTimeOut();
+        this.timingWheel = timingWheel;
+        timer = null;
+    }
+
+    /**
+     * Returns if the timeout is scheduled on a timing wheel, that wakes up
+     * the sequence on expiration
+     * @return true if the timeout is scheduled
+     */
+    public boolean isTimeOutScheduled(){
+        return timerGeneration != 0;
+    }
+
+    /**
+     * Schedules the timeout on the timing wheel, if any
+     */
+    void scheduleTimeOut(){
+        FSMTimingWheel wheel = timingWheel;
+        timedOut = false;
+        if (wheel == null || timeOut < 0){
+            cancelTimeOut();
+            return;
+        }
+        if (timer == null){
+            timer = wheel.newTimeout(new FSMTimingWheel.Listener() {
+                @Override
+                public void expired(long generation) {
+                    // checked on the wheel: the expiration can come before schedule() returns
+                    FSMTimingWheel.Timeout t = timer;
+                    if (t != null && wheel.isCurrent(t, generation)){
+                        timedOut = true;
+                        signal();
+                    }
+                }
+            });
+        }
+        timerGeneration = wheel.schedule(timer, startTime + timeOut * 1000000L + 1);
+    }
+
+    /**
+     * Cancels the timeout scheduled on the timing wheel
+     */
+    void cancelTimeOut(){
+        FSMTimingWheel wheel = timingWheel;
+        if (wheel != null && timer != null && timerGeneration != 0){
+            wheel.cancel(timer);
+        }
+        timerGeneration = 0;
+        timedOut = false;
+    }
+
+    /**
+     * Internal state of the step to be saved in a checkpoint of the sequence.
+     * The default implementation has no state
+     * @return the state of the step, null if the step has no state
+     */
+    public byte[] saveState(){
+        return null;
+    }
+
+    /**
+     * Restores the internal state of the step when the sequence is resumed
+     * from a checkpoint, after the step reset
+     * @param state the state returned by saveState()
+     */
+    public void restoreState(byte[] state){
+    }
+
+    /**
+     * returns the time left before the step timeout
+     * @return the time left in milliseconds, -1 if no timeout is set
+     */
+    public long getTimeLeft(){
+        if (timeOut < 0){
+            return -1;
+        }
+        long left = timeOut - elapsed();
+        if (left <= 0){
+            return 0;
+        }
+        return left;
+    }
+
+    /**
+     * If set the sequence does not poll this step every cycle:
+     * it waits until a signal is received (see signal() and FSMCondition.signal())
+     * or the step timeout expires
+     * @param waitForSignal true to run the step only on signals
+     */
+    public void setWaitForSignal(boolean waitForSignal) {
+        this.waitForSignal = waitForSignal;
+    }
+
+    /**
+     * Returns if the step waits for signals instead of polling every cycle
+     * @return true if the step runs only on signals
+     */
+    public boolean isWaitForSignal() {
+        return waitForSignal;
+    }
+
+    /**
+     * Set the code called by signal() to wake up the sequence running the step.
+     * It is set by the FSM when the step is added
+     * @param wakeUp code waking up the sequence
+     */
+    public void setWakeUp(Runnable wakeUp) {
+        this.wakeUp = wakeUp;
+    }
+
+    /**
+     * Set the clock used for the timeout of the step.
+     * It is set by the FSM when the step is added
+     * @param clock the clock
+     */
+    public void setClock(FSMClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Set the probe measuring the step execution (used for runtime metrics)
+     * @param probe the probe, null to disable the measures
+     */
+    public void setProbe(FSMStepProbe probe) {
+        this.probe = probe;
+    }
+
+    /**
+     * Wakes up the sequence running the step, so the step and its conditions
+     * are checked immediately instead of the next cycle
+     */
+    public void signal(){
+        Runnable w = wakeUp;
+        if (w != null){
+            w.run();
+        }
+    }
+
     /**
      * Code to be executed on reset call
      */
@@ -138,8 +401,11 @@ public abstract class FSMStep {
      */
     public void reset(){
         resetCode();
-        startTime = System.currentTimeMillis();
+        cancelTimeOut();
+        startTime = clock.nanoTime();
         advanceTo = "";
+        advanceToIndex = UNRESOLVED;
+        advanceCause = UNRESOLVED;
 
     }
 
@@ -149,22 +415,56 @@ public abstract class FSMStep {
      */
     public boolean runStep(){
         boolean advance = false;
-        stepRunCode();
+        FSMStepProbe p = probe;
+        if (p == null){
+            stepRunCode();
+        } else {
+            long t = System.nanoTime();
+            stepRunCode();
+            p.runCode(System.nanoTime() - t);
+        }
         // Check step timeout
-        if ( this.timeOut >= 0 && System.currentTimeMillis() - this.startTime > this.timeOut){
+        // with a timing wheel the timeout is marked on expiration
+        boolean expired = timerGeneration != 0 ? timedOut : this.timeOut >= 0 && elapsed() > this.timeOut;
+        if (expired){
             reset();
-            this.advanceTo = timeOutStep;
+            if (timeOutStep.isEmpty()){
+                // no exit step: the step starts again
+                scheduleTimeOut();
+            } else {
+                this.advanceTo = timeOutStep;
+                this.advanceToIndex = timeOutStep == resolvedTimeOutStep ? timeOutIndex : UNRESOLVED;
+                this.advanceCause = CAUSE_TIMEOUT;
+            }
+            if (p != null){
+                p.timeOut();
+            }
         } else
         {
             // Check advance advanceConditions
-            this.advanceConditions.forEach((name, condition) ->{
-                    if (condition.isCompare()) {
-                        if (advanceTo.equals(""))
-                            advanceTo = condition.getNext();
+            FSMCondition[] conditions = conditionTable;
+            boolean all = evaluation == FSMEvaluation.EVALUATE_ALL;
+            for (int i = 0; i < conditions.length; i++){
+                FSMCondition condition = conditions[i];
+                boolean met;
+                if (p == null){
+                    met = condition.isCompare();
+                } else {
+                    long t = System.nanoTime();
+                    met = condition.isCompare();
+                    p.compare(i, condition, System.nanoTime() - t, met);
+                }
+                if (met) {
+                    if (advanceTo.equals("")) {
+                        advanceTo = condition.getNext();
+                        advanceToIndex = advanceTo == condition.resolvedNext ? condition.nextIndex : UNRESOLVED;
+                        advanceCause = i;
+                    }
+                    if (!all){
+                        break;
                     }
                 }
-            );
-
+            }
         }
         advance = !(advanceTo.equals(""));
         // if step is not over do step code
@@ -180,7 +480,44 @@ public abstract class FSMStep {
      */
     public void addAdvanceCondition(FSMCondition condition){
         // add the condition to the list
+        condition.step = this;
         advanceConditions.put(condition.getName(), condition);
+        buildConditionTable();
+    }
+
+    /**
+     * Set the evaluation policy of the advance conditions
+     * @param evaluation FIRST_MATCH (default), PRIORITY or EVALUATE_ALL
+     */
+    public void setEvaluation(FSMEvaluation evaluation) {
+        this.evaluation = evaluation;
+        buildConditionTable();
+    }
+
+    /**
+     * Returns the evaluation policy of the advance conditions
+     * @return the evaluation policy
+     */
+    public FSMEvaluation getEvaluation() {
+        return evaluation;
+    }
+
+    /**
+     * Builds the array of the conditions checked by runStep(),
+     * sorted by priority if the evaluation policy is PRIORITY
+     */
+    void buildConditionTable(){
+        FSMCondition[] table = advanceConditions.values().toArray(new FSMCondition[0]);
+        if (evaluation == FSMEvaluation.PRIORITY){
+            // stable sort: same priority keeps the insertion order
+            Arrays.sort(table, new Comparator<FSMCondition>() {
+                @Override
+                public int compare(FSMCondition o1, FSMCondition o2) {
+                    return Integer.compare(o2.getPriority(), o1.getPriority());
+                }
+            });
+        }
+        conditionTable = table;
     }
 
 
@@ -204,6 +541,131 @@ public abstract class FSMStep {
         return aTo;
     }
 
+    /**
+     * Returns the index in the step table of the next step to be executed as soon as
+     * one of the advancement condition is met and execute the step reset procedure
+     * @return the index of the step to jump in, UNRESOLVED if the step is not in the table
+     */
+    public int getNextIndexAndReset(){
+        int next = advanceToIndex;
+        if (next == UNRESOLVED){
+            // target changed after the compilation of the table
+            next = resolve(advanceTo);
+        }
+        reset();
+        return next;
+    }
+
+    /**
+     * Returns what made the step advance, to be read before getNextIndexAndReset()
+     * @return the position of the condition met in the evaluation order (see getCondition()),
+     *         CAUSE_TIMEOUT if the step timeout expired, UNRESOLVED if the step is not advancing
+     */
+    public int getAdvanceCause() {
+        return advanceCause;
+    }
+
+    /**
+     * Returns an advance condition by position in the evaluation order
+     * @param index position of the condition
+     * @return the condition, null if the index is out of range
+     */
+    public FSMCondition getCondition(int index){
+        FSMCondition[] conditions = conditionTable;
+        if (index < 0 || index >= conditions.length){
+            return null;
+        }
+        return conditions[index];
+    }
+
+    /**
+     * Returns the number of advance conditions
+     * @return the number of conditions
+     */
+    public int getConditionCount(){
+        return conditionTable.length;
+    }
+
+    /**
+     * Index of the step in the step table of the sequence
+     * @return the index, UNRESOLVED if the step table is not built yet
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Resolve the next steps of the advance conditions and of the timeout
+     * to the indexes of the step table. Called by the FSM when the sequence starts
+     * @param index index of this step in the table
+     * @param stepIndex indexes of all the steps by name, including end and abort
+     * @throws IllegalArgumentException if a next step is not in the table
+     */
+    public void compile(int index, Map<String, Integer> stepIndex){
+        this.index = index;
+        this.stepIndex = stepIndex;
+        // conditions could be added directly to the map
+        buildConditionTable();
+        if (timeOut >= 0 && !timeOutStep.isEmpty()){
+            timeOutIndex = resolve(timeOutStep);
+            if (timeOutIndex == UNRESOLVED){
+                throw new IllegalArgumentException("Step " + name + ": wrong timeout step name '" + timeOutStep + "'");
+            }
+            resolvedTimeOutStep = timeOutStep;
+        }
+        for (FSMCondition condition : advanceConditions.values()){
+            String next = condition.getNext();
+            condition.nextIndex = resolve(next);
+            if (condition.nextIndex == UNRESOLVED){
+                throw new IllegalArgumentException("Step " + name + ", condition " + condition.getName() +
+                        ": wrong step name '" + next + "'");
+            }
+            condition.resolvedNext = next;
+        }
+    }
+
+    /**
+     * Same as compile(int, Map) with the next steps already resolved to indexes
+     * of the table, e.g. by a FSMDefinition: the names are neither looked up
+     * nor validated again
+     * @param index index of this step in the table
+     * @param stepIndex indexes of all the steps by name, including end and abort
+     * @param timeOutIndex index of the timeout step, ignored if the step has no timeout
+     * @param nextIndexes indexes of the next steps of the advance conditions, in insertion order
+     */
+    public void compile(int index, Map<String, Integer> stepIndex, int timeOutIndex, int[] nextIndexes){
+        if (nextIndexes.length != advanceConditions.size()){
+            // conditions added after the resolution
+            compile(index, stepIndex);
+            return;
+        }
+        this.index = index;
+        this.stepIndex = stepIndex;
+        buildConditionTable();
+        if (timeOut >= 0){
+            this.timeOutIndex = timeOutIndex;
+            resolvedTimeOutStep = timeOutStep;
+        }
+        int i = 0;
+        for (FSMCondition condition : advanceConditions.values()){
+            condition.nextIndex = nextIndexes[i++];
+            condition.resolvedNext = condition.getNext();
+        }
+    }
+
+    /**
+     * Looks up the index of a step in the step table
+     * @param stepName name of the step
+     * @return the index of the step, UNRESOLVED if not found
+     */
+    int resolve(String stepName){
+        if (stepIndex == null || stepName == null){
+            return UNRESOLVED;
+        }
+        Integer i = stepIndex.get(stepName);
+        return i == null ? UNRESOLVED : i;
+    }
+
     /**
      * returns a LinkedHashMap with the list of advance conditions defined for
      * the step
@@ -0,0 +1,29 @@
+package fsm.components;
+
+/**
+ * Probe notified by a step about its execution, used to collect runtime metrics.
+ * Methods are called on the sequence thread and must be fast
+ * @author massimilianoscaletti
+ */
+public interface FSMStepProbe {
+
+    /**
+     * Called after every execution of stepRunCode()
+     * @param nanos duration of stepRunCode() in nanoseconds
+     */
+    void runCode(long nanos);
+
+    /**
+     * Called after every check of an advance condition
+     * @param index position of the condition in the evaluation order of the step
+     * @param condition the condition checked
+     * @param nanos duration of isCompare() in nanoseconds
+     * @param hit true if the condition is met
+     */
+    void compare(int index, FSMCondition condition, long nanos, boolean hit);
+
+    /**
+     * Called when the step timeout expires
+     */
+    void timeOut();
+}
@@ -0,0 +1,321 @@
+package fsm.components;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hierarchical timing wheel for the step timeouts, shared by many sequences
+ * (see FSM.setTimingWheel()). A step schedules its timeout when the sequence
+ * enters it and cancels it when the sequence leaves it, both in O(1); when the
+ * timeout expires the wheel marks the step and wakes up its sequence, so the
+ * steps don't check the time on every cycle.
+ * LEVELS wheels of SLOTS slots: the level 0 slots last one tick, every slot of
+ * a level lasts a whole turn of the level below. Timeouts are moved down a level
+ * when the wheel below completes a turn, and expire at the first tick after
+ * their deadline
+ * @author massimilianoscaletti
+ */
+public class FSMTimingWheel {
+    private static final int BITS = 6;
+    public static final int SLOTS = 1 << BITS;
+    public static final int LEVELS = 6;
+    private static final int MASK = SLOTS - 1;
+
+    /**
+     * Code called when a timeout expires, on the wheel thread
+     */
+    public interface Listener {
+        /**
+         * The timeout expired
+         * @param generation value returned by schedule(): a listener rescheduled
+         *                   in the meantime receives the old value and must ignore it
+         *                   (see isCurrent())
+         */
+        void expired(long generation);
+    }
+
+    /**
+     * Timeout of the wheel, reused for every schedule() of its owner
+     */
+    public static final class Timeout {
+        private final Listener listener;
+        private long tick;
+        private long generation;
+        private Timeout prev;
+        private Timeout next;
+        private Timeout[] slotOf;
+        private int slot;
+
+        private Timeout(Listener listener) {
+            this.listener = listener;
+        }
+    }
+
+    private final FSMClock clock;
+    private final long tickNanos;
+    private final long origin;
+    private final Timeout[][] wheels = new Timeout[LEVELS][SLOTS];
+    private long currentTick = 0;
+    private long generations = 0;
+    private int size = 0;
+    private final ArrayList<Timeout> expired = new ArrayList<>();
+    private final ArrayList<Long> expiredGenerations = new ArrayList<>();
+    private final Object advancing = new Object();
+    private final Thread ticker;
+    private volatile boolean running = true;
+
+    /**
+     * Constructor: 1 millisecond tick on the system clock, driven by a daemon thread
+     */
+    public FSMTimingWheel() {
+        this(FSMClock.SYSTEM, 1, TimeUnit.MILLISECONDS, true);
+    }
+
+    /**
+     * Constructor
+     * @param clock time source, must be the clock of the sequences using the wheel
+     * @param tick resolution of the wheel
+     * @param unit time unit of the tick
+     * @param thread true to start a daemon thread calling advance() every tick,
+     *               false to call advance() from the application
+     */
+    public FSMTimingWheel(FSMClock clock, long tick, TimeUnit unit, boolean thread) {
+        super();
+        this.clock = clock;
+        this.tickNanos = Math.max(unit.toNanos(tick), 1);
+        this.origin = clock.nanoTime();
+        if (thread){
+            ticker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    tickLoop();
+                }
+            }, "fsm-timing-wheel");
+            ticker.setDaemon(true);
+            ticker.start();
+        } else {
+            ticker = null;
+        }
+    }
+
+    public FSMClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Creates a timeout, not scheduled
+     * @param listener code called when the timeout expires
+     * @return the timeout
+     */
+    public Timeout newTimeout(Listener listener){
+        return new Timeout(listener);
+    }
+
+    /**
+     * Schedules a timeout, moving it if already scheduled
+     * @param timeout the timeout
+     * @param deadline clock time of the expiration in nanoseconds
+     * @return generation of the schedule, passed to the listener on expiration
+     */
+    public long schedule(Timeout timeout, long deadline){
+        boolean wasEmpty;
+        long generation;
+        synchronized (this){
+            if (timeout.slotOf != null){
+                unlink(timeout);
+                size--;
+            }
+            long tick = (deadline - origin + tickNanos - 1) / tickNanos;
+            timeout.tick = Math.max(tick, currentTick + 1);
+            timeout.generation = ++generations;
+            generation = timeout.generation;
+            wasEmpty = size == 0;
+            link(timeout);
+            size++;
+        }
+        if (wasEmpty && ticker != null){
+            // the ticker sleeps while the wheel is empty
+            LockSupport.unpark(ticker);
+        }
+        return generation;
+    }
+
+    /**
+     * Cancels a timeout
+     * @param timeout the timeout
+     */
+    public synchronized void cancel(Timeout timeout){
+        if (timeout.slotOf != null){
+            unlink(timeout);
+            size--;
+        }
+        // an expiration already collected must be ignored
+        timeout.generation = ++generations;
+    }
+
+    /**
+     * Returns if an expiration belongs to the last schedule of a timeout, i.e.
+     * the timeout has not been moved nor cancelled since it was collected.
+     * Can be called by the listener before the owner has stored the value returned by schedule()
+     * @param timeout the timeout
+     * @param generation value passed to the listener
+     * @return true if the expiration is still valid
+     */
+    public synchronized boolean isCurrent(Timeout timeout, long generation){
+        return timeout.generation == generation;
+    }
+
+    /**
+     * Number of scheduled timeouts
+     * @return the timeouts
+     */
+    public synchronized int size(){
+        return size;
+    }
+
+    /**
+     * Expires the timeouts due up to the actual clock time
+     * @return number of expired timeouts
+     */
+    public int advance(){
+        synchronized (advancing){
+            return expire((clock.nanoTime() - origin) / tickNanos);
+        }
+    }
+
+    /**
+     * Expires the timeouts due up to a tick
+     * @param now the tick
+     * @return number of expired timeouts
+     */
+    private int expire(long now){
+        int count;
+        synchronized (this){
+            if (size == 0){
+                currentTick = Math.max(currentTick, now);
+                return 0;
+            }
+            while (currentTick < now){
+                currentTick++;
+                cascade();
+                Timeout[] level0 = wheels[0];
+                int slot = (int) (currentTick & MASK);
+                Timeout t = level0[slot];
+                level0[slot] = null;
+                while (t != null){
+                    Timeout next = t.next;
+                    t.prev = null;
+                    t.next = null;
+                    t.slotOf = null;
+                    size--;
+                    expired.add(t);
+                    expiredGenerations.add(t.generation);
+                    t = next;
+                }
+                if (size == 0){
+                    currentTick = now;
+                }
+            }
+            count = expired.size();
+        }
+        // the listeners wake up the sequences, outside the lock
+        for (int i = 0; i < count; i++){
+            Timeout t = expired.get(i);
+            t.listener.expired(expiredGenerations.get(i));
+        }
+        synchronized (this){
+            expired.clear();
+            expiredGenerations.clear();
+        }
+        return count;
+    }
+
+    /**
+     * Stops the wheel thread
+     */
+    public void shutdown(){
+        running = false;
+        if (ticker != null){
+            LockSupport.unpark(ticker);
+        }
+    }
+
+    /**
+     * Moves down the timeouts of the upper levels when the level below completes a turn
+     */
+    private void cascade(){
+        for (int level = 1; level < LEVELS; level++){
+            if (((currentTick >> (BITS * (level - 1))) & MASK) != 0){
+                return;
+            }
+            int slot = (int) ((currentTick >> (BITS * level)) & MASK);
+            Timeout t = wheels[level][slot];
+            wheels[level][slot] = null;
+            while (t != null){
+                Timeout next = t.next;
+                t.prev = null;
+                t.next = null;
+                t.slotOf = null;
+                link(t);
+                t = next;
+            }
+        }
+    }
+
+    private void link(Timeout t){
+        long delta = t.tick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (BITS * (level + 1)))){
+            level++;
+        }
+        long tick = t.tick;
+        if (level == LEVELS - 1 && delta >= (1L << (BITS * LEVELS))){
+            // beyond the last level: parked in the farthest slot and moved down on its turn
+            tick = currentTick + (1L << (BITS * LEVELS)) - 1;
+        }
+        int slot = (int) ((tick >> (BITS * level)) & MASK);
+        Timeout[] wheel = wheels[level];
+        t.slotOf = wheel;
+        t.slot = slot;
+        t.prev = null;
+        t.next = wheel[slot];
+        if (t.next != null){
+            t.next.prev = t;
+        }
+        wheel[slot] = t;
+    }
+
+    private void unlink(Timeout t){
+        Timeout[] wheel = t.slotOf;
+        if (wheel == null){
+            return;
+        }
+        if (t.prev != null){
+            t.prev.next = t.next;
+        } else {
+            wheel[t.slot] = t.next;
+        }
+        if (t.next != null){
+            t.next.prev = t.prev;
+        }
+        t.prev = null;
+        t.next = null;
+        t.slotOf = null;
+    }
+
+    private void tickLoop(){
+        while (running){
+            boolean empty;
+            synchronized (this){
+                empty = size == 0;
+            }
+            if (empty){
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, tickNanos);
+            }
+            advance();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package fsm.definition;
+
+/**
+ * Loads the classes generated by FSMDispatchCompiler.
+ * Java 8 version: every class is defined by its own class loader, so it can
+ * be collected with its definition
+ * @author massimilianoscaletti
+ */
+final class FSMClassDefiner {
+
+    private FSMClassDefiner() {
+        super();
+    }
+
+    /**
+     * Defines a generated class
+     * @param name binary name of the class
+     * @param bytes the class file
+     * @return the class
+     */
+    static Class<?> define(String name, byte[] bytes){
+        return new Loader(FSMDispatch.class.getClassLoader()).define(name, bytes);
+    }
+
+    private static final class Loader extends ClassLoader {
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes){
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
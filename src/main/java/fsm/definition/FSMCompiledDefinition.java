@@ -0,0 +1,603 @@
+package fsm.definition;
+
+import fsm.FSM;
+import fsm.components.FSMEvaluation;
+import fsm.components.FSMStep;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Declarative definition of a sequence, parsed from text and validated once,
+ * then stored as flat tables: every name is an index in a string table and
+ * every target is already resolved to the index of a step. The compiled form
+ * can be written to a cache file and memory-mapped at startup, skipping the
+ * parsing and the validation of the graph, then bound to the code registered
+ * in a FSMFunctions to get a FSMDefinition.
+ * <p>
+ * Text format, one statement per line, # starts a comment, values with spaces
+ * between double quotes:
+ * <pre>
+ * sequence open delay=100 setup=init checks=pressureOk end=closeAll
+ * step open run=openValve timeout=5000:alarm description="Open the valve"
+ *     when full isFull -&gt; close
+ * step close run=closeValve cycle=20 evaluation=PRIORITY
+ *     when closed isClosed -&gt; end priority=1
+ * step alarm run=siren wait
+ *     when ack isAcknowledged -&gt; abort
+ * </pre>
+ * Binary layout: int magic "FSMD", short version, int number of strings,
+ * the strings (int length, UTF-8 bytes), int start step, int steps delay,
+ * int setup, checks and end (string indexes, -1 if not set), int number of steps,
+ * int number of conditions, then the step table and the condition table as ints
+ * @author massimilianoscaletti
+ */
+public final class FSMCompiledDefinition {
+    /** file signature "FSMD" */
+    public static final int MAGIC = 0x46534D44;
+    public static final short VERSION = 1;
+    /** string index of an optional name not set */
+    private static final int NONE = -1;
+    /** target of a step without timeout */
+    private static final int NO_TARGET = -3;
+
+    // step table: fields of every step
+    private static final int S_NAME = 0;
+    private static final int S_DESCRIPTION = 1;
+    private static final int S_ACTION = 2;
+    private static final int S_RESET = 3;
+    private static final int S_TIMEOUT = 4;
+    private static final int S_TIMEOUT_STEP = 5;
+    private static final int S_CYCLE = 6;
+    private static final int S_WAIT = 7;
+    private static final int S_EVALUATION = 8;
+    private static final int S_FIRST_CONDITION = 9;
+    private static final int S_CONDITIONS = 10;
+    private static final int STEP_FIELDS = 11;
+
+    // condition table: fields of every condition
+    private static final int C_NAME = 0;
+    private static final int C_PREDICATE = 1;
+    private static final int C_NEXT = 2;
+    private static final int C_PRIORITY = 3;
+    private static final int CONDITION_FIELDS = 4;
+
+    private final String[] strings;
+    private final int startStep;
+    private final int stepsDelay;
+    private final int setup;
+    private final int overallChecks;
+    private final int end;
+    private final int[] stepTable;
+    private final int[] conditionTable;
+
+    private FSMCompiledDefinition(String[] strings, int startStep, int stepsDelay, int setup, int overallChecks,
+                                  int end, int[] stepTable, int[] conditionTable) {
+        super();
+        this.strings = strings;
+        this.startStep = startStep;
+        this.stepsDelay = stepsDelay;
+        this.setup = setup;
+        this.overallChecks = overallChecks;
+        this.end = end;
+        this.stepTable = stepTable;
+        this.conditionTable = conditionTable;
+    }
+
+    /**
+     * Parses and validates a definition
+     * @param text the definition
+     * @return the compiled definition
+     * @throws IllegalArgumentException on syntax errors or wrong step names, with the line of the error
+     */
+    public static FSMCompiledDefinition parse(String text){
+        try {
+            return parse(new StringReader(text));
+        } catch (IOException ex){
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Parses and validates a definition
+     * @param reader source of the definition
+     * @return the compiled definition
+     * @throws IOException on read errors
+     * @throws IllegalArgumentException on syntax errors or wrong step names, with the line of the error
+     */
+    public static FSMCompiledDefinition parse(Reader reader) throws IOException {
+        Parser parser = new Parser();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null){
+            parser.line(line);
+        }
+        return parser.compile();
+    }
+
+    /**
+     * Loads a definition from a text file, using a compiled cache file when it is
+     * up to date. When the cache is missing or older than the text, the text is
+     * parsed and the cache is written again
+     * @param source the text of the definition
+     * @param cache the compiled cache, written by write()
+     * @return the compiled definition
+     * @throws IOException on read or write errors
+     */
+    public static FSMCompiledDefinition load(Path source, Path cache) throws IOException {
+        if (Files.exists(cache) && !Files.getLastModifiedTime(cache).toInstant()
+                .isBefore(Files.getLastModifiedTime(source).toInstant())){
+            try {
+                return read(cache);
+            } catch (IOException ex){
+                // stale or damaged cache: compile it again
+            }
+        }
+        FSMCompiledDefinition compiled;
+        try (Reader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+            compiled = parse(reader);
+        }
+        compiled.write(cache);
+        return compiled;
+    }
+
+    /**
+     * Binds the names of the definition to the code of the registry
+     * @param functions the predicates and the actions referenced by the definition
+     * @param <C> type of the context of the instances
+     * @return the definition, ready to create instances
+     * @throws IllegalArgumentException if a predicate or an action is not registered
+     */
+    public <C> FSMDefinition<C> bind(FSMFunctions<C> functions){
+        int count = getStepCount();
+        FSMEvaluation[] evaluations = FSMEvaluation.values();
+        List<FSMStepDefinition<C>> steps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++){
+            int s = i * STEP_FIELDS;
+            int first = stepTable[s + S_FIRST_CONDITION];
+            int n = stepTable[s + S_CONDITIONS];
+            int timeOutStep = stepTable[s + S_TIMEOUT_STEP];
+            List<FSMConditionDefinition<C>> conditions = new ArrayList<>(n);
+            for (int j = first; j < first + n; j++){
+                int c = j * CONDITION_FIELDS;
+                String name = strings[conditionTable[c + C_NAME]];
+                int next = conditionTable[c + C_NEXT];
+                conditions.add(new FSMConditionDefinition<>(name, name,
+                        functions.getPredicate(strings[conditionTable[c + C_PREDICATE]]),
+                        target(next), conditionTable[c + C_PRIORITY], next));
+            }
+            steps.add(new FSMStepDefinition<>(strings[stepTable[s + S_NAME]], strings[stepTable[s + S_DESCRIPTION]],
+                    action(functions, stepTable[s + S_ACTION]), action(functions, stepTable[s + S_RESET]),
+                    stepTable[s + S_TIMEOUT], target(timeOutStep),
+                    timeOutStep == NO_TARGET ? FSMStep.UNRESOLVED : timeOutStep, stepTable[s + S_CYCLE],
+                    stepTable[s + S_WAIT] != 0, evaluations[stepTable[s + S_EVALUATION]],
+                    Collections.unmodifiableList(conditions)));
+        }
+        Predicate<C> checks = overallChecks == NONE ? null : functions.getPredicate(strings[overallChecks]);
+        return new FSMDefinition<>(target(startStep), stepsDelay, action(functions, setup), checks,
+                action(functions, end), steps);
+    }
+
+    private <C> Consumer<C> action(FSMFunctions<C> functions, int name){
+        return name == NONE ? null : functions.getAction(strings[name]);
+    }
+
+    private String target(int step){
+        switch (step){
+            case FSM.END_INDEX:
+                return FSM.END;
+            case FSM.ABORT_INDEX:
+                return FSM.ABORT;
+            case NO_TARGET:
+                return "";
+            default:
+                return strings[stepTable[step * STEP_FIELDS + S_NAME]];
+        }
+    }
+
+    /**
+     * Number of steps of the definition
+     * @return the number of steps
+     */
+    public int getStepCount() {
+        return stepTable.length / STEP_FIELDS;
+    }
+
+    /**
+     * Number of bytes of the binary form
+     * @return size in bytes
+     */
+    public int size(){
+        int size = 4 + 2 + 4;
+        for (String s : strings){
+            size += 4 + s.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return size + 4 * (7 + stepTable.length + conditionTable.length);
+    }
+
+    /**
+     * Writes the binary form to a buffer
+     * @param buffer the destination, with at least size() bytes remaining
+     */
+    public void writeTo(ByteBuffer buffer){
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putInt(strings.length);
+        for (String s : strings){
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+        buffer.putInt(startStep);
+        buffer.putInt(stepsDelay);
+        buffer.putInt(setup);
+        buffer.putInt(overallChecks);
+        buffer.putInt(end);
+        buffer.putInt(getStepCount());
+        buffer.putInt(conditionTable.length / CONDITION_FIELDS);
+        for (int v : stepTable){
+            buffer.putInt(v);
+        }
+        for (int v : conditionTable){
+            buffer.putInt(v);
+        }
+    }
+
+    /**
+     * Reads the binary form written by writeTo(). The content is trusted: only
+     * the header is checked, the graph is not validated again
+     * @param buffer the source
+     * @return the compiled definition
+     * @throws IOException if the buffer doesn't contain a compiled definition
+     */
+    public static FSMCompiledDefinition readFrom(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 10 || buffer.getInt() != MAGIC){
+            throw new IOException("Not a FSM compiled definition");
+        }
+        short version = buffer.getShort();
+        if (version != VERSION){
+            throw new IOException("Unsupported FSM compiled definition version " + version);
+        }
+        try {
+            String[] strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++){
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            int startStep = buffer.getInt();
+            int stepsDelay = buffer.getInt();
+            int setup = buffer.getInt();
+            int overallChecks = buffer.getInt();
+            int end = buffer.getInt();
+            int[] stepTable = new int[buffer.getInt() * STEP_FIELDS];
+            int[] conditionTable = new int[buffer.getInt() * CONDITION_FIELDS];
+            // bulk copy of the tables
+            buffer.asIntBuffer().get(stepTable).get(conditionTable);
+            buffer.position(buffer.position() + 4 * (stepTable.length + conditionTable.length));
+            return new FSMCompiledDefinition(strings, startStep, stepsDelay, setup, overallChecks, end,
+                    stepTable, conditionTable);
+        } catch (RuntimeException ex){
+            throw new IOException("Truncated FSM compiled definition", ex);
+        }
+    }
+
+    /**
+     * Writes the binary form to a file
+     * @param file the file to be written
+     * @throws IOException on write errors
+     */
+    public void write(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size());
+            writeTo(buffer);
+            buffer.force();
+        }
+    }
+
+    /**
+     * Memory-maps and reads a file written by write()
+     * @param file the file to be read
+     * @return the compiled definition
+     * @throws IOException if the file cannot be read or is not a compiled definition
+     */
+    public static FSMCompiledDefinition read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readFrom(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Line parser of the text format, builds the tables and resolves the targets at the end
+     */
+    private static final class Parser {
+        private final ArrayList<String> strings = new ArrayList<>();
+        private final HashMap<String, Integer> stringIndex = new HashMap<>();
+        private final HashMap<String, Integer> stepIndex = new HashMap<>();
+        private final ArrayList<int[]> steps = new ArrayList<>();
+        private final ArrayList<int[]> conditions = new ArrayList<>();
+        // targets to be resolved: name, line, table, position
+        private final ArrayList<Object[]> targets = new ArrayList<>();
+        private final HashMap<String, Integer> stepConditions = new HashMap<>();
+        private int lineNumber = 0;
+        private String startStep;
+        private int startLine;
+        private int stepsDelay = 100;
+        private int setup = NONE;
+        private int overallChecks = NONE;
+        private int end = NONE;
+
+        void line(String line){
+            lineNumber++;
+            List<String> tokens = tokenize(line);
+            if (tokens.isEmpty()){
+                return;
+            }
+            String keyword = tokens.get(0);
+            if (startStep == null && !"sequence".equals(keyword)){
+                throw error("the definition must start with 'sequence'");
+            }
+            switch (keyword){
+                case "sequence":
+                    sequence(tokens);
+                    break;
+                case "step":
+                    step(tokens);
+                    break;
+                case "when":
+                    condition(tokens);
+                    break;
+                default:
+                    throw error("unknown statement '" + keyword + "'");
+            }
+        }
+
+        private void sequence(List<String> tokens){
+            if (startStep != null){
+                throw error("duplicated 'sequence'");
+            }
+            if (tokens.size() < 2 || tokens.get(1).indexOf('=') >= 0){
+                throw error("missing start step");
+            }
+            startStep = tokens.get(1);
+            startLine = lineNumber;
+            for (int i = 2; i < tokens.size(); i++){
+                String key = key(tokens.get(i));
+                String value = value(tokens.get(i));
+                switch (key){
+                    case "delay":
+                        stepsDelay = number(value);
+                        break;
+                    case "setup":
+                        setup = string(value);
+                        break;
+                    case "checks":
+                        overallChecks = string(value);
+                        break;
+                    case "end":
+                        end = string(value);
+                        break;
+                    default:
+                        throw error("unknown attribute '" + key + "'");
+                }
+            }
+        }
+
+        private void step(List<String> tokens){
+            if (tokens.size() < 2 || tokens.get(1).indexOf('=') >= 0){
+                throw error("missing step name");
+            }
+            String name = tokens.get(1);
+            if (stepIndex.containsKey(name) || FSM.END.equals(name) || FSM.ABORT.equals(name)){
+                throw error("duplicated or reserved step name '" + name + "'");
+            }
+            int[] step = new int[STEP_FIELDS];
+            step[S_NAME] = string(name);
+            step[S_DESCRIPTION] = step[S_NAME];
+            step[S_ACTION] = NONE;
+            step[S_RESET] = NONE;
+            step[S_TIMEOUT] = -1;
+            step[S_TIMEOUT_STEP] = NO_TARGET;
+            step[S_CYCLE] = -1;
+            step[S_EVALUATION] = FSMEvaluation.FIRST_MATCH.ordinal();
+            step[S_FIRST_CONDITION] = conditions.size();
+            for (int i = 2; i < tokens.size(); i++){
+                String token = tokens.get(i);
+                if ("wait".equals(token)){
+                    step[S_WAIT] = 1;
+                    continue;
+                }
+                String key = key(token);
+                String value = value(token);
+                switch (key){
+                    case "run":
+                        step[S_ACTION] = string(value);
+                        break;
+                    case "reset":
+                        step[S_RESET] = string(value);
+                        break;
+                    case "description":
+                        step[S_DESCRIPTION] = string(value);
+                        break;
+                    case "cycle":
+                        step[S_CYCLE] = number(value);
+                        break;
+                    case "timeout":
+                        int colon = value.indexOf(':');
+                        if (colon < 0){
+                            throw error("timeout must be <milliseconds>:<step>");
+                        }
+                        step[S_TIMEOUT] = number(value.substring(0, colon));
+                        target(value.substring(colon + 1), step, S_TIMEOUT_STEP);
+                        break;
+                    case "evaluation":
+                        try {
+                            step[S_EVALUATION] = FSMEvaluation.valueOf(value).ordinal();
+                        } catch (IllegalArgumentException ex){
+                            throw error("unknown evaluation '" + value + "'");
+                        }
+                        break;
+                    default:
+                        throw error("unknown attribute '" + key + "'");
+                }
+            }
+            stepIndex.put(name, steps.size());
+            steps.add(step);
+            stepConditions.clear();
+        }
+
+        private void condition(List<String> tokens){
+            if (steps.isEmpty()){
+                throw error("'when' outside a step");
+            }
+            if (tokens.size() < 5 || !"->".equals(tokens.get(3))){
+                throw error("condition must be 'when <name> <predicate> -> <step>'");
+            }
+            String name = tokens.get(1);
+            if (stepConditions.put(name, lineNumber) != null){
+                throw error("duplicated condition name '" + name + "'");
+            }
+            int[] condition = new int[CONDITION_FIELDS];
+            condition[C_NAME] = string(name);
+            condition[C_PREDICATE] = string(tokens.get(2));
+            target(tokens.get(4), condition, C_NEXT);
+            for (int i = 5; i < tokens.size(); i++){
+                String key = key(tokens.get(i));
+                if (!"priority".equals(key)){
+                    throw error("unknown attribute '" + key + "'");
+                }
+                condition[C_PRIORITY] = number(value(tokens.get(i)));
+            }
+            conditions.add(condition);
+            steps.get(steps.size() - 1)[S_CONDITIONS]++;
+        }
+
+        FSMCompiledDefinition compile(){
+            if (startStep == null){
+                throw new IllegalArgumentException("Empty definition");
+            }
+            Integer start = stepIndex.get(startStep);
+            if (start == null){
+                lineNumber = startLine;
+                throw error("wrong start step name '" + startStep + "'");
+            }
+            for (Object[] t : targets){
+                String name = (String) t[0];
+                int index;
+                if (FSM.END.equals(name)){
+                    index = FSM.END_INDEX;
+                } else if (FSM.ABORT.equals(name)){
+                    index = FSM.ABORT_INDEX;
+                } else {
+                    Integer i = stepIndex.get(name);
+                    if (i == null){
+                        lineNumber = (Integer) t[1];
+                        throw error("wrong step name '" + name + "'");
+                    }
+                    index = i;
+                }
+                ((int[]) t[2])[(Integer) t[3]] = index;
+            }
+            int[] stepTable = new int[steps.size() * STEP_FIELDS];
+            for (int i = 0; i < steps.size(); i++){
+                System.arraycopy(steps.get(i), 0, stepTable, i * STEP_FIELDS, STEP_FIELDS);
+            }
+            int[] conditionTable = new int[conditions.size() * CONDITION_FIELDS];
+            for (int i = 0; i < conditions.size(); i++){
+                System.arraycopy(conditions.get(i), 0, conditionTable, i * CONDITION_FIELDS, CONDITION_FIELDS);
+            }
+            return new FSMCompiledDefinition(strings.toArray(new String[0]), start, stepsDelay, setup,
+                    overallChecks, end, stepTable, conditionTable);
+        }
+
+        private void target(String name, int[] table, int position){
+            targets.add(new Object[]{name, lineNumber, table, position});
+        }
+
+        private int string(String s){
+            Integer i = stringIndex.get(s);
+            if (i == null){
+                i = strings.size();
+                strings.add(s);
+                stringIndex.put(s, i);
+            }
+            return i;
+        }
+
+        private int number(String s){
+            try {
+                return Integer.parseInt(s);
+            } catch (NumberFormatException ex){
+                throw error("wrong number '" + s + "'");
+            }
+        }
+
+        private String key(String token){
+            int eq = token.indexOf('=');
+            if (eq <= 0){
+                throw error("attribute must be <key>=<value>: '" + token + "'");
+            }
+            return token.substring(0, eq);
+        }
+
+        private String value(String token){
+            return token.substring(token.indexOf('=') + 1);
+        }
+
+        private IllegalArgumentException error(String message){
+            return new IllegalArgumentException("Line " + lineNumber + ": " + message);
+        }
+
+        /**
+         * Splits a line on blanks, keeping together the text between double quotes
+         * and dropping the comments
+         */
+        private List<String> tokenize(String line){
+            ArrayList<String> tokens = new ArrayList<>();
+            StringBuilder token = new StringBuilder();
+            boolean quoted = false;
+            boolean started = false;
+            for (int i = 0; i < line.length(); i++){
+                char c = line.charAt(i);
+                if (c == '"'){
+                    quoted = !quoted;
+                    started = true;
+                } else if (quoted || !Character.isWhitespace(c) && c != '#'){
+                    token.append(c);
+                    started = true;
+                } else {
+                    if (started){
+                        tokens.add(token.toString());
+                        token.setLength(0);
+                        started = false;
+                    }
+                    if (c == '#'){
+                        return tokens;
+                    }
+                }
+            }
+            if (quoted){
+                throw error("unterminated string");
+            }
+            if (started){
+                tokens.add(token.toString());
+            }
+            return tokens;
+        }
+    }
+}
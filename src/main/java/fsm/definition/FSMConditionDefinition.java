@@ -0,0 +1,64 @@
+package fsm.definition;
+
+import java.util.function.Predicate;
+
+/**
+ * Immutable definition of an advance condition
+ * @param <C> type of the context of the instances
+ * @author massimilianoscaletti
+ */
+public final class FSMConditionDefinition<C> {
+    private final String name;
+    private final String description;
+    private final Predicate<C> predicate;
+    private final String next;
+    private final int priority;
+    private final int nextIndex;
+
+    FSMConditionDefinition(String name, String description, Predicate<C> predicate, String next, int priority,
+                           int nextIndex) {
+        super();
+        this.name = name;
+        this.description = description;
+        this.predicate = predicate;
+        this.next = next;
+        this.priority = priority;
+        this.nextIndex = nextIndex;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Check of the condition, called with the context of the instance
+     * @return the predicate
+     */
+    public Predicate<C> getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * Name of the step to jump to when the condition is met
+     * @return name of the step
+     */
+    public String getNext() {
+        return next;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Step to jump to when the condition is met, resolved when the definition is built
+     * @return index of the step in the definition, FSM.END_INDEX or FSM.ABORT_INDEX
+     */
+    public int getNextIndex() {
+        return nextIndex;
+    }
+}
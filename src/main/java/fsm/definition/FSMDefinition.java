@@ -0,0 +1,391 @@
+package fsm.definition;
+
+import fsm.FSM;
+import fsm.components.FSMEvaluation;
+import fsm.components.FSMStep;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Immutable definition of a sequence, built once with a Builder and shared by
+ * any number of FSMInstance. The definition holds only the graph (steps,
+ * conditions, timeouts, cycle times) and the code; the runtime state lives
+ * in the instances and in their context object, so a definition can be used
+ * by many threads at the same time. Every instance builds its own steps and
+ * conditions from the definition (see FSMInstance).
+ * <pre>
+ * FSMDefinition&lt;Tank&gt; filling = FSMDefinition.&lt;Tank&gt;builder("open")
+ *         .stepsDelay(100)
+ *         .step("open").run(Tank::openValve).when("full", Tank::isFull, "close").done()
+ *         .step("close").run(Tank::closeValve).when("closed", Tank::isClosed, FSM.END).done()
+ *         .build();
+ * FSM fsm = filling.newInstance("tank1", tank1);
+ * </pre>
+ * @param <C> type of the context of the instances
+ * @author massimilianoscaletti
+ */
+public final class FSMDefinition<C> {
+    private final String startStep;
+    private final int stepsDelay;
+    private final Consumer<C> setup;
+    private final Predicate<C> overallChecks;
+    private final Consumer<C> end;
+    private final List<FSMStepDefinition<C>> steps;
+    private final Map<String, Integer> stepIndex;
+    private final Map<String, Integer> tableIndex;
+    private volatile FSMDispatch dispatch;
+
+    FSMDefinition(String startStep, int stepsDelay, Consumer<C> setup, Predicate<C> overallChecks,
+                  Consumer<C> end, List<FSMStepDefinition<C>> steps) {
+        super();
+        this.startStep = startStep;
+        this.stepsDelay = stepsDelay;
+        this.setup = setup;
+        this.overallChecks = overallChecks;
+        this.end = end;
+        this.steps = Collections.unmodifiableList(steps);
+        HashMap<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < steps.size(); i++){
+            index.put(steps.get(i).getName(), i);
+        }
+        this.stepIndex = Collections.unmodifiableMap(index);
+        HashMap<String, Integer> table = new HashMap<>(index);
+        table.put(FSM.END, FSM.END_INDEX);
+        table.put(FSM.ABORT, FSM.ABORT_INDEX);
+        this.tableIndex = Collections.unmodifiableMap(table);
+    }
+
+    /**
+     * Creates a builder
+     * @param startStep name of the first step
+     * @param <C> type of the context of the instances
+     * @return the builder
+     */
+    public static <C> Builder<C> builder(String startStep){
+        return new Builder<>(startStep);
+    }
+
+    /**
+     * Creates a new instance of the sequence
+     * @param name name of the instance
+     * @param context state of the instance, passed to the code of the steps and conditions
+     * @return the instance, ready to be started
+     */
+    public FSMInstance<C> newInstance(String name, C context){
+        return new FSMInstance<>(this, name, context);
+    }
+
+    /**
+     * Generates a class calling the code of this definition through a switch
+     * over the steps and the conditions (see FSMDispatch), so every step has its
+     * own call sites that the JIT can inline. Instances created afterwards use
+     * the generated class, instances already created keep calling the code
+     * through the definition. The class is generated only once
+     * @return this definition
+     * @throws IllegalStateException if the definition has too many distinct
+     * actions and predicates for a generated class
+     */
+    public synchronized FSMDefinition<C> compile(){
+        if (dispatch == null){
+            dispatch = FSMDispatchCompiler.compile(this);
+        }
+        return this;
+    }
+
+    /**
+     * Generated dispatch of the code of the definition
+     * @return the dispatch, null if compile() has not been called
+     */
+    public FSMDispatch getDispatch() {
+        return dispatch;
+    }
+
+    public String getStartStep() {
+        return startStep;
+    }
+
+    public int getStepsDelay() {
+        return stepsDelay;
+    }
+
+    Consumer<C> getSetup() {
+        return setup;
+    }
+
+    Predicate<C> getOverallChecks() {
+        return overallChecks;
+    }
+
+    Consumer<C> getEnd() {
+        return end;
+    }
+
+    /**
+     * Steps of the sequence
+     * @return unmodifiable list of steps
+     */
+    public List<FSMStepDefinition<C>> getSteps() {
+        return steps;
+    }
+
+    /**
+     * Indexes of the steps by name, including end and abort, shared by the
+     * step tables of all the instances (see FSM.setResolvedSteps())
+     * @return unmodifiable map of the indexes
+     */
+    Map<String, Integer> getTableIndex() {
+        return tableIndex;
+    }
+
+    /**
+     * Returns a step by name
+     * @param name name of the step
+     * @return the step definition, null if not found
+     */
+    public FSMStepDefinition<C> getStep(String name){
+        Integer i = stepIndex.get(name);
+        return i == null ? null : steps.get(i);
+    }
+
+    /**
+     * Builder of FSMDefinition, not thread safe
+     * @param <C> type of the context of the instances
+     */
+    public static final class Builder<C> {
+        private final String startStep;
+        private int stepsDelay = 100;
+        private Consumer<C> setup;
+        private Predicate<C> overallChecks;
+        private Consumer<C> end;
+        private final LinkedHashMap<String, StepBuilder<C>> steps = new LinkedHashMap<>();
+
+        private Builder(String startStep) {
+            this.startStep = startStep;
+        }
+
+        /**
+         * Default cycle delay of the instances
+         * @param stepsDelay delay in milliseconds
+         * @return the builder
+         */
+        public Builder<C> stepsDelay(int stepsDelay){
+            this.stepsDelay = stepsDelay;
+            return this;
+        }
+
+        /**
+         * Code called when an instance starts (see FSM.threadSetup())
+         * @param setup the code
+         * @return the builder
+         */
+        public Builder<C> onSetup(Consumer<C> setup){
+            this.setup = setup;
+            return this;
+        }
+
+        /**
+         * Checks called on every cycle (see FSM.threadOverallChecks())
+         * @param overallChecks the checks, false skips the step execution
+         * @return the builder
+         */
+        public Builder<C> overallChecks(Predicate<C> overallChecks){
+            this.overallChecks = overallChecks;
+            return this;
+        }
+
+        /**
+         * Code called when an instance is over (see FSM.threadEnd())
+         * @param end the code
+         * @return the builder
+         */
+        public Builder<C> onEnd(Consumer<C> end){
+            this.end = end;
+            return this;
+        }
+
+        /**
+         * Adds a step
+         * @param name name of the step
+         * @return the builder of the step, done() returns to this builder
+         */
+        public StepBuilder<C> step(String name){
+            if (steps.containsKey(name) || FSM.END.equals(name) || FSM.ABORT.equals(name)){
+                throw new IllegalArgumentException("Duplicated or reserved step name '" + name + "'");
+            }
+            StepBuilder<C> step = new StepBuilder<>(this, name);
+            steps.put(name, step);
+            return step;
+        }
+
+        /**
+         * Builds the definition
+         * @return the immutable definition
+         * @throws IllegalArgumentException if the start step or the target of a
+         * condition or timeout is not a step of the sequence
+         */
+        public FSMDefinition<C> build(){
+            if (!steps.containsKey(startStep)){
+                throw new IllegalArgumentException("Wrong start step name '" + startStep + "'");
+            }
+            HashMap<String, Integer> index = new HashMap<>();
+            index.put(FSM.END, FSM.END_INDEX);
+            index.put(FSM.ABORT, FSM.ABORT_INDEX);
+            for (String name : steps.keySet()){
+                index.put(name, index.size() - 2);
+            }
+            List<FSMStepDefinition<C>> built = new ArrayList<>(steps.size());
+            for (StepBuilder<C> step : steps.values()){
+                int timeOutIndex = FSMStep.UNRESOLVED;
+                if (step.timeOut >= 0){
+                    timeOutIndex = resolve(index, step.name, "timeout", step.timeOutStep);
+                }
+                List<FSMConditionDefinition<C>> conditions = new ArrayList<>(step.conditions.size());
+                for (FSMConditionDefinition<C> c : step.conditions){
+                    conditions.add(new FSMConditionDefinition<>(c.getName(), c.getDescription(), c.getPredicate(),
+                            c.getNext(), c.getPriority(), resolve(index, step.name, "condition " + c.getName(), c.getNext())));
+                }
+                built.add(new FSMStepDefinition<>(step.name, step.description, step.action, step.resetAction,
+                        step.timeOut, step.timeOutStep, timeOutIndex, step.cycleTime, step.waitForSignal,
+                        step.evaluation, Collections.unmodifiableList(conditions)));
+            }
+            return new FSMDefinition<>(startStep, stepsDelay, setup, overallChecks, end, built);
+        }
+
+        private int resolve(Map<String, Integer> index, String step, String what, String target){
+            Integer i = index.get(target);
+            if (i == null){
+                throw new IllegalArgumentException("Step " + step + ", " + what + ": wrong step name '" + target + "'");
+            }
+            return i;
+        }
+    }
+
+    /**
+     * Builder of a step of the definition
+     * @param <C> type of the context of the instances
+     */
+    public static final class StepBuilder<C> {
+        private final Builder<C> parent;
+        private final String name;
+        private String description;
+        private Consumer<C> action;
+        private Consumer<C> resetAction;
+        private int timeOut = -1;
+        private String timeOutStep = "";
+        private int cycleTime = -1;
+        private boolean waitForSignal = false;
+        private FSMEvaluation evaluation = FSMEvaluation.FIRST_MATCH;
+        private final List<FSMConditionDefinition<C>> conditions = new ArrayList<>();
+
+        private StepBuilder(Builder<C> parent, String name) {
+            this.parent = parent;
+            this.name = name;
+            this.description = name;
+        }
+
+        public StepBuilder<C> description(String description){
+            this.description = description;
+            return this;
+        }
+
+        /**
+         * Code run on every cycle of the step (see FSMStep.stepRunCode())
+         * @param action the code
+         * @return the step builder
+         */
+        public StepBuilder<C> run(Consumer<C> action){
+            this.action = action;
+            return this;
+        }
+
+        /**
+         * Code run on every reset of the step (see FSMStep.resetCode())
+         * @param resetAction the code
+         * @return the step builder
+         */
+        public StepBuilder<C> onReset(Consumer<C> resetAction){
+            this.resetAction = resetAction;
+            return this;
+        }
+
+        /**
+         * Timeout of the step
+         * @param timeOut timeout in milliseconds
+         * @param timeOutStep step to jump to on timeout
+         * @return the step builder
+         */
+        public StepBuilder<C> timeOut(int timeOut, String timeOutStep){
+            this.timeOut = timeOut;
+            this.timeOutStep = timeOutStep;
+            return this;
+        }
+
+        /**
+         * Custom cycle time of the step
+         * @param cycleTime cycle time in milliseconds
+         * @return the step builder
+         */
+        public StepBuilder<C> cycleTime(int cycleTime){
+            this.cycleTime = cycleTime;
+            return this;
+        }
+
+        /**
+         * The step is run only on signals (see FSMStep.setWaitForSignal())
+         * @return the step builder
+         */
+        public StepBuilder<C> waitForSignal(){
+            this.waitForSignal = true;
+            return this;
+        }
+
+        public StepBuilder<C> evaluation(FSMEvaluation evaluation){
+            this.evaluation = evaluation;
+            return this;
+        }
+
+        /**
+         * Adds an advance condition
+         * @param conditionName name of the condition
+         * @param predicate check of the condition
+         * @param next step to jump to when the condition is met
+         * @return the step builder
+         */
+        public StepBuilder<C> when(String conditionName, Predicate<C> predicate, String next){
+            return when(conditionName, predicate, next, 0);
+        }
+
+        /**
+         * Adds an advance condition with priority (see FSMEvaluation.PRIORITY)
+         * @param conditionName name of the condition
+         * @param predicate check of the condition
+         * @param next step to jump to when the condition is met
+         * @param priority priority of the condition, higher is checked first
+         * @return the step builder
+         */
+        public StepBuilder<C> when(String conditionName, Predicate<C> predicate, String next, int priority){
+            for (FSMConditionDefinition<C> c : conditions){
+                if (c.getName().equals(conditionName)){
+                    throw new IllegalArgumentException("Step " + name + ": duplicated condition name '" + conditionName + "'");
+                }
+            }
+            conditions.add(new FSMConditionDefinition<>(conditionName, conditionName, predicate, next, priority,
+                    FSMStep.UNRESOLVED));
+            return this;
+        }
+
+        /**
+         * Completes the step
+         * @return the builder of the definition
+         */
+        public Builder<C> done(){
+            return parent;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package fsm.definition;
+
+/**
+ * Dispatch of the code of a FSMDefinition, generated at runtime by
+ * FSMDefinition.compile(): a class per definition with a switch over the
+ * indexes of the steps and of the conditions, where every case calls its
+ * own action or predicate. Every call site sees a single implementation,
+ * so the JIT can inline the code of the steps instead of dispatching
+ * through the megamorphic calls of the interpreted adapters
+ * @author massimilianoscaletti
+ */
+public abstract class FSMDispatch {
+
+    protected FSMDispatch() {
+        super();
+    }
+
+    /**
+     * Runs the code of a step (see FSMStep.stepRunCode())
+     * @param step index of the step in the definition
+     * @param context context of the instance
+     */
+    public abstract void run(int step, Object context);
+
+    /**
+     * Runs the reset code of a step (see FSMStep.resetCode())
+     * @param step index of the step in the definition
+     * @param context context of the instance
+     */
+    public abstract void reset(int step, Object context);
+
+    /**
+     * Checks a condition
+     * @param condition index of the condition in the definition, numbered
+     *                  step by step in insertion order
+     * @param context context of the instance
+     * @return true if the condition is met
+     */
+    public abstract boolean test(int condition, Object context);
+}
@@ -0,0 +1,448 @@
+package fsm.definition;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Generates the FSMDispatch class of a definition.
+ * The class file is written directly (version 49, no stack map frames needed):
+ * a field for every distinct action or predicate, set by the constructor from
+ * an array, and the methods run(), reset() and test() made of a tableswitch
+ * with a case for every step or condition, each case with its own call of the
+ * code. Switches with more than CHUNK cases are split in private methods,
+ * selected by a first switch on the high bits of the index, to stay below the
+ * 64KB limit of the code of a method
+ * @author massimilianoscaletti
+ */
+final class FSMDispatchCompiler {
+    private static final String NAME = "fsm/definition/FSMDispatch$Generated";
+    private static final String SUPER = "fsm/definition/FSMDispatch";
+    private static final String CONSUMER = "java/util/function/Consumer";
+    private static final String PREDICATE = "java/util/function/Predicate";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String RUN = "(I" + OBJECT + ")V";
+    private static final String TEST = "(I" + OBJECT + ")Z";
+    private static final int CHUNK_BITS = 11;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+    /** limit of distinct actions and predicates, the constructor must stay below 64KB */
+    private static final int MAX_FIELDS = 4096;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int ILOAD_1 = 0x1b;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int AALOAD = 0x32;
+    private static final int ISHR = 0x7a;
+    private static final int TABLESWITCH = 0xaa;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int CHECKCAST = 0xc0;
+
+    private final Bytes pool = new Bytes();
+    private final HashMap<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+    private final IdentityHashMap<Object, Integer> fieldIndex = new IdentityHashMap<>();
+    private final ArrayList<Object> functions = new ArrayList<>();
+    private final ArrayList<String> fieldTypes = new ArrayList<>();
+    private final ArrayList<Object[]> methods = new ArrayList<>();
+
+    private FSMDispatchCompiler() {
+        super();
+    }
+
+    /**
+     * Generates and loads the dispatch class of a definition
+     * @param definition the definition
+     * @return a new instance of the generated class
+     * @throws IllegalStateException if the definition is too big for a generated class
+     */
+    static FSMDispatch compile(FSMDefinition<?> definition){
+        FSMDispatchCompiler compiler = new FSMDispatchCompiler();
+        List<? extends FSMStepDefinition<?>> steps = definition.getSteps();
+        int[] run = new int[steps.size()];
+        int[] reset = new int[steps.size()];
+        ArrayList<Integer> test = new ArrayList<>();
+        for (int i = 0; i < run.length; i++){
+            FSMStepDefinition<?> step = steps.get(i);
+            run[i] = compiler.field(step.getAction(), CONSUMER);
+            reset[i] = compiler.field(step.getResetAction(), CONSUMER);
+            for (FSMConditionDefinition<?> condition : step.getConditions()){
+                test.add(compiler.field(condition.getPredicate(), PREDICATE));
+            }
+        }
+        int[] tests = new int[test.size()];
+        for (int i = 0; i < tests.length; i++){
+            tests[i] = test.get(i);
+        }
+        byte[] bytes = compiler.generate(run, reset, tests);
+        try {
+            Class<?> type = FSMClassDefiner.define(NAME.replace('/', '.'), bytes);
+            return (FSMDispatch) type.getConstructor(Object[].class).newInstance((Object) compiler.functions.toArray());
+        } catch (ReflectiveOperationException ex){
+            throw new IllegalStateException("Cannot load the dispatch class", ex);
+        }
+    }
+
+    /**
+     * Returns the field holding a function, the same object shares the field
+     * @return index of the field, -1 if the function is null
+     */
+    private int field(Object function, String type){
+        if (function == null){
+            return -1;
+        }
+        Integer i = fieldIndex.get(function);
+        if (i == null){
+            if (functions.size() == MAX_FIELDS){
+                throw new IllegalStateException("Too many distinct actions and predicates: " + MAX_FIELDS + " max");
+            }
+            i = functions.size();
+            functions.add(function);
+            fieldTypes.add(type);
+            fieldIndex.put(function, i);
+        }
+        return i;
+    }
+
+    private byte[] generate(int[] run, int[] reset, int[] test){
+        int thisClass = classRef(NAME);
+        int superClass = classRef(SUPER);
+        constructor();
+        switchMethod("run", run, false);
+        switchMethod("reset", reset, false);
+        switchMethod("test", test, true);
+        int code = utf8("Code");
+        int[] fieldNames = new int[functions.size()];
+        int[] fieldDescriptors = new int[functions.size()];
+        for (int i = 0; i < fieldNames.length; i++){
+            fieldNames[i] = utf8("f" + i);
+            fieldDescriptors[i] = utf8("L" + fieldTypes.get(i) + ";");
+        }
+        int[] methodNames = new int[methods.size()];
+        int[] methodDescriptors = new int[methods.size()];
+        for (int i = 0; i < methodNames.length; i++){
+            methodNames[i] = utf8((String) methods.get(i)[1]);
+            methodDescriptors[i] = utf8((String) methods.get(i)[2]);
+        }
+        if (poolCount > 0xFFFF){
+            throw new IllegalStateException("Too many constants in the dispatch class");
+        }
+        Bytes out = new Bytes();
+        out.u4(0xCAFEBABE);
+        out.u2(0);
+        out.u2(49);
+        out.u2(poolCount);
+        out.bytes(pool.toArray());
+        out.u2(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.u2(thisClass);
+        out.u2(superClass);
+        out.u2(0);
+        out.u2(fieldNames.length);
+        for (int i = 0; i < fieldNames.length; i++){
+            out.u2(ACC_PRIVATE | ACC_FINAL);
+            out.u2(fieldNames[i]);
+            out.u2(fieldDescriptors[i]);
+            out.u2(0);
+        }
+        out.u2(methods.size());
+        for (int i = 0; i < methodNames.length; i++){
+            Object[] m = methods.get(i);
+            byte[] body = (byte[]) m[3];
+            out.u2((Integer) m[0]);
+            out.u2(methodNames[i]);
+            out.u2(methodDescriptors[i]);
+            out.u2(1);
+            out.u2(code);
+            out.u4(12 + body.length);
+            // max stack, max locals
+            out.u2(3);
+            out.u2(3);
+            out.u4(body.length);
+            out.bytes(body);
+            // no exception table, no attributes
+            out.u2(0);
+            out.u2(0);
+        }
+        out.u2(0);
+        return out.toArray();
+    }
+
+    /**
+     * public Generated(Object[] functions): every field is set from the array
+     */
+    private void constructor(){
+        Bytes code = new Bytes();
+        code.u1(ALOAD_0);
+        code.u1(INVOKESPECIAL);
+        code.u2(methodRef(SUPER, "<init>", "()V", false));
+        for (int i = 0; i < functions.size(); i++){
+            code.u1(ALOAD_0);
+            code.u1(ALOAD_1);
+            if (i <= 5){
+                code.u1(ICONST_0 + i);
+            } else if (i < 128){
+                code.u1(BIPUSH);
+                code.u1(i);
+            } else {
+                code.u1(SIPUSH);
+                code.u2(i);
+            }
+            code.u1(AALOAD);
+            code.u1(CHECKCAST);
+            code.u2(classRef(fieldTypes.get(i)));
+            code.u1(PUTFIELD);
+            code.u2(fieldRef(i));
+        }
+        code.u1(RETURN);
+        methods.add(new Object[]{ACC_PUBLIC, "<init>", "([" + OBJECT + ")V", code.toArray()});
+    }
+
+    /**
+     * Public method with a switch over the indexes, split in chunks if needed
+     * @param name name of the method
+     * @param fields field called by every index, -1 for no call
+     * @param test true for the predicates, false for the actions
+     */
+    private void switchMethod(String name, int[] fields, boolean test){
+        String descriptor = test ? TEST : RUN;
+        if (fields.length <= CHUNK){
+            methods.add(new Object[]{ACC_PUBLIC, name, descriptor, cases(fields, 0, fields.length, test)});
+            return;
+        }
+        int chunks = (fields.length + CHUNK - 1) / CHUNK;
+        int[] targets = new int[chunks];
+        for (int k = 0; k < chunks; k++){
+            String chunk = name + "$" + k;
+            methods.add(new Object[]{ACC_PRIVATE, chunk, descriptor,
+                    cases(fields, k * CHUNK, Math.min(fields.length, (k + 1) * CHUNK), test)});
+            targets[k] = methodRef(NAME, chunk, descriptor, false);
+        }
+        // switch on index >> CHUNK_BITS, every case calls its chunk
+        Bytes code = new Bytes();
+        code.u1(ILOAD_1);
+        code.u1(BIPUSH);
+        code.u1(CHUNK_BITS);
+        code.u1(ISHR);
+        int[] table = tableSwitch(code, 0, chunks);
+        for (int k = 0; k < chunks; k++){
+            table[k] = code.size();
+            code.u1(ALOAD_0);
+            code.u1(ILOAD_1);
+            code.u1(ALOAD_2);
+            code.u1(INVOKESPECIAL);
+            code.u2(targets[k]);
+            code.u1(test ? IRETURN : RETURN);
+        }
+        endSwitch(code, table, test);
+        methods.add(new Object[]{ACC_PUBLIC, name, descriptor, code.toArray()});
+    }
+
+    /**
+     * Body of a switch over the indexes from to (excluded)
+     */
+    private byte[] cases(int[] fields, int from, int to, boolean test){
+        Bytes code = new Bytes();
+        if (from == to){
+            returnDefault(code, test);
+            return code.toArray();
+        }
+        code.u1(ILOAD_1);
+        int[] table = tableSwitch(code, from, to - from);
+        int method = test ? interfaceMethodRef(PREDICATE, "test", "(" + OBJECT + ")Z")
+                : interfaceMethodRef(CONSUMER, "accept", "(" + OBJECT + ")V");
+        for (int i = from; i < to; i++){
+            if (fields[i] < 0){
+                table[i - from] = -1;
+                continue;
+            }
+            table[i - from] = code.size();
+            code.u1(ALOAD_0);
+            code.u1(GETFIELD);
+            code.u2(fieldRef(fields[i]));
+            code.u1(ALOAD_2);
+            code.u1(INVOKEINTERFACE);
+            code.u2(method);
+            code.u1(2);
+            code.u1(0);
+            code.u1(test ? IRETURN : RETURN);
+        }
+        endSwitch(code, table, test);
+        return code.toArray();
+    }
+
+    /**
+     * Writes a tableswitch on the int on the stack, the offsets are written by endSwitch()
+     * @return positions of the cases, to be filled with the position of the code of every case
+     */
+    private int[] tableSwitch(Bytes code, int low, int count){
+        int start = code.size();
+        code.u1(TABLESWITCH);
+        while (code.size() % 4 != 0){
+            code.u1(0);
+        }
+        // default, low, high, offsets: written by endSwitch()
+        int[] table = new int[count + 2];
+        table[count] = start;
+        table[count + 1] = code.size();
+        code.u4(0);
+        code.u4(low);
+        code.u4(low + count - 1);
+        for (int i = 0; i < count; i++){
+            code.u4(0);
+        }
+        return table;
+    }
+
+    /**
+     * Writes the default case and the offsets of the switch
+     */
+    private void endSwitch(Bytes code, int[] table, boolean test){
+        int count = table.length - 2;
+        int start = table[count];
+        int offsets = table[count + 1];
+        int fallback = code.size();
+        returnDefault(code, test);
+        code.set4(offsets, fallback - start);
+        for (int i = 0; i < count; i++){
+            code.set4(offsets + 12 + 4 * i, (table[i] < 0 ? fallback : table[i]) - start);
+        }
+    }
+
+    private void returnDefault(Bytes code, boolean test){
+        if (test){
+            code.u1(ICONST_0);
+            code.u1(IRETURN);
+        } else {
+            code.u1(RETURN);
+        }
+    }
+
+    private int fieldRef(int field){
+        return ref(9, NAME, "f" + field, "L" + fieldTypes.get(field) + ";");
+    }
+
+    private int methodRef(String owner, String name, String descriptor, boolean itf){
+        return ref(itf ? 11 : 10, owner, name, descriptor);
+    }
+
+    private int interfaceMethodRef(String owner, String name, String descriptor){
+        return methodRef(owner, name, descriptor, true);
+    }
+
+    private int ref(int tag, String owner, String name, String descriptor){
+        String key = tag + ":" + owner + "." + name + ":" + descriptor;
+        Integer i = poolIndex.get(key);
+        if (i == null){
+            int type = classRef(owner);
+            String ntKey = "12:" + name + ":" + descriptor;
+            Integer nt = poolIndex.get(ntKey);
+            if (nt == null){
+                int n = utf8(name);
+                int d = utf8(descriptor);
+                pool.u1(12);
+                pool.u2(n);
+                pool.u2(d);
+                nt = add(ntKey);
+            }
+            pool.u1(tag);
+            pool.u2(type);
+            pool.u2(nt);
+            i = add(key);
+        }
+        return i;
+    }
+
+    private int classRef(String name){
+        String key = "7:" + name;
+        Integer i = poolIndex.get(key);
+        if (i == null){
+            int n = utf8(name);
+            pool.u1(7);
+            pool.u2(n);
+            i = add(key);
+        }
+        return i;
+    }
+
+    private int utf8(String value){
+        String key = "1:" + value;
+        Integer i = poolIndex.get(key);
+        if (i == null){
+            // names and descriptors are ASCII: UTF-8 is the same as the modified UTF-8 of the class files
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            pool.u1(1);
+            pool.u2(bytes.length);
+            pool.bytes(bytes);
+            i = add(key);
+        }
+        return i;
+    }
+
+    private int add(String key){
+        int i = poolCount++;
+        poolIndex.put(key, i);
+        return i;
+    }
+
+    /**
+     * Growable big endian byte buffer
+     */
+    private static final class Bytes {
+        private byte[] data = new byte[256];
+        private int size = 0;
+
+        void u1(int v){
+            if (size == data.length){
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = (byte) v;
+        }
+
+        void u2(int v){
+            u1(v >>> 8);
+            u1(v);
+        }
+
+        void u4(int v){
+            u2(v >>> 16);
+            u2(v);
+        }
+
+        void bytes(byte[] b){
+            for (byte v : b){
+                u1(v);
+            }
+        }
+
+        void set4(int position, int v){
+            data[position] = (byte) (v >>> 24);
+            data[position + 1] = (byte) (v >>> 16);
+            data[position + 2] = (byte) (v >>> 8);
+            data[position + 3] = (byte) v;
+        }
+
+        int size(){
+            return size;
+        }
+
+        byte[] toArray(){
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package fsm.definition;
+
+import java.util.HashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Registry of the code referenced by name in a declarative definition
+ * (see FSMCompiledDefinition): the predicates of the advance conditions and
+ * the actions of the steps and of the sequence. Not thread safe while it is
+ * being filled, read only when a definition is bound
+ * @param <C> type of the context of the instances
+ * @author massimilianoscaletti
+ */
+public final class FSMFunctions<C> {
+    private final HashMap<String, Predicate<C>> predicates = new HashMap<>();
+    private final HashMap<String, Consumer<C>> actions = new HashMap<>();
+
+    /**
+     * Registers a predicate, used by the conditions and by the overall checks
+     * @param name name of the predicate in the definition
+     * @param predicate the check
+     * @return this registry
+     */
+    public FSMFunctions<C> predicate(String name, Predicate<C> predicate){
+        if (predicates.put(name, predicate) != null){
+            throw new IllegalArgumentException("Duplicated predicate name '" + name + "'");
+        }
+        return this;
+    }
+
+    /**
+     * Registers an action, used by the steps, the reset code, the setup and the end of the sequence
+     * @param name name of the action in the definition
+     * @param action the code
+     * @return this registry
+     */
+    public FSMFunctions<C> action(String name, Consumer<C> action){
+        if (actions.put(name, action) != null){
+            throw new IllegalArgumentException("Duplicated action name '" + name + "'");
+        }
+        return this;
+    }
+
+    /**
+     * Returns a predicate by name
+     * @param name name of the predicate
+     * @return the predicate
+     * @throws IllegalArgumentException if the predicate is not registered
+     */
+    public Predicate<C> getPredicate(String name){
+        Predicate<C> p = predicates.get(name);
+        if (p == null){
+            throw new IllegalArgumentException("Unknown predicate '" + name + "'");
+        }
+        return p;
+    }
+
+    /**
+     * Returns an action by name
+     * @param name name of the action
+     * @return the action
+     * @throws IllegalArgumentException if the action is not registered
+     */
+    public Consumer<C> getAction(String name){
+        Consumer<C> a = actions.get(name);
+        if (a == null){
+            throw new IllegalArgumentException("Unknown action '" + name + "'");
+        }
+        return a;
+    }
+}
@@ -0,0 +1,218 @@
+package fsm.definition;
+
+import fsm.FSM;
+import fsm.components.FSMCondition;
+import fsm.components.FSMStep;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Runtime instance of a FSMDefinition.
+ * The steps are created once, when the instance is created, as adapters of the
+ * shared definition: names, targets, resolved indexes and code are shared,
+ * threadSetup() doesn't rebuild the steps, and the step table is the one of the
+ * definition: the targets resolved when the definition was built are used as
+ * they are, the names are not looked up again when the instance starts.
+ * <p>
+ * The instance still runs on the engine of FSM: it owns one FSMStep for every
+ * step and one FSMCondition for every condition of the definition, each with
+ * the fields of its class (condition map and table, timer, probe, inbox) and
+ * registered in the steps of the FSM. The memory of an instance grows with the
+ * size of the definition, not with the steps it visits. Large populations of
+ * one machine are better run by fsm.batch.FSMBatch, keeping the state of every
+ * instance in primitive arrays.
+ * When the definition is compiled the code is called through its generated
+ * FSMDispatch instead of the functions of the definition
+ * @param <C> type of the context of the instance
+ * @author massimilianoscaletti
+ */
+public class FSMInstance<C> extends FSM {
+    private final FSMDefinition<C> definition;
+    private final C context;
+
+    /**
+     * Constructor
+     * @param definition definition of the sequence
+     * @param name name of the instance
+     * @param context state of the instance, passed to the code of the steps and conditions
+     */
+    public FSMInstance(FSMDefinition<C> definition, String name, C context) {
+        super(name, definition.getStartStep(), definition.getStepsDelay());
+        this.definition = definition;
+        this.context = context;
+        FSMDispatch dispatch = definition.getDispatch();
+        Map<String, Integer> tableIndex = definition.getTableIndex();
+        FSMStep[] table = new FSMStep[definition.getSteps().size()];
+        int conditions = 0;
+        int index = 0;
+        for (FSMStepDefinition<C> step : definition.getSteps()){
+            DefinedStep<C> s = new DefinedStep<>(step, context, dispatch, tableIndex, index, conditions);
+            addStep(s);
+            table[index++] = s;
+            conditions += step.getConditions().size();
+        }
+        setResolvedSteps(table, tableIndex);
+    }
+
+    /**
+     * Definition of the sequence
+     * @return the shared definition
+     */
+    public FSMDefinition<C> getDefinition() {
+        return definition;
+    }
+
+    /**
+     * State of the instance
+     * @return the context
+     */
+    public C getContext() {
+        return context;
+    }
+
+    @Override
+    protected void threadSetup() {
+        Consumer<C> setup = definition.getSetup();
+        if (setup != null){
+            setup.accept(context);
+        }
+    }
+
+    @Override
+    protected boolean threadOverallChecks() {
+        Predicate<C> checks = definition.getOverallChecks();
+        return checks == null || checks.test(context);
+    }
+
+    @Override
+    protected void threadEnd() {
+        Consumer<C> end = definition.getEnd();
+        if (end != null){
+            end.accept(context);
+        }
+    }
+
+    /**
+     * Step running the code of a step definition
+     */
+    private static final class DefinedStep<C> extends FSMStep {
+        private final Consumer<C> action;
+        private final Consumer<C> resetAction;
+        private final C context;
+        private final FSMDispatch dispatch;
+        private final int id;
+        private final Map<String, Integer> tableIndex;
+        private final int timeOutIndex;
+        private final int[] nextIndexes; // shared by the instances
+        private boolean resolved = false;
+
+        /**
+         * @param dispatch generated dispatch of the definition, null to call the functions
+         * @param tableIndex indexes of the steps of the definition by name
+         * @param id index of the step in the definition
+         * @param firstCondition index in the definition of the first condition of the step
+         */
+        DefinedStep(FSMStepDefinition<C> definition, C context, FSMDispatch dispatch, Map<String, Integer> tableIndex,
+                    int id, int firstCondition) {
+            super(definition.getName(), definition.getDescription());
+            this.action = definition.getAction();
+            this.resetAction = definition.getResetAction();
+            this.context = context;
+            this.dispatch = dispatch;
+            this.id = id;
+            this.tableIndex = tableIndex;
+            this.timeOutIndex = definition.getTimeOutIndex();
+            this.nextIndexes = definition.getNextIndexes();
+            setTimeOut(definition.getTimeOut());
+            setTimeOutStep(definition.getTimeOutStep());
+            setCycleTime(definition.getCycleTime());
+            setWaitForSignal(definition.isWaitForSignal());
+            setEvaluation(definition.getEvaluation());
+            for (FSMConditionDefinition<C> condition : definition.getConditions()){
+                addAdvanceCondition(new DefinedCondition<>(condition, context, dispatch, firstCondition++));
+            }
+            resolved = true;
+        }
+
+        @Override
+        public void compile(int index, Map<String, Integer> stepIndex) {
+            if (index == id && stepIndex == tableIndex && resolved && conditionsResolved()){
+                compile(index, stepIndex, timeOutIndex, nextIndexes);
+            } else {
+                super.compile(index, stepIndex);
+            }
+        }
+
+        /**
+         * The conditions are the ones of the definition, with their next step
+         */
+        private boolean conditionsResolved(){
+            for (FSMCondition condition : getAdvanceConditions().values()){
+                if (!(condition instanceof DefinedCondition) || !((DefinedCondition<?>) condition).resolved){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void setTimeOutStep(String timeOutStep) {
+            super.setTimeOutStep(timeOutStep);
+            resolved = false;
+        }
+
+        @Override
+        public void stepRunCode() {
+            if (dispatch != null){
+                dispatch.run(id, context);
+            } else if (action != null){
+                action.accept(context);
+            }
+        }
+
+        @Override
+        public void resetCode() {
+            if (dispatch != null){
+                dispatch.reset(id, context);
+            } else if (resetAction != null){
+                resetAction.accept(context);
+            }
+        }
+    }
+
+    /**
+     * Condition checking the predicate of a condition definition
+     */
+    private static final class DefinedCondition<C> extends FSMCondition {
+        private final Predicate<C> predicate;
+        private final C context;
+        private final FSMDispatch dispatch;
+        private final int id;
+        private boolean resolved;
+
+        DefinedCondition(FSMConditionDefinition<C> definition, C context, FSMDispatch dispatch, int id) {
+            super(definition.getName(), definition.getDescription(), definition.getNext());
+            this.predicate = definition.getPredicate();
+            this.context = context;
+            this.dispatch = dispatch;
+            this.id = id;
+            setPriority(definition.getPriority());
+            resolved = definition.getNextIndex() != FSMStep.UNRESOLVED;
+        }
+
+        @Override
+        public void setNext(String next) {
+            super.setNext(next);
+            resolved = false;
+        }
+
+        @Override
+        protected boolean compare() {
+            if (dispatch != null){
+                return dispatch.test(id, context);
+            }
+            return predicate.test(context);
+        }
+    }
+}
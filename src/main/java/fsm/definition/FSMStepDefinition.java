@@ -0,0 +1,124 @@
+package fsm.definition;
+
+import fsm.components.FSMEvaluation;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Immutable definition of a step
+ * @param <C> type of the context of the instances
+ * @author massimilianoscaletti
+ */
+public final class FSMStepDefinition<C> {
+    private final String name;
+    private final String description;
+    private final Consumer<C> action;
+    private final Consumer<C> resetAction;
+    private final int timeOut;
+    private final String timeOutStep;
+    private final int timeOutIndex;
+    private final int cycleTime;
+    private final boolean waitForSignal;
+    private final FSMEvaluation evaluation;
+    private final List<FSMConditionDefinition<C>> conditions;
+    private final int[] nextIndexes;
+
+    FSMStepDefinition(String name, String description, Consumer<C> action, Consumer<C> resetAction,
+                      int timeOut, String timeOutStep, int timeOutIndex, int cycleTime, boolean waitForSignal,
+                      FSMEvaluation evaluation, List<FSMConditionDefinition<C>> conditions) {
+        super();
+        this.name = name;
+        this.description = description;
+        this.action = action;
+        this.resetAction = resetAction;
+        this.timeOut = timeOut;
+        this.timeOutStep = timeOutStep;
+        this.timeOutIndex = timeOutIndex;
+        this.cycleTime = cycleTime;
+        this.waitForSignal = waitForSignal;
+        this.evaluation = evaluation;
+        this.conditions = conditions;
+        this.nextIndexes = new int[conditions.size()];
+        int i = 0;
+        for (FSMConditionDefinition<C> condition : conditions){
+            nextIndexes[i++] = condition.getNextIndex();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Code run on every cycle, null if the step has no code
+     * @return the code of the step
+     */
+    public Consumer<C> getAction() {
+        return action;
+    }
+
+    /**
+     * Code run on every reset, null if the step has no reset code
+     * @return the reset code of the step
+     */
+    public Consumer<C> getResetAction() {
+        return resetAction;
+    }
+
+    /**
+     * Timeout of the step
+     * @return timeout in milliseconds, -1 if not set
+     */
+    public int getTimeOut() {
+        return timeOut;
+    }
+
+    public String getTimeOutStep() {
+        return timeOutStep;
+    }
+
+    /**
+     * Step to jump to on timeout, resolved when the definition is built
+     * @return index of the step in the definition, FSM.END_INDEX or FSM.ABORT_INDEX,
+     * FSMStep.UNRESOLVED if the step has no timeout
+     */
+    public int getTimeOutIndex() {
+        return timeOutIndex;
+    }
+
+    /**
+     * Custom cycle time of the step
+     * @return cycle time in milliseconds, -1 if not set
+     */
+    public int getCycleTime() {
+        return cycleTime;
+    }
+
+    public boolean isWaitForSignal() {
+        return waitForSignal;
+    }
+
+    public FSMEvaluation getEvaluation() {
+        return evaluation;
+    }
+
+    /**
+     * Advance conditions in insertion order
+     * @return unmodifiable list of conditions
+     */
+    public List<FSMConditionDefinition<C>> getConditions() {
+        return conditions;
+    }
+
+    /**
+     * Resolved next steps of the conditions, shared by all the instances: not to be modified
+     * @return the indexes (see FSMConditionDefinition.getNextIndex()) in the order of the conditions
+     */
+    int[] getNextIndexes() {
+        return nextIndexes;
+    }
+}
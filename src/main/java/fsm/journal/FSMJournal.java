@@ -0,0 +1,449 @@
+package fsm.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only journal of the transitions, shared by any number of sequences
+ * (see FSM.setJournal()). The file is a sequence of fixed size frames of
+ * RECORD_SIZE bytes, big endian:
+ * <pre>
+ * header      int magic "FSMJ", short version, padding
+ * transition  int TYPE_TRANSITION, int machine, int from, int to, int cause,
+ *             int status, long System.currentTimeMillis()
+ * status      int TYPE_STATUS, int machine, int actual step, int status,
+ *             long System.currentTimeMillis(), padding
+ * machine     int TYPE_MACHINE, int machine, int payload length, payload padded
+ *             to the frame size: string name, int actual step, long time,
+ *             int number of steps, string step names
+ * </pre>
+ * strings are written as int length and UTF-8 bytes, step indexes as in the
+ * FSM step table (FSM.END_INDEX, FSM.ABORT_INDEX).
+ * The machine frames are written when a sequence starts or changes its step
+ * table and map the machine id to its name and steps, the status frames when a
+ * sequence is over, with its final status. Read it with FSMJournalReader
+ * @author massimilianoscaletti
+ */
+public final class FSMJournal implements Closeable {
+    /** file signature "FSMJ" */
+    public static final int MAGIC = 0x46534D4A;
+    public static final short VERSION = 1;
+    public static final int RECORD_SIZE = 32;
+    public static final int TYPE_TRANSITION = 1;
+    public static final int TYPE_MACHINE = 2;
+    public static final int TYPE_STATUS = 3;
+
+    private final FileChannel channel;
+    private final FSMJournalDurability durability;
+    private final Object lock = new Object();
+    private final HashMap<String, Integer> machines = new HashMap<>();
+    private ByteBuffer buffer;
+    private ByteBuffer spare;
+    private long appended = 0;
+    private long durable = 0;
+    private boolean flushing = false;
+    private volatile boolean closed = false;
+    private final Thread flusher;
+    private final long flushInterval;
+
+    private FSMJournal(FileChannel channel, FSMJournalDurability durability, long flushInterval) {
+        super();
+        this.channel = channel;
+        this.durability = durability;
+        this.flushInterval = flushInterval;
+        buffer = ByteBuffer.allocate(64 * RECORD_SIZE);
+        spare = ByteBuffer.allocate(64 * RECORD_SIZE);
+        if (durability == FSMJournalDurability.ASYNC){
+            flusher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    flushLoop();
+                }
+            }, "fsm-journal");
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Opens a journal, appending to the file if it exists
+     * @param file the journal file
+     * @param durability when the records are forced to the disk
+     * @return the journal
+     * @throws IOException if the file cannot be opened or is not a journal
+     */
+    public static FSMJournal open(Path file, FSMJournalDurability durability) throws IOException {
+        return open(file, durability, 10);
+    }
+
+    /**
+     * Opens a journal, appending to the file if it exists after its last
+     * complete record: a record torn by a crash is dropped
+     * @param file the journal file
+     * @param durability when the records are forced to the disk
+     * @param flushInterval period of the background flush in ASYNC mode, milliseconds
+     * @return the journal
+     * @throws IOException if the file cannot be opened or is not a journal
+     */
+    public static FSMJournal open(Path file, FSMJournalDurability durability, long flushInterval) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size < RECORD_SIZE){
+                ByteBuffer header = ByteBuffer.allocate(RECORD_SIZE);
+                header.putInt(MAGIC);
+                header.putShort(VERSION);
+                header.clear();
+                channel.truncate(0);
+                writeFully(channel, header, 0);
+                channel.force(false);
+                channel.position(RECORD_SIZE);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(6);
+                channel.read(header, 0);
+                header.flip();
+                if (header.getInt() != MAGIC || header.getShort() != VERSION){
+                    throw new IOException("Not a FSM journal file: " + file);
+                }
+                // drop a record torn by a crash
+                long end = recover(channel, size);
+                channel.truncate(end);
+                channel.position(end);
+            }
+        } catch (IOException ex){
+            channel.close();
+            throw ex;
+        }
+        return new FSMJournal(channel, durability, Math.max(flushInterval, 1));
+    }
+
+    /**
+     * Scans the records of the file: a crash can leave a partial frame or the
+     * first frames only of a machine record. The new records must be appended
+     * after the last complete one, or FSMJournalReader would read them as its payload
+     * @param channel the journal file
+     * @param size size of the file
+     * @return position of the end of the last complete record
+     * @throws IOException on read errors
+     */
+    private static long recover(FileChannel channel, long size) throws IOException {
+        ByteBuffer frames = ByteBuffer.allocate(1024 * RECORD_SIZE);
+        long loaded = RECORD_SIZE; // file position of the start of the buffer
+        frames.limit(0);
+        long position = RECORD_SIZE;
+        while (position + RECORD_SIZE <= size){
+            if (position < loaded || position + RECORD_SIZE > loaded + frames.limit()){
+                // next block of frames
+                frames.clear();
+                frames.limit((int) Math.min(frames.capacity(), size - position));
+                readFully(channel, frames, position);
+                frames.flip();
+                loaded = position;
+            }
+            int offset = (int) (position - loaded);
+            int type = frames.getInt(offset);
+            long length = RECORD_SIZE;
+            if (type == TYPE_MACHINE){
+                int payload = frames.getInt(offset + 8);
+                if (payload < 0){
+                    break;
+                }
+                length = (12L + payload + RECORD_SIZE - 1) / RECORD_SIZE * RECORD_SIZE;
+            } else if (type != TYPE_TRANSITION && type != TYPE_STATUS){
+                break;
+            }
+            if (position + length > size){
+                break;
+            }
+            position += length;
+        }
+        return position;
+    }
+
+    public FSMJournalDurability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Registers a sequence, writing its machine frame. Called by the FSM when
+     * it starts or changes its step table
+     * @param name name of the sequence
+     * @param stepNames names of the steps, by index in the step table
+     * @param actualIndex index of the actual step
+     * @return id of the sequence in the journal
+     */
+    public int register(String name, String[] stepNames, int actualIndex){
+        int id;
+        synchronized (lock){
+            Integer known = machines.get(name);
+            if (known == null){
+                known = machines.size();
+                machines.put(name, known);
+            }
+            id = known;
+        }
+        int payload = stringSize(name) + 4 + 8 + 4;
+        for (String step : stepNames){
+            payload += stringSize(step);
+        }
+        int frames = (12 + payload + RECORD_SIZE - 1) / RECORD_SIZE;
+        ByteBuffer record = ByteBuffer.allocate(frames * RECORD_SIZE);
+        record.putInt(TYPE_MACHINE);
+        record.putInt(id);
+        record.putInt(payload);
+        putString(record, name);
+        record.putInt(actualIndex);
+        record.putLong(System.currentTimeMillis());
+        record.putInt(stepNames.length);
+        for (String step : stepNames){
+            putString(record, step);
+        }
+        record.clear();
+        append(record);
+        return id;
+    }
+
+    /**
+     * Records a transition. Depending on the durability returns when
+     * the record is forced to the disk or immediately
+     * @param machine id of the sequence returned by register()
+     * @param from index of the step left
+     * @param to index of the next step
+     * @param cause position of the condition met or one of the FSMTrace.CAUSE_ constants
+     * @param status status of the sequence
+     */
+    public void transition(int machine, int from, int to, int cause, int status){
+        long time = System.currentTimeMillis();
+        long seq;
+        synchronized (lock){
+            if (closed){
+                return;
+            }
+            if (durability == FSMJournalDurability.PER_TRANSITION){
+                buffer.clear();
+                putTransition(buffer, machine, from, to, cause, status, time);
+                buffer.flip();
+                writeAndForce(buffer);
+                buffer.clear();
+                return;
+            }
+            ensureSpace(RECORD_SIZE);
+            putTransition(buffer, machine, from, to, cause, status, time);
+            seq = ++appended;
+        }
+        if (durability == FSMJournalDurability.GROUP_COMMIT){
+            sync(seq);
+        }
+    }
+
+    /**
+     * Records the final status of a sequence at the end of its run
+     * @param machine id of the sequence returned by register()
+     * @param actualIndex index of the actual step
+     * @param status final status of the sequence (see FSM.getStatus())
+     */
+    public void status(int machine, int actualIndex, int status){
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putInt(TYPE_STATUS);
+        record.putInt(machine);
+        record.putInt(actualIndex);
+        record.putInt(status);
+        record.putLong(System.currentTimeMillis());
+        record.clear();
+        append(record);
+    }
+
+    /**
+     * Writes and forces to the disk all the records appended so far
+     */
+    public void flush(){
+        long seq;
+        synchronized (lock){
+            seq = appended;
+        }
+        sync(seq);
+    }
+
+    /**
+     * Flushes the pending records and closes the file
+     * @throws IOException on close errors
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed){
+            return;
+        }
+        flush();
+        synchronized (lock){
+            closed = true;
+        }
+        if (flusher != null){
+            LockSupport.unpark(flusher);
+            try {
+                flusher.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        channel.close();
+    }
+
+    private static void putTransition(ByteBuffer b, int machine, int from, int to, int cause, int status, long time){
+        b.putInt(TYPE_TRANSITION);
+        b.putInt(machine);
+        b.putInt(from);
+        b.putInt(to);
+        b.putInt(cause);
+        b.putInt(status);
+        b.putLong(time);
+    }
+
+    /**
+     * Appends a frame to the pending records, or writes it at once in PER_TRANSITION mode
+     * @param record the frame, position 0 and limit at its size
+     */
+    private void append(ByteBuffer record){
+        long seq;
+        synchronized (lock){
+            if (closed){
+                return;
+            }
+            if (durability == FSMJournalDurability.PER_TRANSITION){
+                writeAndForce(record);
+                return;
+            }
+            ensureSpace(record.remaining());
+            buffer.put(record);
+            seq = ++appended;
+        }
+        if (durability == FSMJournalDurability.GROUP_COMMIT){
+            sync(seq);
+        }
+    }
+
+    /**
+     * Grows the pending buffer instead of blocking the sequences on bursts
+     * @param size bytes to be appended
+     */
+    private void ensureSpace(int size){
+        if (buffer.remaining() < size){
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+
+    /**
+     * Group commit: the first thread finding no flush in progress writes and forces
+     * all the pending records, the others wait for it
+     * @param seq sequence number of the last record that must be durable
+     */
+    private void sync(long seq){
+        ByteBuffer toWrite;
+        long upTo;
+        synchronized (lock){
+            while (durable < seq && flushing){
+                try {
+                    lock.wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (durable >= seq){
+                return;
+            }
+            flushing = true;
+            toWrite = buffer;
+            buffer = spare;
+            spare = null;
+            upTo = appended;
+        }
+        try {
+            toWrite.flip();
+            writeAndForce(toWrite);
+        } finally {
+            synchronized (lock){
+                toWrite.clear();
+                spare = toWrite;
+                durable = upTo;
+                flushing = false;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes the records at the end of the file and forces them to the disk.
+     * Errors are logged: the sequences are not stopped by the journal
+     * @param records the records
+     */
+    private void writeAndForce(ByteBuffer records){
+        try {
+            while (records.hasRemaining()){
+                channel.write(records);
+            }
+            channel.force(false);
+        } catch (IOException ex) {
+            Logger.getLogger(FSMJournal.class.getName()).log(Level.SEVERE, "journal write failed", ex);
+        }
+    }
+
+    /**
+     * Background flush of the ASYNC mode
+     */
+    private void flushLoop(){
+        long interval = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+        while (!closed){
+            LockSupport.parkNanos(this, interval);
+            flush();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer b, long position) throws IOException {
+        while (b.hasRemaining()){
+            int read = channel.read(b, position);
+            if (read < 0){
+                throw new IOException("Unexpected end of the journal file");
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer b, long position) throws IOException {
+        while (b.hasRemaining()){
+            position += channel.write(b, position);
+        }
+    }
+
+    static int stringSize(String s){
+        return 4 + s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    static void putString(ByteBuffer buffer, String s){
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer){
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,16 @@
+package fsm.journal;
+
+/**
+ * When the records of the journal are forced to the disk
+ * @author massimilianoscaletti
+ */
+public enum FSMJournalDurability {
+    /** every record is written and forced before the transition goes on */
+    PER_TRANSITION,
+    /** the transition waits its record to be forced, the records of all the
+     *  sequences waiting are written and forced together */
+    GROUP_COMMIT,
+    /** the transition doesn't wait, the records are written and forced
+     *  periodically by a background thread */
+    ASYNC
+}
@@ -0,0 +1,114 @@
+package fsm.journal;
+
+import fsm.FSM;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rebuilds the last known state of every sequence from a journal written by FSMJournal.
+ * The frames are replayed in order; a torn or unknown frame at the end of the
+ * file (crash while writing) stops the replay
+ * @author massimilianoscaletti
+ */
+public final class FSMJournalReader {
+
+    private FSMJournalReader() {
+    }
+
+    /**
+     * Reads a journal
+     * @param file the journal file
+     * @return the state of the sequences by name, in order of first appearance
+     * @throws IOException if the file cannot be read or is not a journal
+     */
+    public static Map<String, FSMJournalState> read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < FSMJournal.RECORD_SIZE || buffer.getInt() != FSMJournal.MAGIC){
+                throw new IOException("Not a FSM journal file: " + file);
+            }
+            short version = buffer.getShort();
+            if (version != FSMJournal.VERSION){
+                throw new IOException("Unsupported FSM journal version " + version);
+            }
+            buffer.position(FSMJournal.RECORD_SIZE);
+            LinkedHashMap<String, FSMJournalState> states = new LinkedHashMap<>();
+            HashMap<Integer, FSMJournalState> byId = new HashMap<>();
+            HashMap<Integer, String[]> stepsById = new HashMap<>();
+            while (buffer.remaining() >= FSMJournal.RECORD_SIZE){
+                int start = buffer.position();
+                int type = buffer.getInt();
+                int id = buffer.getInt();
+                if (type == FSMJournal.TYPE_TRANSITION){
+                    FSMJournalState state = byId.get(id);
+                    String[] steps = stepsById.get(id);
+                    if (state == null){
+                        // transition of a machine without machine frame
+                        break;
+                    }
+                    int from = buffer.getInt();
+                    int to = buffer.getInt();
+                    state.cause = buffer.getInt();
+                    state.status = buffer.getInt();
+                    state.time = buffer.getLong();
+                    state.previousStep = stepName(steps, from);
+                    state.step = stepName(steps, to);
+                    state.transitions++;
+                } else if (type == FSMJournal.TYPE_STATUS){
+                    FSMJournalState state = byId.get(id);
+                    if (state == null){
+                        break;
+                    }
+                    state.step = stepName(stepsById.get(id), buffer.getInt());
+                    state.status = buffer.getInt();
+                    state.time = buffer.getLong();
+                    buffer.position(start + FSMJournal.RECORD_SIZE);
+                } else if (type == FSMJournal.TYPE_MACHINE){
+                    int payload = buffer.getInt();
+                    int frames = (12 + payload + FSMJournal.RECORD_SIZE - 1) / FSMJournal.RECORD_SIZE;
+                    if (payload < 0 || start + (long) frames * FSMJournal.RECORD_SIZE > buffer.limit()){
+                        break;
+                    }
+                    try {
+                        String name = FSMJournal.getString(buffer);
+                        int actual = buffer.getInt();
+                        long time = buffer.getLong();
+                        String[] steps = new String[buffer.getInt()];
+                        for (int i = 0; i < steps.length; i++){
+                            steps[i] = FSMJournal.getString(buffer);
+                        }
+                        FSMJournalState state = states.get(name);
+                        if (state == null){
+                            state = new FSMJournalState(name);
+                            states.put(name, state);
+                        }
+                        state.step = stepName(steps, actual);
+                        state.time = time;
+                        byId.put(id, state);
+                        stepsById.put(id, steps);
+                    } catch (BufferUnderflowException | NegativeArraySizeException | IndexOutOfBoundsException ex){
+                        break;
+                    }
+                    buffer.position(start + frames * FSMJournal.RECORD_SIZE);
+                } else {
+                    break;
+                }
+            }
+            return states;
+        }
+    }
+
+    private static String stepName(String[] steps, int index){
+        if (index >= 0 && index < steps.length){
+            return steps[index];
+        }
+        return index == FSM.END_INDEX ? FSM.END : FSM.ABORT;
+    }
+}
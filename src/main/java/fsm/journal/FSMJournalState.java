@@ -0,0 +1,97 @@
+package fsm.journal;
+
+import fsm.FSM;
+import fsm.checkpoint.FSMCheckpoint;
+import java.util.Collections;
+
+/**
+ * Last known state of a sequence, rebuilt from the journal by FSMJournalReader
+ * @author massimilianoscaletti
+ */
+public final class FSMJournalState {
+    private final String name;
+    String step;
+    String previousStep;
+    int cause;
+    int status = 1;
+    long time;
+    long transitions;
+
+    FSMJournalState(String name) {
+        super();
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Last step reached by the sequence
+     * @return name of the step, "end" or "abort"
+     */
+    public String getStep() {
+        return step;
+    }
+
+    /**
+     * Step left with the last transition
+     * @return name of the step, null if the sequence made no transitions
+     */
+    public String getPreviousStep() {
+        return previousStep;
+    }
+
+    /**
+     * Cause of the last transition
+     * @return position of the condition met or one of the FSMTrace.CAUSE_ constants
+     */
+    public int getCause() {
+        return cause;
+    }
+
+    /**
+     * Status of the sequence (see FSM.getStatus()): the final status if the
+     * run is over, otherwise the status at the last transition
+     * @return the status
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Time of the last record of the sequence
+     * @return System.currentTimeMillis() of the record
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Number of transitions in the journal
+     * @return the transitions
+     */
+    public long getTransitions() {
+        return transitions;
+    }
+
+    /**
+     * Sequence ended or aborted
+     * @return true if the last step is "end" or "abort"
+     */
+    public boolean isOver() {
+        return FSM.END.equals(step) || FSM.ABORT.equals(step);
+    }
+
+    /**
+     * Checkpoint to resume the sequence from its last step (see FSM.resume()).
+     * The time elapsed in the step is counted up to now; the journal doesn't
+     * hold the state of the steps
+     * @return the checkpoint
+     */
+    public FSMCheckpoint toCheckpoint(){
+        long now = System.currentTimeMillis();
+        return new FSMCheckpoint(name, step, status, Math.max(0, now - time), now,
+                Collections.<String, byte[]>emptyMap());
+    }
+}
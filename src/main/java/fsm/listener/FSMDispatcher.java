@@ -0,0 +1,340 @@
+package fsm.listener;
+
+import fsm.FSM;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers the events of the sequences to the listeners on its own thread.
+ * The sequences (see FSM.setDispatcher()) write the events in a ring of
+ * pre-allocated slots, multi producer single consumer, without locks nor
+ * allocations; the dispatcher thread reads them in order and calls the
+ * listeners, so a slow listener never stalls a cycle. When the ring is full
+ * the policy decides if the event is dropped, waited for or coalesced
+ * @author massimilianoscaletti
+ */
+public class FSMDispatcher {
+    private static final int TRANSITION = 0;
+    private static final int STATUS = 1;
+
+    /**
+     * Event slot, reused
+     */
+    private static final class Event {
+        int type;
+        FSM fsm;
+        String from;
+        String to;
+        int cause;
+        int status;
+        long time;
+
+        void set(int type, FSM fsm, String from, String to, int cause, int status, long time){
+            this.type = type;
+            this.fsm = fsm;
+            this.from = from;
+            this.to = to;
+            this.cause = cause;
+            this.status = status;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Sequence sending events to the dispatcher, holds its coalesced event
+     */
+    public static final class Source {
+        private final FSMDispatcher dispatcher;
+        private final FSM fsm;
+        private final Event latest = new Event();
+        private boolean pending = false;
+
+        private Source(FSMDispatcher dispatcher, FSM fsm) {
+            this.dispatcher = dispatcher;
+            this.fsm = fsm;
+        }
+
+        public FSM getFsm() {
+            return fsm;
+        }
+
+        public FSMDispatcher getDispatcher() {
+            return dispatcher;
+        }
+
+        /**
+         * Publishes a transition, called by the sequence thread
+         * @param from step left
+         * @param to next step
+         * @param cause cause of the transition
+         * @param time clock time of the transition
+         */
+        public void transition(String from, String to, int cause, long time){
+            dispatcher.publish(TRANSITION, this, from, to, cause, 0, time);
+        }
+
+        /**
+         * Publishes a status change, called by the sequence thread
+         * @param status the status
+         * @param step actual step
+         */
+        public void status(int status, String step){
+            dispatcher.publish(STATUS, this, null, step, 0, status, 0);
+        }
+    }
+
+    private final FSMListenerPolicy policy;
+    private final int mask;
+    private final Event[] ring;
+    // sequence of every slot: == position free for the producer, == position + 1 published
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;
+    private final CopyOnWriteArrayList<FSMListener> listeners = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<Source> sources = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean coalescedPending = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final Event delivery = new Event();
+    private final Thread consumer;
+    private volatile boolean sleeping = false;
+    private volatile boolean running = true;
+
+    /**
+     * Constructor, starts the dispatcher thread
+     * @param capacity number of events of the ring, rounded up to a power of two
+     * @param policy policy applied when the ring is full
+     */
+    public FSMDispatcher(int capacity, FSMListenerPolicy policy) {
+        super();
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.policy = policy;
+        mask = size - 1;
+        ring = new Event[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++){
+            ring[i] = new Event();
+            sequences.set(i, i);
+        }
+        consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatchLoop();
+            }
+        }, "fsm-dispatcher");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    public FSMListenerPolicy getPolicy() {
+        return policy;
+    }
+
+    public void addListener(FSMListener listener){
+        listeners.add(listener);
+    }
+
+    public void removeListener(FSMListener listener){
+        listeners.remove(listener);
+    }
+
+    /**
+     * Registers a sequence, called by FSM.setDispatcher()
+     * @param fsm the sequence
+     * @return the source to be passed with the events of the sequence
+     */
+    public Source register(FSM fsm){
+        Source source = new Source(this, fsm);
+        sources.add(source);
+        return source;
+    }
+
+    /**
+     * Removes a sequence
+     * @param source source returned by register()
+     */
+    public void unregister(Source source){
+        sources.remove(source);
+    }
+
+    /**
+     * Events dropped with the DROP policy
+     * @return number of events
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Events merged with the COALESCE policy
+     * @return number of events
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * Delivers the events still in the ring, then stops the dispatcher thread
+     */
+    public void shutdown(){
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void publish(int type, Source source, String from, String to, int cause, int status, long time){
+        if (!running){
+            return;
+        }
+        if (policy == FSMListenerPolicy.COALESCE){
+            synchronized (source){
+                // newer events follow the coalesced one until it is delivered
+                if (source.pending){
+                    coalesce(source, type, from, to, cause, status, time);
+                    return;
+                }
+            }
+        }
+        long t;
+        int index;
+        while (true){
+            t = tail.get();
+            index = (int) (t & mask);
+            long available = sequences.get(index) - t;
+            if (available == 0){
+                if (tail.compareAndSet(t, t + 1)){
+                    break;
+                }
+            } else if (available < 0){
+                // ring full
+                if (policy == FSMListenerPolicy.DROP){
+                    dropped.incrementAndGet();
+                    return;
+                }
+                if (policy == FSMListenerPolicy.COALESCE){
+                    synchronized (source){
+                        coalesce(source, type, from, to, cause, status, time);
+                    }
+                    return;
+                }
+                if (!running){
+                    return;
+                }
+                LockSupport.unpark(consumer);
+                LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(50));
+            }
+        }
+        ring[index].set(type, source.fsm, from, to, cause, status, time);
+        sequences.lazySet(index, t + 1);
+        if (sleeping){
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Keeps the latest event of the sequence, to be called holding the source lock
+     */
+    private void coalesce(Source source, int type, String from, String to, int cause, int status, long time){
+        if (source.pending){
+            coalesced.incrementAndGet();
+            // a status change is not hidden by a later transition
+            if (source.latest.type == STATUS && type == TRANSITION){
+                return;
+            }
+        }
+        source.latest.set(type, source.fsm, from, to, cause, status, time);
+        source.pending = true;
+        coalescedPending.set(true);
+        LockSupport.unpark(consumer);
+    }
+
+    private void dispatchLoop(){
+        while (true){
+            int delivered = drain();
+            if (coalescedPending.getAndSet(false)){
+                delivered += deliverCoalesced();
+            }
+            if (delivered > 0){
+                continue;
+            }
+            if (!running){
+                // last check of the events published before the shutdown
+                if (drain() == 0){
+                    return;
+                }
+                continue;
+            }
+            sleeping = true;
+            if (sequences.get((int) (head & mask)) != head + 1 && !coalescedPending.get()){
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+            }
+            sleeping = false;
+        }
+    }
+
+    /**
+     * Delivers the events in the ring
+     * @return number of events delivered
+     */
+    private int drain(){
+        int count = 0;
+        while (true){
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1){
+                return count;
+            }
+            Event e = ring[index];
+            delivery.set(e.type, e.fsm, e.from, e.to, e.cause, e.status, e.time);
+            e.fsm = null;
+            sequences.lazySet(index, head + mask + 1);
+            head++;
+            deliver(delivery);
+            count++;
+        }
+    }
+
+    /**
+     * Delivers the coalesced events of the sequences
+     * @return number of events delivered
+     */
+    private int deliverCoalesced(){
+        int count = 0;
+        for (Source source : sources){
+            synchronized (source){
+                if (!source.pending){
+                    continue;
+                }
+                Event e = source.latest;
+                delivery.set(e.type, e.fsm, e.from, e.to, e.cause, e.status, e.time);
+                source.pending = false;
+            }
+            deliver(delivery);
+            count++;
+        }
+        return count;
+    }
+
+    private void deliver(Event e){
+        for (FSMListener listener : listeners){
+            try {
+                if (e.type == TRANSITION){
+                    listener.transition(e.fsm, e.from, e.to, e.cause, e.time);
+                } else {
+                    listener.status(e.fsm, e.status, e.to);
+                }
+            } catch (RuntimeException ex){
+                Logger.getLogger(FSMDispatcher.class.getName()).log(Level.SEVERE, "listener failed", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package fsm.listener;
+
+import fsm.FSM;
+
+/**
+ * Listener of the transitions and of the status changes of the sequences,
+ * called on the thread of a FSMDispatcher, never on the sequence thread
+ * @author massimilianoscaletti
+ */
+public interface FSMListener {
+
+    /**
+     * The sequence jumped to another step
+     * @param fsm the sequence
+     * @param from step left
+     * @param to next step, "end" or "abort"
+     * @param cause position of the condition met or one of the FSMTrace.CAUSE_ constants
+     * @param time clock time of the transition in nanoseconds (see FSM.getClock())
+     */
+    void transition(FSM fsm, String from, String to, int cause, long time);
+
+    /**
+     * The sequence started or is over
+     * @param fsm the sequence
+     * @param status the status (see FSM.statusString())
+     * @param step actual step of the sequence
+     */
+    void status(FSM fsm, int status, String step);
+}
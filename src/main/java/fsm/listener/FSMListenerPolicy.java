@@ -0,0 +1,16 @@
+package fsm.listener;
+
+/**
+ * What the sequences do when the listeners are slower than the events
+ * and the ring of the FSMDispatcher is full
+ * @author massimilianoscaletti
+ */
+public enum FSMListenerPolicy {
+    /** the event is discarded */
+    DROP,
+    /** the sequence waits for a free slot: the listeners can slow down the sequences */
+    BLOCK,
+    /** the events of the sequence are merged in the latest one, delivered
+     *  as soon as the listeners catch up */
+    COALESCE
+}
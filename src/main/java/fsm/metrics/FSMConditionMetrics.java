@@ -0,0 +1,50 @@
+package fsm.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime metrics of an advance condition
+ * @author massimilianoscaletti
+ */
+public class FSMConditionMetrics {
+    private final String name;
+    private final FSMLatencyHistogram compare = new FSMLatencyHistogram();
+    private final LongAdder hits = new LongAdder();
+
+    public FSMConditionMetrics(String name) {
+        super();
+        this.name = name;
+    }
+
+    void record(long nanos, boolean hit){
+        compare.record(nanos);
+        if (hit){
+            hits.increment();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Latency of isCompare()
+     * @return the histogram of the latency
+     */
+    public FSMLatencyHistogram getCompare() {
+        return compare;
+    }
+
+    /**
+     * Number of times the condition has been met
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    void reset(){
+        compare.reset();
+        hits.reset();
+    }
+}
@@ -0,0 +1,111 @@
+package fsm.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed power of two buckets.
+ * Bucket i counts the values between 2^(i-1) and 2^i - 1, so recording is a
+ * couple of additions on striped counters and never allocates
+ * @author massimilianoscaletti
+ */
+public class FSMLatencyHistogram {
+    public static final int BUCKETS = 64;
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public FSMLatencyHistogram() {
+        super();
+        for (int i = 0; i < BUCKETS; i++){
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a value
+     * @param value the value (nanoseconds), negative values are recorded as 0
+     */
+    public void record(long value){
+        if (value < 0){
+            value = 0;
+        }
+        buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Number of values recorded
+     * @return the count
+     */
+    public long getCount(){
+        return count.sum();
+    }
+
+    /**
+     * Sum of the values recorded
+     * @return the sum
+     */
+    public long getTotal(){
+        return total.sum();
+    }
+
+    /**
+     * Mean of the values recorded
+     * @return the mean, 0 if no value is recorded
+     */
+    public double getMean(){
+        long c = count.sum();
+        return c == 0 ? 0 : (double) total.sum() / c;
+    }
+
+    /**
+     * Maximum value recorded
+     * @return the maximum
+     */
+    public long getMax(){
+        return max.get();
+    }
+
+    /**
+     * Approximated percentile: upper bound of the bucket containing the percentile
+     * @param percentile percentile between 0 and 100
+     * @return the upper bound of the bucket
+     */
+    public long getPercentile(double percentile){
+        long c = count.sum();
+        if (c == 0){
+            return 0;
+        }
+        long threshold = (long) Math.ceil(c * percentile / 100.0);
+        long sum = 0;
+        for (int i = 0; i < BUCKETS; i++){
+            sum += buckets[i].sum();
+            if (sum >= threshold){
+                return i == 0 ? 0 : Math.min((1L << i) - 1, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Clears the histogram
+     */
+    public void reset(){
+        for (LongAdder b : buckets){
+            b.reset();
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " meanNs=" + Math.round(getMean()) +
+                " p99Ns=" + getPercentile(99) + " maxNs=" + getMax();
+    }
+}
@@ -0,0 +1,217 @@
+package fsm.metrics;
+
+import fsm.components.FSMStep;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Runtime metrics of a sequence, exposed as JMX MBean
+ * (fsm:type=FSM,name=<i>name of the sequence</i>).
+ * Counters are striped (LongAdder), so the sequence thread never contends
+ * with the JMX readers
+ * @author massimilianoscaletti
+ */
+public class FSMMetrics implements FSMMetricsMBean {
+    private final String name;
+    private final LongAdder cycles = new LongAdder();
+    private final FSMLatencyHistogram jitter = new FSMLatencyHistogram();
+    private final LongAdder transitions = new LongAdder();
+    // metrics of the steps by name, kept when the step table is rebuilt
+    private final ConcurrentHashMap<String, FSMStepMetrics> stepsByName = new ConcurrentHashMap<>();
+    private volatile FSMStepMetrics[] steps = new FSMStepMetrics[0];
+    private ObjectName objectName;
+
+    public FSMMetrics(String name) {
+        super();
+        this.name = name;
+    }
+
+    /**
+     * Installs the probes on the steps of the sequence
+     * @param table step table of the sequence
+     */
+    public void install(FSMStep[] table){
+        FSMStepMetrics[] s = new FSMStepMetrics[table.length];
+        for (int i = 0; i < table.length; i++){
+            s[i] = stepsByName.computeIfAbsent(table[i].getName(), FSMStepMetrics::new);
+            table[i].setProbe(s[i]);
+        }
+        steps = s;
+    }
+
+    /**
+     * Removes the probes from the steps of the sequence
+     * @param table step table of the sequence
+     */
+    public void uninstall(FSMStep[] table){
+        for (FSMStep step : table){
+            step.setProbe(null);
+        }
+    }
+
+    /**
+     * Called at the start of every cycle
+     */
+    public void cycle(){
+        cycles.increment();
+    }
+
+    /**
+     * Records the difference between the planned and the actual start of a cycle
+     * @param nanos jitter in nanoseconds
+     */
+    public void jitter(long nanos){
+        jitter.record(nanos);
+    }
+
+    /**
+     * Records a transition
+     * @param from index of the step left
+     * @param to name of the next step
+     * @param nanos time spent in the step left
+     */
+    public void transition(int from, String to, long nanos){
+        transitions.increment();
+        FSMStepMetrics[] s = steps;
+        if (from >= 0 && from < s.length){
+            s[from].leave(to, nanos);
+        }
+    }
+
+    /**
+     * Metrics of a step
+     * @param stepName name of the step
+     * @return the metrics, null if the step is not in the sequence
+     */
+    public FSMStepMetrics getStep(String stepName){
+        return stepsByName.get(stepName);
+    }
+
+    /**
+     * Registers the MBean on the platform MBean server
+     */
+    public synchronized void register(){
+        if (objectName != null){
+            return;
+        }
+        try {
+            ObjectName on = new ObjectName("fsm:type=FSM,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, on);
+            objectName = on;
+        } catch (JMException ex) {
+            // i.e. another sequence with the same name: metrics are still collected
+            Logger.getLogger(FSMMetrics.class.getName()).log(Level.WARNING, "[" + name + "] " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Removes the MBean from the platform MBean server
+     */
+    public synchronized void unregister(){
+        if (objectName == null){
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException ex) {
+            Logger.getLogger(FSMMetrics.class.getName()).log(Level.WARNING, "[" + name + "] " + ex.getMessage());
+        }
+        objectName = null;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCycles() {
+        return cycles.sum();
+    }
+
+    @Override
+    public double getCycleJitterMean() {
+        return jitter.getMean();
+    }
+
+    @Override
+    public long getCycleJitterP99() {
+        return jitter.getPercentile(99);
+    }
+
+    @Override
+    public long getCycleJitterMax() {
+        return jitter.getMax();
+    }
+
+    @Override
+    public long getTransitions() {
+        return transitions.sum();
+    }
+
+    @Override
+    public long getTimeOuts() {
+        long sum = 0;
+        for (FSMStepMetrics s : stepsByName.values()){
+            sum += s.getTimeOuts();
+        }
+        return sum;
+    }
+
+    @Override
+    public String[] getStepReport() {
+        List<String> report = new ArrayList<>();
+        for (FSMStepMetrics s : stepsByName.values()){
+            report.add(s.getName() + ": runCode " + s.getRunCode() +
+                    " timeInStepNs=" + s.getTimeInStep() + " exits=" + s.getExits() +
+                    " timeOuts=" + s.getTimeOuts());
+        }
+        return report.toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getConditionReport() {
+        List<String> report = new ArrayList<>();
+        for (FSMStepMetrics s : stepsByName.values()){
+            for (FSMConditionMetrics c : s.getConditions()){
+                if (c.getName().isEmpty()){
+                    continue;
+                }
+                report.add(s.getName() + "." + c.getName() + ": compare " + c.getCompare() +
+                        " hits=" + c.getHits());
+            }
+        }
+        return report.toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getTransitionReport() {
+        List<String> report = new ArrayList<>();
+        for (FSMStepMetrics s : stepsByName.values()){
+            for (Map.Entry<String, LongAdder> t : s.transitions().entrySet()){
+                report.add(s.getName() + " -> " + t.getKey() + ": " + t.getValue().sum());
+            }
+        }
+        return report.toArray(new String[0]);
+    }
+
+    @Override
+    public void reset() {
+        cycles.reset();
+        jitter.reset();
+        transitions.reset();
+        for (FSMStepMetrics s : stepsByName.values()){
+            s.reset();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package fsm.metrics;
+
+/**
+ * JMX interface of the runtime metrics of a sequence.
+ * Times are in nanoseconds
+ * @author massimilianoscaletti
+ */
+public interface FSMMetricsMBean {
+
+    String getName();
+
+    long getCycles();
+
+    double getCycleJitterMean();
+
+    long getCycleJitterP99();
+
+    long getCycleJitterMax();
+
+    long getTransitions();
+
+    long getTimeOuts();
+
+    /**
+     * One line per step: run code latency, time in step, exits and timeouts
+     * @return the report of the steps
+     */
+    String[] getStepReport();
+
+    /**
+     * One line per advance condition: compare latency and hits
+     * @return the report of the conditions
+     */
+    String[] getConditionReport();
+
+    /**
+     * One line per couple of steps: number of transitions
+     * @return the report of the transitions
+     */
+    String[] getTransitionReport();
+
+    /**
+     * Clears all the metrics
+     */
+    void reset();
+}
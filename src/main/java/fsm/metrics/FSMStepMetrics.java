@@ -0,0 +1,158 @@
+package fsm.metrics;
+
+import fsm.components.FSMCondition;
+import fsm.components.FSMStepProbe;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime metrics of a step, installed on the step as FSMStepProbe
+ * @author massimilianoscaletti
+ */
+public class FSMStepMetrics implements FSMStepProbe {
+    private final String name;
+    private final FSMLatencyHistogram runCode = new FSMLatencyHistogram();
+    private final LongAdder timeInStep = new LongAdder();
+    private final LongAdder entries = new LongAdder();
+    private final LongAdder timeOuts = new LongAdder();
+    // transitions from this step by name of the target step
+    private final ConcurrentHashMap<String, LongAdder> transitions = new ConcurrentHashMap<>();
+    private volatile FSMConditionMetrics[] conditions = new FSMConditionMetrics[0];
+
+    public FSMStepMetrics(String name) {
+        super();
+        this.name = name;
+    }
+
+    @Override
+    public void runCode(long nanos) {
+        runCode.record(nanos);
+    }
+
+    @Override
+    public void compare(int index, FSMCondition condition, long nanos, boolean hit) {
+        FSMConditionMetrics[] c = conditions;
+        if (index >= c.length || !c[index].getName().equals(condition.getName())){
+            c = condition(index, condition);
+        }
+        c[index].record(nanos, hit);
+    }
+
+    @Override
+    public void timeOut() {
+        timeOuts.increment();
+    }
+
+    /**
+     * Called when the sequence leaves the step
+     * @param target name of the next step
+     * @param nanos time spent in the step in nanoseconds
+     */
+    void leave(String target, long nanos){
+        timeInStep.add(nanos);
+        entries.increment();
+        LongAdder counter = transitions.get(target);
+        if (counter == null){
+            counter = transitions.computeIfAbsent(target, k -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    /**
+     * Slow path of compare(): the conditions of the step are changed
+     */
+    private synchronized FSMConditionMetrics[] condition(int index, FSMCondition condition){
+        FSMConditionMetrics[] c = conditions;
+        if (index >= c.length){
+            c = Arrays.copyOf(c, index + 1);
+        } else {
+            c = c.clone();
+        }
+        for (int i = 0; i < c.length; i++){
+            if (c[i] == null){
+                c[i] = new FSMConditionMetrics("");
+            }
+        }
+        // metrics of a condition moved to another position are kept
+        FSMConditionMetrics found = null;
+        for (FSMConditionMetrics m : c){
+            if (m.getName().equals(condition.getName())){
+                found = m;
+            }
+        }
+        c[index] = found != null ? found : new FSMConditionMetrics(condition.getName());
+        conditions = c;
+        return c;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Latency of stepRunCode()
+     * @return the histogram of the latency
+     */
+    public FSMLatencyHistogram getRunCode() {
+        return runCode;
+    }
+
+    /**
+     * Total time spent in the step
+     * @return the time in nanoseconds
+     */
+    public long getTimeInStep() {
+        return timeInStep.sum();
+    }
+
+    /**
+     * Number of times the sequence left the step
+     * @return the number of exits
+     */
+    public long getExits() {
+        return entries.sum();
+    }
+
+    /**
+     * Number of timeouts of the step
+     * @return the number of timeouts
+     */
+    public long getTimeOuts() {
+        return timeOuts.sum();
+    }
+
+    /**
+     * Number of transitions to another step
+     * @param target name of the target step
+     * @return the number of transitions
+     */
+    public long getTransitions(String target) {
+        LongAdder counter = transitions.get(target);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Metrics of the advance conditions of the step
+     * @return the metrics, in evaluation order
+     */
+    public FSMConditionMetrics[] getConditions() {
+        FSMConditionMetrics[] c = conditions;
+        return Arrays.copyOf(c, c.length);
+    }
+
+    ConcurrentHashMap<String, LongAdder> transitions(){
+        return transitions;
+    }
+
+    void reset(){
+        runCode.reset();
+        timeInStep.reset();
+        entries.reset();
+        timeOuts.reset();
+        transitions.clear();
+        for (FSMConditionMetrics c : conditions){
+            c.reset();
+        }
+    }
+}
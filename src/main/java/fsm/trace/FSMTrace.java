@@ -0,0 +1,215 @@
+package fsm.trace;
+
+import fsm.components.FSMClock;
+import fsm.components.FSMStep;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ring buffer of the last transitions of a sequence, for post-mortem analysis.
+ * Entries are stored in primitive arrays, so recording a transition never allocates.
+ * There is a single writer (the sequence thread); readers copy the buffer without
+ * locks and discard the entries overwritten while copying
+ * @author massimilianoscaletti
+ */
+public class FSMTrace {
+    /** file signature "FSMT" */
+    public static final int MAGIC = 0x46534D54;
+    public static final short VERSION = 1;
+    /** transition caused by the step timeout */
+    public static final int CAUSE_TIMEOUT = FSMStep.CAUSE_TIMEOUT;
+    /** actual step changed by threadOverallChecks() */
+    public static final int CAUSE_OVERRIDE = -2;
+    /** abort for a wrong step name or no steps in the sequence */
+    public static final int CAUSE_ERROR = -3;
+
+    private final int mask;
+    private final int[] from;
+    private final int[] to;
+    private final int[] cause;
+    private final long[] time;
+    private final AtomicLong position = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param capacity number of transitions kept, rounded up to a power of two
+     */
+    public FSMTrace(int capacity) {
+        super();
+        int size = Integer.highestOneBit(Math.max(capacity, 1) - 1) << 1;
+        if (size <= 0){
+            size = 1;
+        }
+        mask = size - 1;
+        from = new int[size];
+        to = new int[size];
+        cause = new int[size];
+        time = new long[size];
+    }
+
+    /**
+     * Records a transition. To be called only by the sequence thread
+     * @param fromStep index of the step left
+     * @param toStep index of the next step
+     * @param transitionCause position of the condition met, or one of the CAUSE_ constants
+     * @param nanos time of the transition from the clock of the sequence, in nanoseconds
+     */
+    public void record(int fromStep, int toStep, int transitionCause, long nanos){
+        long p = position.get();
+        int i = (int) (p & mask);
+        from[i] = fromStep;
+        to[i] = toStep;
+        cause[i] = transitionCause;
+        time[i] = nanos;
+        // publish the entry
+        position.lazySet(p + 1);
+    }
+
+    /**
+     * Removes all the entries
+     */
+    public void clear(){
+        position.set(0);
+    }
+
+    /**
+     * Capacity of the ring buffer
+     * @return the number of entries kept
+     */
+    public int getCapacity(){
+        return mask + 1;
+    }
+
+    /**
+     * Total number of transitions recorded since the last clear
+     * @return number of transitions
+     */
+    public long getRecorded(){
+        return position.get();
+    }
+
+    /**
+     * Copies the entries in the buffer, the oldest first.
+     * The oldest slot could be under rewrite by the sequence thread, so at most
+     * capacity - 1 entries are returned
+     * @return the snapshot
+     */
+    public Snapshot snapshot(){
+        long end = position.get();
+        long begin = Math.max(0, end - getCapacity());
+        int n = (int) (end - begin);
+        int[] f = new int[n];
+        int[] t = new int[n];
+        int[] c = new int[n];
+        long[] tm = new long[n];
+        for (int k = 0; k < n; k++){
+            int i = (int) ((begin + k) & mask);
+            f[k] = from[i];
+            t[k] = to[i];
+            c[k] = cause[i];
+            tm[k] = time[i];
+        }
+        // entries overwritten by the writer while copying are discarded,
+        // the slot of the entry being written is not published yet
+        long overwritten = position.get() - getCapacity() - begin + 1;
+        int skip = (int) Math.max(0, Math.min(n, overwritten));
+        return new Snapshot(f, t, c, tm, skip);
+    }
+
+    /**
+     * Writes the trace to a compact binary file (see FSMTraceDecoder)
+     * @param file the file, overwritten if it exists
+     * @param fsmName name of the sequence
+     * @param stepNames names of the steps by index
+     * @param conditionNames names of the conditions of every step, in evaluation order
+     * @throws IOException on write errors
+     */
+    public void dump(Path file, String fsmName, String[] stepNames, String[][] conditionNames) throws IOException {
+        dump(file, fsmName, stepNames, conditionNames, FSMClock.SYSTEM);
+    }
+
+    /**
+     * Writes the trace to a compact binary file (see FSMTraceDecoder)
+     * @param file the file, overwritten if it exists
+     * @param fsmName name of the sequence
+     * @param stepNames names of the steps by index
+     * @param conditionNames names of the conditions of every step, in evaluation order
+     * @param clock clock that recorded the entries, e.g. a FSMVirtualClock
+     * @throws IOException on write errors
+     */
+    public void dump(Path file, String fsmName, String[] stepNames, String[][] conditionNames, FSMClock clock)
+            throws IOException {
+        Snapshot s = snapshot();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeUTF(fsmName);
+            // reference to relate the nanoTime of the entries to the wall clock
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(clock.nanoTime());
+            out.writeInt(stepNames.length);
+            for (int i = 0; i < stepNames.length; i++){
+                out.writeUTF(stepNames[i]);
+                String[] conditions = conditionNames[i];
+                out.writeShort(conditions.length);
+                for (String c : conditions){
+                    out.writeUTF(c);
+                }
+            }
+            out.writeInt(s.size());
+            for (int k = 0; k < s.size(); k++){
+                out.writeInt(s.from(k));
+                out.writeInt(s.to(k));
+                out.writeInt(s.cause(k));
+                out.writeLong(s.time(k));
+            }
+        }
+    }
+
+    /**
+     * Copy of the entries of the trace
+     */
+    public static class Snapshot {
+        private final int[] from;
+        private final int[] to;
+        private final int[] cause;
+        private final long[] time;
+        private final int offset;
+
+        Snapshot(int[] from, int[] to, int[] cause, long[] time, int offset) {
+            this.from = from;
+            this.to = to;
+            this.cause = cause;
+            this.time = time;
+            this.offset = offset;
+        }
+
+        public int size(){
+            return from.length - offset;
+        }
+
+        public int from(int k){
+            return from[offset + k];
+        }
+
+        public int to(int k){
+            return to[offset + k];
+        }
+
+        public int cause(int k){
+            return cause[offset + k];
+        }
+
+        public long time(int k){
+            return time[offset + k];
+        }
+    }
+}
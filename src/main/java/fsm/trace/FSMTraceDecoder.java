@@ -0,0 +1,107 @@
+package fsm.trace;
+
+import fsm.FSM;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Decoder of the trace files written by FSMTrace.dump().
+ * Usage: java fsm.trace.FSMTraceDecoder file.fsmtrace
+ * @author massimilianoscaletti
+ */
+public final class FSMTraceDecoder {
+
+    private FSMTraceDecoder() {
+        super();
+    }
+
+    /**
+     * Decodes a trace file in readable text, one line per transition
+     * @param file the trace file
+     * @return the text of the trace
+     * @throws IOException if the file cannot be read or is not a trace file
+     */
+    public static String decode(Path file) throws IOException {
+        try (InputStream is = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+            if (in.readInt() != FSMTrace.MAGIC){
+                throw new IOException("Not a FSM trace file: " + file);
+            }
+            short version = in.readShort();
+            if (version != FSMTrace.VERSION){
+                throw new IOException("Unsupported FSM trace version " + version);
+            }
+            String fsmName = in.readUTF();
+            long dumpMillis = in.readLong();
+            long dumpNanos = in.readLong();
+            int steps = in.readInt();
+            String[] stepNames = new String[steps];
+            String[][] conditionNames = new String[steps][];
+            for (int i = 0; i < steps; i++){
+                stepNames[i] = in.readUTF();
+                conditionNames[i] = new String[in.readShort()];
+                for (int c = 0; c < conditionNames[i].length; c++){
+                    conditionNames[i][c] = in.readUTF();
+                }
+            }
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+            StringBuilder sb = new StringBuilder();
+            sb.append("FSM ").append(fsmName).append(" trace dumped at ")
+                    .append(format.format(new Date(dumpMillis))).append('\n');
+            int entries = in.readInt();
+            for (int k = 0; k < entries; k++){
+                int from = in.readInt();
+                int to = in.readInt();
+                int cause = in.readInt();
+                long nanos = in.readLong();
+                long millis = dumpMillis - (dumpNanos - nanos) / 1000000L;
+                sb.append(format.format(new Date(millis))).append("  ")
+                        .append(name(stepNames, from)).append(" -> ").append(name(stepNames, to))
+                        .append("  [").append(cause(stepNames, conditionNames, from, cause)).append("]\n");
+            }
+            return sb.toString();
+        }
+    }
+
+    private static String name(String[] stepNames, int index){
+        if (index == FSM.END_INDEX){
+            return FSM.END;
+        }
+        if (index == FSM.ABORT_INDEX){
+            return FSM.ABORT;
+        }
+        if (index >= 0 && index < stepNames.length){
+            return stepNames[index];
+        }
+        return "#" + index;
+    }
+
+    private static String cause(String[] stepNames, String[][] conditionNames, int from, int cause){
+        switch (cause){
+            case FSMTrace.CAUSE_TIMEOUT: return "timeout";
+            case FSMTrace.CAUSE_OVERRIDE: return "threadOverallChecks";
+            case FSMTrace.CAUSE_ERROR: return "error";
+        }
+        if (from >= 0 && from < stepNames.length && cause >= 0 && cause < conditionNames[from].length){
+            return "condition " + conditionNames[from][cause];
+        }
+        return "condition #" + cause;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0){
+            System.err.println("Usage: FSMTraceDecoder <trace file>...");
+            System.exit(1);
+        }
+        for (String arg : args){
+            System.out.print(decode(Paths.get(arg)));
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package fsm;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread factories for the sequence threads.
+ * Java 21 version of the class, packaged in META-INF/versions/21 of the multi-release jar
+ * @author massimilianoscaletti
+ */
+public final class FSMThreads {
+    private static final ThreadFactory VIRTUAL = Thread.ofVirtual().name("fsm-", 0).factory();
+
+    private FSMThreads() {
+        super();
+    }
+
+    /**
+     * Factory of platform threads, same as FSM.start() without factory
+     * @return the ThreadFactory
+     */
+    public static ThreadFactory platform(){
+        return Thread.ofPlatform().factory();
+    }
+
+    /**
+     * Factory of virtual threads
+     * @return the ThreadFactory
+     */
+    public static ThreadFactory virtual(){
+        return VIRTUAL;
+    }
+
+    /**
+     * Checks if the JVM supports virtual threads
+     * @return always true on Java 21+
+     */
+    public static boolean isVirtualSupported(){
+        return true;
+    }
+}
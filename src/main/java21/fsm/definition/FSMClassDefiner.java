@@ -0,0 +1,30 @@
+package fsm.definition;
+
+import java.lang.invoke.MethodHandles;
+
+/**
+ * Loads the classes generated by FSMDispatchCompiler.
+ * Java 21 version of the class, packaged in META-INF/versions/21 of the multi-release jar:
+ * the classes are defined as hidden classes, unloaded with their definition
+ * @author massimilianoscaletti
+ */
+final class FSMClassDefiner {
+
+    private FSMClassDefiner() {
+        super();
+    }
+
+    /**
+     * Defines a generated class
+     * @param name binary name of the class, in the package of this class
+     * @param bytes the class file
+     * @return the class
+     */
+    static Class<?> define(String name, byte[] bytes){
+        try {
+            return MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+        } catch (IllegalAccessException ex){
+            throw new IllegalStateException(ex);
+        }
+    }
+}
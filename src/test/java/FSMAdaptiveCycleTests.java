@@ -0,0 +1,87 @@
+import fsm.FSM;
+import fsm.FSMVirtualClock;
+import fsm.definition.FSMDefinition;
+import fsm.definition.FSMInstance;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class FSMAdaptiveCycleTests {
+
+    /**
+     * context: cycles, go flag
+     */
+    private final FSMDefinition<long[]> polling = FSMDefinition.<long[]>builder("wait")
+            .stepsDelay(10)
+            .step("wait").run(c -> c[0]++).when("go", c -> c[1] != 0, "work").done()
+            .step("work").run(c -> c[0]++).when("done", c -> c[1] > 1, FSM.END).done()
+            .build();
+
+    @Test
+    void fsmAdaptiveBackOff(){
+        System.out.println("[TEST] fsmAdaptiveBackOff");
+        FSMVirtualClock clock = new FSMVirtualClock();
+        long[] context = new long[2];
+        FSMInstance<long[]> fsm = polling.newInstance("polling", context);
+        fsm.setAdaptiveCycle(5, 1000);
+        fsm.start(clock);
+        clock.runFor(1, TimeUnit.HOURS);
+        Assertions.assertEquals(1000, fsm.getEffectiveCycleTime());
+        // 360000 cycles at the base rate, about one per second slowed down
+        Assertions.assertTrue(context[0] > 3600 && context[0] < 3700, "cycles " + context[0]);
+        // a wake brings back the base rate, the transition keeps it
+        context[1] = 1;
+        fsm.wake();
+        clock.runFor(20, TimeUnit.MILLISECONDS);
+        Assertions.assertEquals("work", fsm.getActualStep());
+        Assertions.assertEquals(10, fsm.getEffectiveCycleTime());
+        // slows down again in the new step
+        long before = context[0];
+        clock.runFor(1, TimeUnit.MINUTES);
+        Assertions.assertEquals(1000, fsm.getEffectiveCycleTime());
+        Assertions.assertTrue(context[0] - before < 100, "cycles " + (context[0] - before));
+        context[1] = 2;
+        fsm.wake();
+        clock.run();
+        Assertions.assertEquals(2, fsm.getStatus());
+    }
+
+    @Test
+    void fsmAdaptiveStepCeiling(){
+        System.out.println("[TEST] fsmAdaptiveStepCeiling");
+        FSMVirtualClock clock = new FSMVirtualClock();
+        long[] context = new long[2];
+        FSMInstance<long[]> fsm = polling.newInstance("ceiling", context);
+        fsm.setAdaptiveCycle(5, 1000);
+        fsm.getStep("wait").setMaxCycleTime(100);
+        fsm.start(clock);
+        clock.runFor(1, TimeUnit.MINUTES);
+        Assertions.assertEquals(100, fsm.getEffectiveCycleTime());
+        fsm.getStep("wait").setMaxCycleTime(0);
+        clock.runFor(1, TimeUnit.SECONDS);
+        Assertions.assertEquals(10, fsm.getEffectiveCycleTime());
+        fsm.stop();
+        clock.run();
+    }
+
+    @Test
+    void fsmAdaptiveTimeOut(){
+        System.out.println("[TEST] fsmAdaptiveTimeOut");
+        FSMVirtualClock clock = new FSMVirtualClock();
+        long[] context = new long[1];
+        FSMInstance<long[]> fsm = FSMDefinition.<long[]>builder("wait")
+                .stepsDelay(10)
+                .step("wait").run(c -> c[0]++).timeOut(10000, FSM.END).done()
+                .build()
+                .newInstance("timeout", context);
+        fsm.setAdaptiveCycle(2, 60000);
+        fsm.start(clock);
+        clock.run();
+        Assertions.assertEquals(2, fsm.getStatus());
+        // the slow down doesn't delay the timeout
+        long time = clock.getTime(TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(time >= 10000 && time <= 10020, "time " + time);
+        Assertions.assertTrue(context[0] < 30, "cycles " + context[0]);
+    }
+}
@@ -0,0 +1,70 @@
+import fsm.FSM;
+import fsm.batch.FSMBatch;
+import fsm.batch.FSMBatchDefinition;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class FSMBatchTests {
+
+    @Test
+    void fsmBatchRun(){
+        System.out.println("[TEST] fsmBatchRun");
+        int instances = 1_000_000;
+        int[] counter = new int[instances];
+        FSMBatchDefinition definition = new FSMBatchDefinition("wait");
+        int wait = definition.addStep("wait", i -> counter[i]++);
+        int done = definition.addStep("done", null);
+        // even instances go on after 10 ms, odd instances wait the timeout
+        definition.addAdvanceCondition(wait, (i, elapsed) -> i % 2 == 0 && elapsed >= 10, "done");
+        definition.setTimeOut(wait, 20, FSM.ABORT);
+        definition.addAdvanceCondition(done, (i, elapsed) -> true, FSM.END);
+
+        FSMBatch batch = new FSMBatch(definition, instances);
+        long time = 1000;
+        batch.start(time);
+        Assertions.assertEquals(instances, batch.tick(time));
+        time += 10;
+        Assertions.assertEquals(instances, batch.tick(time));
+        Assertions.assertEquals("done", batch.getStepName(0));
+        Assertions.assertEquals("wait", batch.getStepName(1));
+        Assertions.assertEquals(instances / 2, batch.tick(time));
+        Assertions.assertEquals(FSMBatch.ENDED, batch.getStatus(0));
+        time += 11;
+        Assertions.assertEquals(0, batch.tick(time));
+        Assertions.assertEquals(FSMBatch.ABORTED, batch.getStatus(1));
+        Assertions.assertEquals(2, counter[0]);
+        Assertions.assertEquals(4, counter[1]);
+    }
+
+    @Test
+    void fsmBatchLongRun(){
+        System.out.println("[TEST] fsmBatchLongRun");
+        FSMBatchDefinition definition = new FSMBatchDefinition("first");
+        int first = definition.addStep("first", null);
+        int second = definition.addStep("second", null);
+        definition.addAdvanceCondition(first, (i, elapsed) -> true, "second");
+        // 40 days in the second step: more than an int of milliseconds
+        long days = 24L * 3600 * 1000;
+        definition.setTimeOut(second, 40 * days, FSM.END);
+        FSMBatch batch = new FSMBatch(definition, 10);
+        long time = 0;
+        batch.start(time);
+        batch.tick(time);
+        Assertions.assertEquals("second", batch.getStepName(0));
+        time += 30 * days;
+        Assertions.assertEquals(10, batch.tick(time));
+        Assertions.assertEquals(30 * days, batch.getElapsed(0));
+        time += 10 * days + 1;
+        Assertions.assertEquals(0, batch.tick(time));
+        Assertions.assertEquals(FSMBatch.ENDED, batch.getStatus(0));
+    }
+
+    @Test
+    void fsmBatchWrongStepName(){
+        System.out.println("[TEST] fsmBatchWrongStepName");
+        FSMBatchDefinition definition = new FSMBatchDefinition("first");
+        int first = definition.addStep("first", null);
+        definition.addAdvanceCondition(first, (i, elapsed) -> true, "missing");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new FSMBatch(definition, 10));
+    }
+}
@@ -0,0 +1,187 @@
+import fsm.FSM;
+import fsm.FSMSharedScheduler;
+import fsm.checkpoint.FSMCheckpoint;
+import fsm.checkpoint.FSMCheckpointFile;
+import fsm.components.FSMCondition;
+import fsm.components.FSMStep;
+import fsm.definition.FSMDefinition;
+import fsm.definition.FSMInstance;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class FSMCheckpointTests {
+    volatile boolean threadEndRun;
+    int setupCalls;
+    long delaymemory;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * counts its cycles and saves the count in the checkpoints
+     */
+    static class CountingStep extends FSMStep {
+        volatile int count;
+
+        CountingStep(String name) {
+            super(name);
+        }
+
+        @Override
+        public void stepRunCode() {
+            count++;
+        }
+
+        @Override
+        public void resetCode() {
+        }
+
+        @Override
+        public byte[] saveState() {
+            return ByteBuffer.allocate(4).putInt(count).array();
+        }
+
+        @Override
+        public void restoreState(byte[] state) {
+            count = ByteBuffer.wrap(state).getInt();
+        }
+    }
+
+    private FSM countingFsm(CountingStep counting){
+        FSM fsm = new FSM("counting", "count", 5) {
+            @Override
+            protected void threadSetup() {
+                setupCalls++;
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+                threadEndRun = true;
+            }
+        };
+        counting.setTimeOut(400);
+        counting.setTimeOutStep(FSM.END);
+        counting.addAdvanceCondition(new FSMCondition("never", FSM.ABORT) {
+            @Override
+            protected boolean compare() {
+                return false;
+            }
+        });
+        fsm.addStep(counting);
+        return fsm;
+    }
+
+    private void waitEnd(){
+        delaymemory = System.currentTimeMillis();
+        while (!threadEndRun){
+            if (System.currentTimeMillis() - delaymemory > 2000){
+                break;
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Test
+    void fsmCheckpointResume() throws IOException, InterruptedException {
+        System.out.println("[TEST] fsmCheckpointResume");
+        setupCalls = 0;
+        CountingStep counting = new CountingStep("count");
+        FSM fsm = countingFsm(counting);
+        fsm.start();
+        Thread.sleep(250);
+        FSMCheckpoint checkpoint = fsm.checkpoint();
+        fsm.stop();
+        Assertions.assertEquals("count", checkpoint.getStep());
+        Assertions.assertEquals(1, checkpoint.getStatus());
+        Assertions.assertTrue(checkpoint.getElapsedTime() >= 200);
+        Path file = dir.resolve("counting.fsmc");
+        checkpoint.write(file);
+        FSMCheckpoint read = FSMCheckpoint.read(file);
+
+        // a new sequence, as after a restart
+        threadEndRun = false;
+        setupCalls = 0;
+        CountingStep resumed = new CountingStep("count");
+        FSM restarted = countingFsm(resumed);
+        long begin = System.currentTimeMillis();
+        restarted.resume(read);
+        waitEnd();
+        Assertions.assertEquals(2, restarted.getStatus());
+        Assertions.assertEquals(0, setupCalls);
+        // the timeout accounting goes on from the checkpoint
+        Assertions.assertTrue(System.currentTimeMillis() - begin < 350);
+        // the count goes on from the saved state
+        int saved = ByteBuffer.wrap(read.getStepState("count")).getInt();
+        Assertions.assertTrue(saved > 0);
+        Assertions.assertTrue(resumed.count > saved);
+    }
+
+    @Test
+    void fsmBulkCheckpoint() throws IOException, InterruptedException {
+        System.out.println("[TEST] fsmBulkCheckpoint");
+        FSMDefinition<int[]> definition = FSMDefinition.<int[]>builder("first")
+                .stepsDelay(5)
+                .step("first").when("go", c -> true, "wait").done()
+                .step("wait").waitForSignal().when("done", c -> c[0] > 0, FSM.END).done()
+                .build();
+        FSMSharedScheduler scheduler = new FSMSharedScheduler(2);
+        List<FSMInstance<int[]>> machines = new ArrayList<>();
+        for (int i = 0; i < 1000; i++){
+            FSMInstance<int[]> instance = definition.newInstance("machine" + i, new int[1]);
+            machines.add(instance);
+            instance.start(scheduler);
+        }
+        delaymemory = System.currentTimeMillis();
+        while (machines.stream().anyMatch(m -> !"wait".equals(m.getActualStep()))
+                && System.currentTimeMillis() - delaymemory < 2000){
+            Thread.sleep(5);
+        }
+        Path file = dir.resolve("machines.fsmb");
+        FSMCheckpointFile.checkpoint(file, machines);
+        machines.forEach(FSM::stop);
+
+        Map<String, FSMCheckpoint> checkpoints = FSMCheckpointFile.read(file);
+        Assertions.assertEquals(1000, checkpoints.size());
+        List<FSMInstance<int[]>> resumed = new ArrayList<>();
+        for (int i = 0; i < 1000; i++){
+            FSMCheckpoint checkpoint = checkpoints.get("machine" + i);
+            Assertions.assertEquals("wait", checkpoint.getStep());
+            int[] context = new int[1];
+            FSMInstance<int[]> instance = definition.newInstance("machine" + i, context);
+            resumed.add(instance);
+            instance.resume(checkpoint, scheduler);
+        }
+        Thread.sleep(50);
+        for (FSMInstance<int[]> instance : resumed){
+            Assertions.assertEquals("wait", instance.getActualStep());
+            instance.getContext()[0] = 1;
+            instance.wake();
+        }
+        delaymemory = System.currentTimeMillis();
+        while (resumed.stream().anyMatch(m -> m.getStatus() != 2)
+                && System.currentTimeMillis() - delaymemory < 2000){
+            Thread.sleep(5);
+        }
+        for (FSMInstance<int[]> instance : resumed){
+            Assertions.assertEquals(2, instance.getStatus());
+        }
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,65 @@
+import fsm.FSM;
+import fsm.FSMVirtualClock;
+import fsm.definition.FSMDefinition;
+import fsm.definition.FSMInstance;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class FSMClockTests {
+
+    private static final int HOUR = 3600000;
+
+    private final FSMDefinition<long[]> day = FSMDefinition.<long[]>builder("heat")
+            .stepsDelay(60000)
+            .step("heat").run(c -> c[0]++).timeOut(8 * HOUR, "hold").done()
+            .step("hold").run(c -> c[0]++).timeOut(16 * HOUR, FSM.END).done()
+            .build();
+
+    private long runDay(long[] cycles){
+        FSMVirtualClock clock = new FSMVirtualClock();
+        FSMInstance<long[]> instance = day.newInstance("day", cycles);
+        instance.start(clock);
+        clock.run();
+        Assertions.assertEquals(2, instance.getStatus());
+        return clock.getTime(TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void fsmVirtualDay(){
+        System.out.println("[TEST] fsmVirtualDay");
+        long begin = System.currentTimeMillis();
+        long[] cycles = new long[1];
+        long time = runDay(cycles);
+        Assertions.assertTrue(System.currentTimeMillis() - begin < 2000);
+        // a day, with the timeouts detected at the one minute cycle
+        Assertions.assertTrue(time >= 24L * HOUR && time <= 24L * HOUR + 3 * 60000, "time " + time);
+        Assertions.assertTrue(cycles[0] >= 24 * 60 && cycles[0] <= 24 * 60 + 3, "cycles " + cycles[0]);
+        // deterministic
+        long[] again = new long[1];
+        Assertions.assertEquals(time, runDay(again));
+        Assertions.assertEquals(cycles[0], again[0]);
+    }
+
+    @Test
+    void fsmVirtualSignal(){
+        System.out.println("[TEST] fsmVirtualSignal");
+        FSMVirtualClock clock = new FSMVirtualClock();
+        boolean[] go = new boolean[1];
+        FSMInstance<boolean[]> instance = FSMDefinition.<boolean[]>builder("wait")
+                .step("wait").waitForSignal().when("go", c -> c[0], FSM.END).done()
+                .build()
+                .newInstance("signal", go);
+        instance.start(clock);
+        clock.runFor(1, TimeUnit.HOURS);
+        // waiting a signal without timeout: no cycles left to run
+        Assertions.assertEquals(1, instance.getStatus());
+        Assertions.assertEquals(1, clock.getTime(TimeUnit.HOURS));
+        go[0] = true;
+        instance.wake();
+        clock.run();
+        Assertions.assertEquals(2, instance.getStatus());
+        Assertions.assertEquals(1, clock.getTime(TimeUnit.HOURS));
+    }
+}
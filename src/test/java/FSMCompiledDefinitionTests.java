@@ -0,0 +1,114 @@
+import fsm.FSM;
+import fsm.FSMResult;
+import fsm.definition.FSMCompiledDefinition;
+import fsm.definition.FSMDefinition;
+import fsm.definition.FSMFunctions;
+import fsm.definition.FSMInstance;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+public class FSMCompiledDefinitionTests {
+
+    private static final String TANK =
+            "# filling of a tank\n" +
+            "sequence open delay=1 setup=init end=done\n" +
+            "step open run=fill description=\"Open the valve\"\n" +
+            "    when full isFull -> close\n" +
+            "step close run=empty timeout=5000:alarm evaluation=PRIORITY\n" +
+            "    when empty isEmpty -> end priority=1\n" +
+            "step alarm\n" +
+            "    when always always -> abort\n";
+
+    private final FSMFunctions<int[]> functions = new FSMFunctions<int[]>()
+            .action("init", c -> c[0] = 0)
+            .action("fill", c -> c[0]++)
+            .action("empty", c -> c[0]--)
+            .action("done", c -> c[1] = 1)
+            .predicate("isFull", c -> c[0] >= 10)
+            .predicate("isEmpty", c -> c[0] <= 0)
+            .predicate("always", c -> true);
+
+    @Test
+    void fsmTextDefinition() throws Exception {
+        System.out.println("[TEST] fsmTextDefinition");
+        FSMDefinition<int[]> definition = FSMCompiledDefinition.parse(TANK).bind(functions);
+        Assertions.assertEquals("open", definition.getStartStep());
+        Assertions.assertEquals("Open the valve", definition.getStep("open").getDescription());
+        Assertions.assertEquals(5000, definition.getStep("close").getTimeOut());
+        Assertions.assertEquals("alarm", definition.getStep("close").getTimeOutStep());
+        Assertions.assertEquals(1, definition.getStep("close").getConditions().get(0).getPriority());
+        // the targets keep the indexes resolved by the parser
+        Assertions.assertEquals(1, definition.getStep("open").getConditions().get(0).getNextIndex());
+        Assertions.assertEquals(2, definition.getStep("close").getTimeOutIndex());
+        Assertions.assertEquals(FSM.END_INDEX, definition.getStep("close").getConditions().get(0).getNextIndex());
+        int[] tank = new int[2];
+        FSMInstance<int[]> fsm = definition.newInstance("tank", tank);
+        FSMResult result = fsm.start().get(5, TimeUnit.SECONDS);
+        Assertions.assertTrue(result.isEnded());
+        // the step table of the instance is the one of the definition
+        Assertions.assertEquals(0, fsm.getStep("open").getIndex());
+        Assertions.assertEquals(1, fsm.getStep("close").getIndex());
+        Assertions.assertEquals(FSM.END_INDEX, fsm.getStep("close").getAdvanceConditions().get("empty").getNextIndex());
+        Assertions.assertEquals(0, tank[0]);
+        Assertions.assertEquals(1, tank[1]);
+    }
+
+    @Test
+    void fsmTextDefinitionErrors() {
+        System.out.println("[TEST] fsmTextDefinitionErrors");
+        IllegalArgumentException ex = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> FSMCompiledDefinition.parse(TANK.replace("-> close", "-> closed")));
+        Assertions.assertTrue(ex.getMessage().startsWith("Line 4:"), ex.getMessage());
+        ex = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> FSMCompiledDefinition.parse(TANK.replace("sequence open", "sequence start")));
+        Assertions.assertTrue(ex.getMessage().startsWith("Line 2:"), ex.getMessage());
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> FSMCompiledDefinition.parse(TANK.replace("step alarm", "step close")));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> FSMCompiledDefinition.parse(TANK.replace("delay=1", "delay=fast")));
+        // the names of the code are checked when the definition is bound
+        FSMCompiledDefinition compiled = FSMCompiledDefinition.parse(TANK.replace("isEmpty", "isVoid"));
+        ex = Assertions.assertThrows(IllegalArgumentException.class, () -> compiled.bind(functions));
+        Assertions.assertTrue(ex.getMessage().contains("isVoid"));
+    }
+
+    @Test
+    void fsmCompiledCache() throws Exception {
+        System.out.println("[TEST] fsmCompiledCache");
+        // chain of 10000 steps
+        StringBuilder text = new StringBuilder("sequence s0 delay=0\n");
+        int count = 10000;
+        for (int i = 0; i < count; i++){
+            text.append("step s").append(i).append(" run=fill\n")
+                    .append("    when next always -> ").append(i == count - 1 ? "end" : "s" + (i + 1)).append('\n');
+        }
+        Path source = Files.createTempFile("fsm", ".fsm");
+        Path cache = Files.createTempFile("fsm", ".fsmc");
+        try {
+            Files.write(source, text.toString().getBytes("UTF-8"));
+            Files.delete(cache);
+            FSMCompiledDefinition compiled = FSMCompiledDefinition.load(source, cache);
+            Assertions.assertTrue(Files.exists(cache));
+            Assertions.assertEquals(compiled.size(), Files.size(cache));
+            // the second load maps the cache
+            Files.write(source, "not parsed".getBytes("UTF-8"));
+            Files.setLastModifiedTime(cache, Files.getLastModifiedTime(source));
+            FSMCompiledDefinition cached = FSMCompiledDefinition.load(source, cache);
+            Assertions.assertEquals(count, cached.getStepCount());
+            FSMDefinition<int[]> definition = cached.bind(functions);
+            Assertions.assertEquals("s9999", definition.getSteps().get(count - 1).getName());
+            Assertions.assertEquals("end", definition.getStep("s9999").getConditions().get(0).getNext());
+            int[] counter = new int[2];
+            FSMResult result = definition.newInstance("chain", counter).start().get(30, TimeUnit.SECONDS);
+            Assertions.assertTrue(result.isEnded());
+            Assertions.assertEquals(count, counter[0]);
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(cache);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import fsm.FSM;
+import fsm.FSMResult;
+import fsm.FSMSharedScheduler;
+import fsm.definition.FSMDefinition;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class FSMCompletionTests {
+
+    private final FSMDefinition<int[]> counting = FSMDefinition.<int[]>builder("count")
+            .stepsDelay(1)
+            .step("count").run(c -> c[0]++).when("done", c -> c[0] >= 3, FSM.END).done()
+            .build();
+
+    @Test
+    void fsmCompletionFuture() throws Exception {
+        System.out.println("[TEST] fsmCompletionFuture");
+        FSM fsm = counting.newInstance("future", new int[1]);
+        CompletableFuture<FSMResult> future = fsm.start();
+        FSMResult result = future.get(2, TimeUnit.SECONDS);
+        Assertions.assertTrue(result.isEnded());
+        Assertions.assertEquals(2, result.getStatus());
+        Assertions.assertEquals(FSM.END, result.getLastStep());
+        Assertions.assertFalse(fsm.isRunning());
+        Assertions.assertSame(future, fsm.getCompletion());
+    }
+
+    @Test
+    void fsmCompletionCompose() throws Exception {
+        System.out.println("[TEST] fsmCompletionCompose");
+        FSMSharedScheduler scheduler = new FSMSharedScheduler(2);
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[1000];
+        for (int i = 0; i < futures.length; i++){
+            futures[i] = counting.newInstance("machine" + i, new int[1]).start(scheduler);
+        }
+        CompletableFuture.allOf(futures).get(5, TimeUnit.SECONDS);
+        for (CompletableFuture<?> future : futures){
+            Assertions.assertTrue(((FSMResult) future.get()).isEnded());
+        }
+        scheduler.shutdown();
+    }
+
+    @Test
+    void fsmCompletionStop() throws Exception {
+        System.out.println("[TEST] fsmCompletionStop");
+        FSM fsm = FSMDefinition.<int[]>builder("wait")
+                .step("wait").waitForSignal().done()
+                .build()
+                .newInstance("stopped", new int[1]);
+        CompletableFuture<FSMResult> future = fsm.start();
+        // a second start while running returns the same run
+        Assertions.assertSame(future, fsm.start());
+        fsm.stop();
+        FSMResult result = future.get(2, TimeUnit.SECONDS);
+        Assertions.assertFalse(result.isEnded());
+        Assertions.assertEquals("wait", result.getLastStep());
+        Assertions.assertFalse(fsm.isRunning());
+        // a new run after the end
+        CompletableFuture<FSMResult> restarted = fsm.start();
+        Assertions.assertNotSame(future, restarted);
+        fsm.stop();
+        restarted.get(2, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,339 @@
+import fsm.FSM;
+import fsm.FSMForkStep;
+import fsm.FSMJoinMode;
+import fsm.FSMJoinStep;
+import fsm.FSMRegions;
+import fsm.FSMSharedScheduler;
+import fsm.FSMSubMachineStep;
+import fsm.components.FSMCondition;
+import fsm.components.FSMStep;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FSMCompositionTests {
+    volatile boolean threadEndRun;
+    Set<String> threads = ConcurrentHashMap.newKeySet();
+    long delaymemory;
+
+    private FSMStep emptyStep(String name){
+        return new FSMStep(name) {
+            @Override
+            public void stepRunCode() {
+                threads.add(Thread.currentThread().getName());
+            }
+
+            @Override
+            public void resetCode() {
+            }
+        };
+    }
+
+    private FSMCondition always(String name, String next){
+        return new FSMCondition(name, next) {
+            @Override
+            protected boolean compare() {
+                return true;
+            }
+        };
+    }
+
+    private FSM childFsm(String name, String lastTarget){
+        return new FSM(name, "childFirst", 5) {
+            @Override
+            protected void threadSetup() {
+                addStep(emptyStep("childFirst"));
+                getStep("childFirst").addAdvanceCondition(always("next", "childSecond"));
+                addStep(emptyStep("childSecond"));
+                getStep("childSecond").addAdvanceCondition(always("last", lastTarget));
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+            }
+        };
+    }
+
+    private FSM parentFsm(FSM child){
+        return new FSM("parent", "sub", 5) {
+            @Override
+            protected void threadSetup() {
+                addStep(new FSMSubMachineStep("sub", child, "childEnded", "childAborted"));
+                addStep(emptyStep("childEnded"));
+                getStep("childEnded").addAdvanceCondition(always("done", FSM.END));
+                addStep(emptyStep("childAborted"));
+                getStep("childAborted").addAdvanceCondition(always("failed", FSM.ABORT));
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+                threadEndRun = true;
+            }
+        };
+    }
+
+    private void waitEnd(){
+        delaymemory = System.currentTimeMillis();
+        while (!threadEndRun){
+            if (System.currentTimeMillis() - delaymemory > 1000){
+                break;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Test
+    void fsmSubMachineEnd(){
+        System.out.println("[TEST] fsmSubMachineEnd");
+        threadEndRun = false;
+        FSM child = childFsm("child", FSM.END);
+        FSM parent = parentFsm(child);
+        parent.start();
+        waitEnd();
+        Assertions.assertEquals(2, parent.getStatus());
+        Assertions.assertEquals(2, child.getStatus());
+        // the child runs on the parent thread
+        Assertions.assertEquals(1, threads.size());
+        Assertions.assertTrue(threads.contains("parent"));
+    }
+
+    @Test
+    void fsmSubMachineAbort(){
+        System.out.println("[TEST] fsmSubMachineAbort");
+        threadEndRun = false;
+        FSM child = childFsm("child", FSM.ABORT);
+        FSM parent = parentFsm(child);
+        parent.start();
+        waitEnd();
+        Assertions.assertTrue(child.isAborted());
+        Assertions.assertTrue(parent.isAborted());
+    }
+
+    @Test
+    void fsmSubMachineImmediateCycles(){
+        System.out.println("[TEST] fsmSubMachineImmediateCycles");
+        threadEndRun = false;
+        AtomicInteger childCycles = new AtomicInteger();
+        AtomicInteger stepCycleTime = new AtomicInteger();
+        FSM[] parentHolder = new FSM[1];
+        // the child asks for no delay between its cycles
+        FSM child = new FSM("child", "counting", 0) {
+            @Override
+            protected void threadSetup() {
+                addStep(new FSMStep("counting") {
+                    @Override
+                    public void stepRunCode() {
+                        childCycles.incrementAndGet();
+                        // the cycle time of the parent step is the configured one
+                        if (parentHolder[0].getStep("sub").getCycleTime() != -1){
+                            stepCycleTime.incrementAndGet();
+                        }
+                    }
+
+                    @Override
+                    public void resetCode() {
+                    }
+                });
+                getStep("counting").addAdvanceCondition(new FSMCondition("counted", FSM.END) {
+                    @Override
+                    protected boolean compare() {
+                        return childCycles.get() >= 20;
+                    }
+                });
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+            }
+        };
+        FSM parent = parentFsm(child);
+        parentHolder[0] = parent;
+        parent.setStepsDelay(100);
+        long begin = System.currentTimeMillis();
+        parent.start();
+        waitEnd();
+        long elapsed = System.currentTimeMillis() - begin;
+        Assertions.assertEquals(2, parent.getStatus());
+        Assertions.assertEquals(20, childCycles.get());
+        // 20 cycles of the child back to back, not one every 100 ms of the parent
+        Assertions.assertTrue(elapsed < 500, "elapsed " + elapsed);
+        Assertions.assertEquals(0, stepCycleTime.get());
+    }
+
+    private FSM blockedFsm(String name){
+        return new FSM(name, "blocked", 5) {
+            @Override
+            protected void threadSetup() {
+                addStep(emptyStep("blocked"));
+                getStep("blocked").setWaitForSignal(true);
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+            }
+        };
+    }
+
+    private FSM forkJoinFsm(FSMRegions regions, FSMJoinMode mode){
+        return new FSM("parent", "fork", 5) {
+            @Override
+            protected void threadSetup() {
+                addStep(new FSMForkStep("fork", regions, "join"));
+                addStep(new FSMJoinStep("join", regions, mode, FSM.END, FSM.ABORT));
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+                threadEndRun = true;
+            }
+        };
+    }
+
+    @Test
+    void fsmForkJoinAll(){
+        System.out.println("[TEST] fsmForkJoinAll");
+        threadEndRun = false;
+        FSMSharedScheduler scheduler = new FSMSharedScheduler(2);
+        FSMRegions regions = new FSMRegions(scheduler, childFsm("heating", FSM.END), childFsm("filling", FSM.END));
+        FSM parent = forkJoinFsm(regions, FSMJoinMode.ALL);
+        parent.start();
+        waitEnd();
+        scheduler.shutdown();
+        Assertions.assertEquals(2, parent.getStatus());
+        Assertions.assertEquals(2, regions.getEnded());
+    }
+
+    @Test
+    void fsmForkJoinAbortPropagation(){
+        System.out.println("[TEST] fsmForkJoinAbortPropagation");
+        threadEndRun = false;
+        FSM blocked = blockedFsm("blocked");
+        FSMRegions regions = new FSMRegions(childFsm("failing", FSM.ABORT), blocked);
+        FSM parent = forkJoinFsm(regions, FSMJoinMode.ALL);
+        parent.start();
+        waitEnd();
+        Assertions.assertTrue(parent.isAborted());
+        Assertions.assertEquals(1, regions.getAborted());
+        delaymemory = System.currentTimeMillis();
+        while (blocked.isRunning() && System.currentTimeMillis() - delaymemory < 1000){
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        // the other region is stopped
+        Assertions.assertFalse(blocked.isRunning());
+    }
+
+    private FSM sleepingFsm(String name, long sleep, String target, AtomicInteger starts){
+        return new FSM(name, "working", 5) {
+            @Override
+            protected void threadSetup() {
+                starts.incrementAndGet();
+                addStep(new FSMStep("working") {
+                    @Override
+                    public void stepRunCode() {
+                        try {
+                            Thread.sleep(sleep);
+                        } catch (InterruptedException e) {
+                            e.printStackTrace();
+                        }
+                    }
+
+                    @Override
+                    public void resetCode() {
+                    }
+                });
+                if (target != null){
+                    getStep("working").addAdvanceCondition(always("done", target));
+                }
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+            }
+        };
+    }
+
+    @Test
+    void fsmForkJoinRestart() throws Exception {
+        System.out.println("[TEST] fsmForkJoinRestart");
+        threadEndRun = false;
+        AtomicInteger fastStarts = new AtomicInteger();
+        AtomicInteger slowStarts = new AtomicInteger();
+        AtomicInteger rounds = new AtomicInteger();
+        // the slow region is still in its cycle when the fast one ends and the join stops it
+        FSM slow = sleepingFsm("slow", 150, null, slowStarts);
+        FSMRegions regions = new FSMRegions(sleepingFsm("fast", 200, FSM.END, fastStarts), slow);
+        FSM parent = new FSM("parent", "fork", 5) {
+            @Override
+            protected void threadSetup() {
+                addStep(new FSMForkStep("fork", regions, "join"));
+                addStep(new FSMJoinStep("join", regions, FSMJoinMode.ANY, "again", FSM.ABORT));
+                addStep(emptyStep("again"));
+                getStep("again").addAdvanceCondition(new FSMCondition("loop", "fork") {
+                    @Override
+                    protected boolean compare() {
+                        return rounds.incrementAndGet() < 3;
+                    }
+                });
+                getStep("again").addAdvanceCondition(always("done", FSM.END));
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+                threadEndRun = true;
+            }
+        };
+        parent.start().get(5, TimeUnit.SECONDS);
+        // every fork starts again the region stopped by the previous join
+        Assertions.assertEquals(2, parent.getStatus());
+        Assertions.assertEquals(3, fastStarts.get());
+        Assertions.assertEquals(3, slowStarts.get());
+        Assertions.assertEquals(0, regions.getAborted());
+    }
+}
@@ -0,0 +1,205 @@
+import fsm.FSM;
+import fsm.FSMResult;
+import fsm.components.FSMCondition;
+import fsm.components.FSMDataContext;
+import fsm.components.FSMDataSnapshot;
+import fsm.components.FSMInputProvider;
+import fsm.components.FSMStep;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+public class FSMDataTests {
+
+    private FSMStep emptyStep(String name){
+        return new FSMStep(name) {
+            @Override
+            public void stepRunCode() {
+            }
+
+            @Override
+            public void resetCode() {
+            }
+        };
+    }
+
+    private FSMCondition above(String name, final int slot, final double level, String next){
+        return new FSMCondition(name, next) {
+            @Override
+            protected boolean compare() {
+                return getData().getDouble(slot) >= level;
+            }
+        };
+    }
+
+    private FSM tank(String name, final FSMDataContext io, final int level){
+        FSM fsm = new FSM(name, "filling", 1) {
+            @Override
+            protected void threadSetup() {
+                FSMStep filling = emptyStep("filling");
+                // many conditions reading the same point
+                for (int i = 0; i < 10; i++){
+                    filling.addAdvanceCondition(above("full" + i, level, 100 + i, FSM.END));
+                }
+                addStep(filling);
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+            }
+        };
+        fsm.setDataContext(io);
+        return fsm;
+    }
+
+    @Test
+    void fsmDataContext() throws Exception {
+        System.out.println("[TEST] fsmDataContext");
+        final FSMDataContext io = new FSMDataContext();
+        final int level = io.doubleSlot("level");
+        final int readings = io.intSlot("readings");
+        final AtomicInteger reads = new AtomicInteger();
+        io.setProvider(new FSMInputProvider() {
+            @Override
+            public void read(FSMDataContext.Writer in) {
+                int n = reads.incrementAndGet();
+                in.setDouble(level, n * 10.0);
+                in.setInt(readings, n);
+            }
+        });
+        Assertions.assertEquals(level, io.getSlot("level"));
+        Assertions.assertEquals(FSMDataContext.INT, io.getSlotType(readings));
+        FSM fsm = tank("tank", io, level);
+        FSMResult result = fsm.start().get(5, TimeUnit.SECONDS);
+        Assertions.assertTrue(result.isEnded());
+        // one reading per cycle, not one per condition
+        Assertions.assertEquals(10, reads.get());
+        Assertions.assertEquals(10, fsm.getData().getInt(readings));
+        Assertions.assertEquals(100.0, fsm.getData().getDouble(level));
+    }
+
+    @Test
+    void fsmDataSharedContext() throws Exception {
+        System.out.println("[TEST] fsmDataSharedContext");
+        final FSMDataContext io = new FSMDataContext();
+        final int level = io.doubleSlot("level");
+        final AtomicInteger reads = new AtomicInteger();
+        io.setProvider(new FSMInputProvider() {
+            @Override
+            public void read(FSMDataContext.Writer in) {
+                reads.incrementAndGet();
+                in.setDouble(level, 200);
+            }
+        });
+        // the first reading is shared by all the sequences
+        io.setRefreshPeriod(1, TimeUnit.HOURS);
+        FSM[] tanks = new FSM[5];
+        for (int i = 0; i < tanks.length; i++){
+            tanks[i] = tank("tank" + i, io, level);
+        }
+        for (FSM t : tanks){
+            Assertions.assertTrue(t.start().get(5, TimeUnit.SECONDS).isEnded());
+        }
+        Assertions.assertEquals(1, reads.get());
+    }
+
+    @Test
+    void fsmDataConsistentSnapshot() throws Exception {
+        System.out.println("[TEST] fsmDataConsistentSnapshot");
+        final FSMDataContext io = new FSMDataContext();
+        final int a = io.longSlot("a");
+        final int b = io.longSlot("b");
+        final int flag = io.booleanSlot("odd");
+        final AtomicInteger counter = new AtomicInteger();
+        io.setProvider(new FSMInputProvider() {
+            @Override
+            public void read(FSMDataContext.Writer in) {
+                long n = counter.incrementAndGet();
+                in.setLong(a, n);
+                Thread.yield();
+                in.setBoolean(flag, n % 2 == 1);
+                in.setLong(b, n);
+            }
+        });
+        final long end = System.currentTimeMillis() + 300;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (System.currentTimeMillis() < end){
+                    io.refresh();
+                    LockSupport.parkNanos(10000);
+                }
+            }
+        });
+        writer.start();
+        FSMDataSnapshot snapshot = io.snapshot();
+        int checks = 0;
+        while (System.currentTimeMillis() < end){
+            snapshot.update();
+            Assertions.assertEquals(snapshot.getLong(a), snapshot.getLong(b));
+            Assertions.assertEquals(snapshot.getLong(a) % 2 == 1, snapshot.getBoolean(flag));
+            checks++;
+        }
+        writer.join();
+        Assertions.assertTrue(checks > 0);
+        Assertions.assertTrue(counter.get() > 1);
+    }
+
+    @Test
+    void fsmDataSlowProvider() throws Exception {
+        System.out.println("[TEST] fsmDataSlowProvider");
+        final FSMDataContext io = new FSMDataContext();
+        final int level = io.doubleSlot("level");
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger reads = new AtomicInteger();
+        io.setProvider(new FSMInputProvider() {
+            @Override
+            public void read(FSMDataContext.Writer in) {
+                int n = reads.incrementAndGet();
+                in.setDouble(level, n);
+                if (n == 2){
+                    // slow fieldbus reading
+                    reading.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        });
+        Assertions.assertTrue(io.refresh());
+        Thread refresher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                io.refresh();
+            }
+        });
+        refresher.start();
+        Assertions.assertTrue(reading.await(5, TimeUnit.SECONDS));
+        // the readers don't wait for the inputs being read and see the last published values
+        FSMDataSnapshot snapshot = io.snapshot();
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++){
+            snapshot.update();
+        }
+        Assertions.assertTrue(System.currentTimeMillis() - begin < 500);
+        Assertions.assertEquals(1.0, snapshot.getDouble(level));
+        // a refresh in progress is not started again
+        Assertions.assertFalse(io.refresh());
+        release.countDown();
+        refresher.join();
+        snapshot.update();
+        Assertions.assertEquals(2.0, snapshot.getDouble(level));
+    }
+}
@@ -0,0 +1,106 @@
+import fsm.FSM;
+import fsm.FSMSharedScheduler;
+import fsm.definition.FSMDefinition;
+import fsm.definition.FSMInstance;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FSMDefinitionTests {
+    long delaymemory;
+
+    static class Counter {
+        int runs;
+        int limit;
+        volatile boolean ended;
+
+        Counter(int limit) {
+            this.limit = limit;
+        }
+    }
+
+    private FSMDefinition<Counter> counting(){
+        return FSMDefinition.<Counter>builder("count")
+                .stepsDelay(5)
+                .step("count")
+                    .run(c -> c.runs++)
+                    .when("limit", c -> c.runs >= c.limit, "last")
+                    .done()
+                .step("last")
+                    .when("done", c -> true, FSM.END)
+                    .done()
+                .onEnd(c -> c.ended = true)
+                .build();
+    }
+
+    private void waitEnded(List<Counter> counters){
+        delaymemory = System.currentTimeMillis();
+        while (counters.stream().anyMatch(c -> !c.ended)){
+            if (System.currentTimeMillis() - delaymemory > 2000){
+                break;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Test
+    void fsmDefinitionSharedByInstances(){
+        System.out.println("[TEST] fsmDefinitionSharedByInstances");
+        FSMDefinition<Counter> definition = counting();
+        FSMSharedScheduler scheduler = new FSMSharedScheduler(2);
+        List<Counter> counters = new ArrayList<>();
+        List<FSMInstance<Counter>> instances = new ArrayList<>();
+        for (int i = 0; i < 50; i++){
+            Counter counter = new Counter(1 + i % 5);
+            counters.add(counter);
+            FSMInstance<Counter> instance = definition.newInstance("counter" + i, counter);
+            instances.add(instance);
+            instance.start(scheduler);
+        }
+        waitEnded(counters);
+        for (int i = 0; i < 50; i++){
+            Assertions.assertEquals(2, instances.get(i).getStatus());
+            Assertions.assertEquals(1 + i % 5, counters.get(i).runs);
+            Assertions.assertSame(definition, instances.get(i).getDefinition());
+        }
+        scheduler.shutdown();
+    }
+
+    @Test
+    void fsmDefinitionTimeout(){
+        System.out.println("[TEST] fsmDefinitionTimeout");
+        Counter counter = new Counter(0);
+        FSMInstance<Counter> instance = FSMDefinition.<Counter>builder("wait")
+                .stepsDelay(5)
+                .step("wait").timeOut(50, FSM.ABORT).done()
+                .onEnd(c -> c.ended = true)
+                .build()
+                .newInstance("timeout", counter);
+        instance.start();
+        List<Counter> counters = new ArrayList<>();
+        counters.add(counter);
+        waitEnded(counters);
+        Assertions.assertTrue(instance.isAborted());
+    }
+
+    @Test
+    void fsmDefinitionValidation(){
+        System.out.println("[TEST] fsmDefinitionValidation");
+        Assertions.assertThrows(IllegalArgumentException.class, () ->
+                FSMDefinition.<Counter>builder("missing").step("first").done().build());
+        Assertions.assertThrows(IllegalArgumentException.class, () ->
+                FSMDefinition.<Counter>builder("first")
+                        .step("first").when("wrong", c -> true, "nowhere").done()
+                        .build());
+        Assertions.assertThrows(IllegalArgumentException.class, () ->
+                FSMDefinition.<Counter>builder("first")
+                        .step("first").done()
+                        .step("first"));
+    }
+}
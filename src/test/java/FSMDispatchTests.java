@@ -0,0 +1,77 @@
+import fsm.FSMResult;
+import fsm.definition.FSMCompiledDefinition;
+import fsm.definition.FSMDefinition;
+import fsm.definition.FSMDispatch;
+import fsm.definition.FSMFunctions;
+import fsm.components.FSMEvaluation;
+import fsm.FSM;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class FSMDispatchTests {
+
+    @Test
+    void fsmGeneratedDispatch() throws Exception {
+        System.out.println("[TEST] fsmGeneratedDispatch");
+        FSMDefinition<int[]> definition = FSMDefinition.<int[]>builder("fill")
+                .stepsDelay(1)
+                .step("fill").run(c -> c[0]++).onReset(c -> c[1]++)
+                    .when("full", c -> c[0] >= 10, "empty").done()
+                .step("empty").run(c -> c[0]--).evaluation(FSMEvaluation.PRIORITY)
+                    .when("low", c -> c[0] <= 5, "check", 0)
+                    .when("empty", c -> c[0] <= 0, FSM.END, 1).done()
+                .step("check")
+                    .when("always", c -> true, "empty").done()
+                .build();
+        Assertions.assertNull(definition.getDispatch());
+        Assertions.assertSame(definition, definition.compile());
+        FSMDispatch dispatch = definition.getDispatch();
+        Assertions.assertNotNull(dispatch);
+        // only generated once
+        Assertions.assertSame(dispatch, definition.compile().getDispatch());
+        int[] direct = new int[2];
+        dispatch.run(0, direct);
+        dispatch.reset(0, direct);
+        dispatch.run(2, direct);
+        Assertions.assertArrayEquals(new int[]{1, 1}, direct);
+        Assertions.assertFalse(dispatch.test(0, direct));
+        Assertions.assertTrue(dispatch.test(1, direct));
+        Assertions.assertTrue(dispatch.test(3, direct));
+        Assertions.assertFalse(dispatch.test(4, direct));
+        // same behavior of the interpreted definition
+        int[] tank = new int[2];
+        FSMResult result = definition.newInstance("tank", tank).start().get(5, TimeUnit.SECONDS);
+        Assertions.assertTrue(result.isEnded());
+        Assertions.assertEquals(0, tank[0]);
+        Assertions.assertTrue(tank[1] > 0);
+    }
+
+    @Test
+    void fsmGeneratedDispatchLarge() throws Exception {
+        System.out.println("[TEST] fsmGeneratedDispatchLarge");
+        // more steps than the cases of a single switch method
+        StringBuilder text = new StringBuilder("sequence s0 delay=0\n");
+        int count = 5000;
+        for (int i = 0; i < count; i++){
+            text.append("step s").append(i).append(i % 2 == 0 ? " run=count" : "").append('\n')
+                    .append("    when next always -> ").append(i == count - 1 ? "end" : "s" + (i + 1)).append('\n');
+        }
+        FSMDefinition<int[]> definition = FSMCompiledDefinition.parse(text.toString())
+                .bind(new FSMFunctions<int[]>()
+                        .action("count", c -> c[0]++)
+                        .predicate("always", c -> true))
+                .compile();
+        int[] counter = new int[1];
+        definition.getDispatch().run(4999, counter);
+        Assertions.assertEquals(0, counter[0]);
+        definition.getDispatch().run(4998, counter);
+        Assertions.assertEquals(1, counter[0]);
+        Assertions.assertFalse(definition.getDispatch().test(count, counter));
+        counter[0] = 0;
+        FSMResult result = definition.newInstance("chain", counter).start().get(30, TimeUnit.SECONDS);
+        Assertions.assertTrue(result.isEnded());
+        Assertions.assertEquals(count / 2, counter[0]);
+    }
+}
@@ -0,0 +1,209 @@
+import fsm.FSM;
+import fsm.components.FSMEventCondition;
+import fsm.components.FSMInbox;
+import fsm.components.FSMStep;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class FSMEventTests {
+    volatile boolean threadEndRun;
+    volatile int pendingAtEnd;
+    long delaymemory;
+
+    static class Command {
+        final String name;
+
+        Command(String name) {
+            this.name = name;
+        }
+    }
+
+    static class Reading {
+        final double value;
+
+        Reading(double value) {
+            this.value = value;
+        }
+    }
+
+    private FSMStep waitingStep(String name){
+        FSMStep step = new FSMStep(name) {
+            @Override
+            public void stepRunCode() {
+            }
+
+            @Override
+            public void resetCode() {
+            }
+        };
+        step.setWaitForSignal(true);
+        return step;
+    }
+
+    private FSMEventCondition<Command> command(String name, String next){
+        return new FSMEventCondition<Command>(name, Command.class, next) {
+            @Override
+            protected boolean match(Command event) {
+                return event.name.equals(name);
+            }
+        };
+    }
+
+    private void waitEnd(){
+        delaymemory = System.currentTimeMillis();
+        while (!threadEndRun){
+            if (System.currentTimeMillis() - delaymemory > 5000){
+                break;
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Test
+    void fsmTypedEvents(){
+        System.out.println("[TEST] fsmTypedEvents");
+        threadEndRun = false;
+        FSM fsm = new FSM("events", "idle", 1000) {
+            @Override
+            protected void threadSetup() {
+                addStep(waitingStep("idle"));
+                getStep("idle").addAdvanceCondition(command("start", "running"));
+                addStep(waitingStep("running"));
+                getStep("running").addAdvanceCondition(command("stop", FSM.END));
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+                pendingAtEnd = getInbox().size();
+                threadEndRun = true;
+            }
+        };
+        fsm.start();
+        // events posted together are all received, the reading is not consumed
+        Assertions.assertTrue(fsm.post(new Reading(1.5)));
+        Assertions.assertTrue(fsm.post(new Command("start")));
+        Assertions.assertTrue(fsm.post(new Command("stop")));
+        waitEnd();
+        Assertions.assertEquals(2, fsm.getStatus());
+        Assertions.assertEquals(1, pendingAtEnd);
+    }
+
+    @Test
+    void fsmEventProducers() throws InterruptedException {
+        System.out.println("[TEST] fsmEventProducers");
+        threadEndRun = false;
+        long[] sum = new long[1];
+        FSM fsm = new FSM("producers", "count", 1000) {
+            @Override
+            protected void threadSetup() {
+                FSMStep count = new FSMStep("count") {
+                    @Override
+                    public void stepRunCode() {
+                        FSMInbox inbox = getInbox();
+                        if (inbox == null){
+                            return;
+                        }
+                        for (int i = inbox.size() - 1; i >= 0; i--){
+                            if (inbox.get(i) instanceof Integer){
+                                sum[0] += (Integer) inbox.consume(i);
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void resetCode() {
+                    }
+                };
+                count.setWaitForSignal(true);
+                addStep(count);
+                count.addAdvanceCondition(command("stop", FSM.END));
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+                threadEndRun = true;
+            }
+        };
+        fsm.setInboxCapacity(256);
+        fsm.start();
+        Thread[] producers = new Thread[4];
+        for (int p = 0; p < producers.length; p++){
+            producers[p] = new Thread(() -> {
+                for (int i = 1; i <= 10000; i++){
+                    // full inbox: retry
+                    while (!fsm.post(i)){
+                        Thread.yield();
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread producer : producers){
+            producer.join();
+        }
+        while (!fsm.post(new Command("stop"))){
+            Thread.yield();
+        }
+        waitEnd();
+        Assertions.assertEquals(2, fsm.getStatus());
+        Assertions.assertEquals(4L * 10000 * 10001 / 2, sum[0]);
+    }
+
+    @Test
+    void fsmUnmatchedEvents() throws Exception {
+        System.out.println("[TEST] fsmUnmatchedEvents");
+        threadEndRun = false;
+        FSM fsm = new FSM("unmatched", "idle", 1000) {
+            @Override
+            protected void threadSetup() {
+                addStep(waitingStep("idle"));
+                getStep("idle").addAdvanceCondition(command("stop", FSM.END));
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+                threadEndRun = true;
+            }
+        };
+        fsm.setInboxCapacity(4);
+        fsm.start();
+        // more unmatched events than the capacity: the oldest are dropped, the inbox keeps receiving
+        for (int i = 0; i < 20; i++){
+            Assertions.assertTrue(fsm.post(new Reading(i)));
+            Thread.sleep(5);
+        }
+        Assertions.assertTrue(fsm.post(new Command("stop")));
+        fsm.getCompletion().get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(2, fsm.getStatus());
+        Assertions.assertTrue(fsm.getInbox().getDropped() > 0);
+        // the unmatched events are discarded at the end of the run
+        Assertions.assertEquals(0, fsm.getInbox().size());
+        threadEndRun = false;
+        fsm.start();
+        Thread.sleep(50);
+        Assertions.assertTrue(fsm.isRunning());
+        fsm.stop();
+        waitEnd();
+    }
+}
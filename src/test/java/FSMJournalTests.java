@@ -0,0 +1,154 @@
+import fsm.FSM;
+import fsm.FSMResult;
+import fsm.FSMSharedScheduler;
+import fsm.definition.FSMDefinition;
+import fsm.definition.FSMInstance;
+import fsm.journal.FSMJournal;
+import fsm.journal.FSMJournalDurability;
+import fsm.journal.FSMJournalReader;
+import fsm.journal.FSMJournalState;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class FSMJournalTests {
+    long delaymemory;
+
+    @TempDir
+    Path dir;
+
+    private final FSMDefinition<int[]> definition = FSMDefinition.<int[]>builder("first")
+            .stepsDelay(1)
+            .step("first").run(c -> c[0]++).when("next", c -> c[0] >= 3, "second").done()
+            .step("second").when("done", c -> true, FSM.END).done()
+            .build();
+
+    private List<FSMInstance<int[]>> runMachines(FSMJournal journal, int count) throws InterruptedException {
+        FSMSharedScheduler scheduler = new FSMSharedScheduler(4);
+        List<FSMInstance<int[]>> machines = new ArrayList<>();
+        for (int i = 0; i < count; i++){
+            FSMInstance<int[]> instance = definition.newInstance("machine" + i, new int[1]);
+            instance.setJournal(journal);
+            machines.add(instance);
+            instance.start(scheduler);
+        }
+        delaymemory = System.currentTimeMillis();
+        while (machines.stream().anyMatch(m -> m.getStatus() != 2)
+                && System.currentTimeMillis() - delaymemory < 5000){
+            Thread.sleep(5);
+        }
+        scheduler.shutdown();
+        return machines;
+    }
+
+    @Test
+    void fsmJournalDurabilityModes() throws IOException, InterruptedException {
+        System.out.println("[TEST] fsmJournalDurabilityModes");
+        for (FSMJournalDurability durability : FSMJournalDurability.values()){
+            Path file = dir.resolve(durability + ".fsmj");
+            FSMJournal journal = FSMJournal.open(file, durability);
+            runMachines(journal, 50);
+            journal.close();
+            Map<String, FSMJournalState> states = FSMJournalReader.read(file);
+            Assertions.assertEquals(50, states.size(), durability.toString());
+            for (FSMJournalState state : states.values()){
+                Assertions.assertEquals(FSM.END, state.getStep());
+                Assertions.assertEquals("second", state.getPreviousStep());
+                Assertions.assertEquals(2, state.getTransitions());
+                Assertions.assertEquals(2, state.getStatus());
+                Assertions.assertTrue(state.isOver());
+            }
+        }
+    }
+
+    @Test
+    void fsmJournalTornTail() throws IOException, InterruptedException {
+        System.out.println("[TEST] fsmJournalTornTail");
+        Path file = dir.resolve("torn.fsmj");
+        FSMJournal journal = FSMJournal.open(file, FSMJournalDurability.GROUP_COMMIT);
+        runMachines(journal, 3);
+        journal.close();
+        // crash while writing the last frame
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+        Map<String, FSMJournalState> states = FSMJournalReader.read(file);
+        Assertions.assertEquals(3, states.size());
+        // the final status of the last sequence is lost, it keeps the status of its last transition
+        long ended = states.values().stream().filter(s -> s.getStatus() == 2).count();
+        Assertions.assertEquals(2, ended);
+        long running = states.values().stream().filter(s -> s.getStatus() == 1).count();
+        Assertions.assertEquals(1, running);
+        // reopening drops the torn frame and appends after the last complete one
+        journal = FSMJournal.open(file, FSMJournalDurability.PER_TRANSITION);
+        runMachines(journal, 3);
+        journal.close();
+        states = FSMJournalReader.read(file);
+        Assertions.assertEquals(3, states.size());
+        for (FSMJournalState state : states.values()){
+            Assertions.assertEquals(FSM.END, state.getStep());
+            Assertions.assertEquals(2, state.getStatus());
+        }
+    }
+
+    @Test
+    void fsmJournalTornMachineRecord() throws IOException, InterruptedException {
+        System.out.println("[TEST] fsmJournalTornMachineRecord");
+        Path file = dir.resolve("tornMachine.fsmj");
+        FSMJournal journal = FSMJournal.open(file, FSMJournalDurability.PER_TRANSITION);
+        String[] steps = new String[20];
+        for (int i = 0; i < steps.length; i++){
+            steps[i] = "step" + i;
+        }
+        journal.register("big", steps, 0);
+        journal.close();
+        // crash after the first frame of the machine record
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            Assertions.assertTrue(channel.size() > 3 * FSMJournal.RECORD_SIZE);
+            channel.truncate(2 * FSMJournal.RECORD_SIZE);
+        }
+        // the records of the next session are not read as the payload of the torn one
+        journal = FSMJournal.open(file, FSMJournalDurability.GROUP_COMMIT);
+        runMachines(journal, 3);
+        journal.close();
+        Map<String, FSMJournalState> states = FSMJournalReader.read(file);
+        Assertions.assertEquals(3, states.size());
+        for (FSMJournalState state : states.values()){
+            Assertions.assertEquals(FSM.END, state.getStep());
+            Assertions.assertEquals(2, state.getStatus());
+        }
+    }
+
+    @Test
+    void fsmJournalStopped() throws Exception {
+        System.out.println("[TEST] fsmJournalStopped");
+        Path file = dir.resolve("stopped.fsmj");
+        FSMJournal journal = FSMJournal.open(file, FSMJournalDurability.PER_TRANSITION);
+        FSMDefinition<int[]> waiting = FSMDefinition.<int[]>builder("waiting")
+                .stepsDelay(1)
+                .step("waiting").when("never", c -> false, FSM.END).done()
+                .build();
+        FSMInstance<int[]> instance = waiting.newInstance("stopped", new int[1]);
+        instance.setJournal(journal);
+        CompletableFuture<FSMResult> done = instance.start();
+        Thread.sleep(20);
+        instance.stop();
+        done.get(5, TimeUnit.SECONDS);
+        journal.close();
+        // the stop is recorded, the sequence is not reported as running
+        FSMJournalState state = FSMJournalReader.read(file).get("stopped");
+        Assertions.assertEquals("waiting", state.getStep());
+        Assertions.assertEquals(0, state.getStatus());
+        Assertions.assertEquals(0, state.getTransitions());
+    }
+}
@@ -0,0 +1,119 @@
+import fsm.FSM;
+import fsm.FSMResult;
+import fsm.definition.FSMDefinition;
+import fsm.definition.FSMInstance;
+import fsm.listener.FSMDispatcher;
+import fsm.listener.FSMListener;
+import fsm.listener.FSMListenerPolicy;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class FSMListenerTests {
+    long delaymemory;
+
+    /**
+     * 100 transitions between two steps, then end
+     */
+    private final FSMDefinition<int[]> pingPong = FSMDefinition.<int[]>builder("ping")
+            .stepsDelay(1)
+            .step("ping").run(c -> c[0]++).when("pong", c -> true, "pong").done()
+            .step("pong").when("end", c -> c[0] >= 50, FSM.END).when("ping", c -> true, "ping").done()
+            .build();
+
+    static class Recorder implements FSMListener {
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final List<String> threads = new CopyOnWriteArrayList<>();
+        final long delay;
+        volatile int lastStatus;
+
+        Recorder(long delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        public void transition(FSM fsm, String from, String to, int cause, long time) {
+            events.add(from + ">" + to);
+            threads.add(Thread.currentThread().getName());
+            pause();
+        }
+
+        @Override
+        public void status(FSM fsm, int status, String step) {
+            events.add("status " + status);
+            lastStatus = status;
+            pause();
+        }
+
+        private void pause(){
+            if (delay > 0){
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void waitStatus(Recorder recorder, int status){
+        delaymemory = System.currentTimeMillis();
+        while (recorder.lastStatus != status && System.currentTimeMillis() - delaymemory < 5000){
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Test
+    void fsmListenerOrder() throws Exception {
+        System.out.println("[TEST] fsmListenerOrder");
+        FSMDispatcher dispatcher = new FSMDispatcher(1024, FSMListenerPolicy.BLOCK);
+        Recorder recorder = new Recorder(0);
+        dispatcher.addListener(recorder);
+        FSMInstance<int[]> fsm = pingPong.newInstance("order", new int[1]);
+        fsm.setDispatcher(dispatcher);
+        fsm.start().get(5, TimeUnit.SECONDS);
+        waitStatus(recorder, 2);
+        List<String> events = recorder.events;
+        Assertions.assertEquals(1 + 100 + 1, events.size());
+        Assertions.assertEquals("status 1", events.get(0));
+        Assertions.assertEquals("ping>pong", events.get(1));
+        Assertions.assertEquals("pong>ping", events.get(2));
+        Assertions.assertEquals("pong>end", events.get(100));
+        Assertions.assertEquals("status 2", events.get(101));
+        Assertions.assertTrue(recorder.threads.stream().allMatch("fsm-dispatcher"::equals));
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void fsmSlowListener() throws Exception {
+        System.out.println("[TEST] fsmSlowListener");
+        for (FSMListenerPolicy policy : new FSMListenerPolicy[]{FSMListenerPolicy.DROP, FSMListenerPolicy.COALESCE}){
+            FSMDispatcher dispatcher = new FSMDispatcher(8, policy);
+            Recorder recorder = new Recorder(20);
+            dispatcher.addListener(recorder);
+            FSMInstance<int[]> fsm = pingPong.newInstance("slow", new int[1]);
+            fsm.setDispatcher(dispatcher);
+            long begin = System.currentTimeMillis();
+            FSMResult result = fsm.start().get(5, TimeUnit.SECONDS);
+            // the listener would need 2 seconds for all the events
+            Assertions.assertTrue(System.currentTimeMillis() - begin < 1500, policy.toString());
+            Assertions.assertTrue(result.isEnded());
+            if (policy == FSMListenerPolicy.DROP){
+                Assertions.assertTrue(dispatcher.getDropped() > 0);
+            } else {
+                Assertions.assertTrue(dispatcher.getCoalesced() > 0);
+                // the latest state is always delivered
+                waitStatus(recorder, 2);
+                Assertions.assertEquals("status 2", recorder.events.get(recorder.events.size() - 1));
+            }
+            dispatcher.shutdown();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import fsm.FSM;
+import fsm.components.FSMCondition;
+import fsm.components.FSMStep;
+import fsm.metrics.FSMMetrics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+public class FSMMetricsTests {
+    volatile boolean threadEndRun;
+    int counter = 0;
+    long delaymemory;
+
+    @Test
+    void fsmMetrics() throws Exception {
+        System.out.println("[TEST] fsmMetrics");
+        FSM fsm = new FSM("metricsTest", "firstStep", 5) {
+            @Override
+            protected void threadSetup() {
+                addStep(new FSMStep("firstStep", "First step") {
+                    @Override
+                    public void stepRunCode() {
+                        counter++;
+                    }
+
+                    @Override
+                    public void resetCode() {
+                    }
+                });
+                getStep("firstStep").addAdvanceCondition(
+                        new FSMCondition("completed", "complete the first step", "secondStep") {
+                            @Override
+                            protected boolean compare() {
+                                return counter >= 3;
+                            }
+                        }
+                );
+                addStep(new FSMStep("secondStep", "Second step") {
+                    @Override
+                    public void stepRunCode() {
+                    }
+
+                    @Override
+                    public void resetCode() {
+                    }
+                });
+                getStep("secondStep").setTimeOut(20);
+                getStep("secondStep").setTimeOutStep(FSM.END);
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+                threadEndRun = true;
+            }
+        };
+        fsm.setMetricsEnabled(true);
+        fsm.start();
+        delaymemory = System.currentTimeMillis();
+        while (!threadEndRun){
+            if (System.currentTimeMillis() - delaymemory > 1000){
+                break;
+            }
+            Thread.sleep(10);
+        }
+        FSMMetrics metrics = fsm.getMetrics();
+        Assertions.assertEquals(2, fsm.getStatus());
+        Assertions.assertTrue(metrics.getCycles() >= 4);
+        Assertions.assertEquals(2, metrics.getTransitions());
+        Assertions.assertEquals(1, metrics.getTimeOuts());
+        Assertions.assertEquals(3, metrics.getStep("firstStep").getRunCode().getCount());
+        Assertions.assertEquals(1, metrics.getStep("firstStep").getTransitions("secondStep"));
+        Assertions.assertEquals(1, metrics.getStep("firstStep").getConditions()[0].getHits());
+        Assertions.assertEquals(1, metrics.getStep("secondStep").getTransitions(FSM.END));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("fsm:type=FSM,name=" + ObjectName.quote("metricsTest"));
+        Assertions.assertEquals(2L, server.getAttribute(name, "Transitions"));
+        fsm.setMetricsEnabled(false);
+        Assertions.assertFalse(server.isRegistered(name));
+        Assertions.assertNull(fsm.getMetrics());
+    }
+}
@@ -0,0 +1,131 @@
+import fsm.FSM;
+import fsm.FSMRegistry;
+import fsm.FSMRestartPolicy;
+import fsm.definition.FSMDefinition;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class FSMRegistryTests {
+    long delaymemory;
+
+    static class Counter {
+        volatile int runs;
+        volatile String thread;
+        final int failures;
+
+        Counter(int failures) {
+            this.failures = failures;
+        }
+    }
+
+    /**
+     * aborts on the first runs, then ends
+     */
+    private final FSMDefinition<Counter> flaky = FSMDefinition.<Counter>builder("check")
+            .stepsDelay(1)
+            .onSetup(c -> c.runs++)
+            .step("check").run(c -> c.thread = Thread.currentThread().getName())
+                .when("fail", c -> c.runs <= c.failures, FSM.ABORT)
+                .when("ok", c -> true, FSM.END).done()
+            .build();
+
+    private final FSMDefinition<Counter> waiting = FSMDefinition.<Counter>builder("wait")
+            .stepsDelay(1)
+            .step("wait").when("never", c -> false, FSM.END).done()
+            .build();
+
+    private void waitFor(FSMRegistry registry, int status, int count){
+        delaymemory = System.currentTimeMillis();
+        while (registry.count(status) != count && System.currentTimeMillis() - delaymemory < 5000){
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Test
+    void fsmRegistryShards() throws Exception {
+        System.out.println("[TEST] fsmRegistryShards");
+        FSMRegistry registry = new FSMRegistry(4);
+        Counter[] counters = new Counter[100];
+        for (int i = 0; i < counters.length; i++){
+            counters[i] = new Counter(0);
+            registry.register(flaky.newInstance("machine" + i, counters[i]));
+        }
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> registry.register(flaky.newInstance("machine0", new Counter(0))));
+        Assertions.assertEquals(100, registry.count(0));
+        registry.startAll();
+        waitFor(registry, 2, 100);
+        Assertions.assertEquals(100, registry.count(2));
+        Assertions.assertEquals(0, registry.count(1));
+        for (int i = 0; i < counters.length; i++){
+            // every sequence runs on the worker of its name
+            Assertions.assertEquals("fsm-worker-" + registry.getShard("machine" + i), counters[i].thread);
+            Assertions.assertEquals(2, registry.getStatus("machine" + i));
+        }
+        Assertions.assertTrue(registry.getNames(2).contains("machine42"));
+        Assertions.assertSame(registry.get("machine42"), registry.getMachines(2).stream()
+                .filter(f -> f.getName().equals("machine42")).findFirst().orElse(null));
+        Assertions.assertTrue(registry.shutdown(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void fsmRegistryRestart() throws Exception {
+        System.out.println("[TEST] fsmRegistryRestart");
+        FSMRegistry registry = new FSMRegistry(2);
+        Counter flakyCounter = new Counter(2);
+        Counter brokenCounter = new Counter(Integer.MAX_VALUE);
+        registry.register(flaky.newInstance("flaky", flakyCounter), FSMRestartPolicy.oneForOne(5, 60000, 10, 100));
+        registry.register(flaky.newInstance("broken", brokenCounter), FSMRestartPolicy.oneForOne(3, 60000, 10, 20));
+        registry.register(flaky.newInstance("never", new Counter(1)));
+        long begin = System.currentTimeMillis();
+        registry.startAll();
+        waitFor(registry, 2, 1);
+        // restarted twice, after 10 and 20 ms
+        Assertions.assertEquals(2, registry.getStatus("flaky"));
+        Assertions.assertEquals(2, registry.getRestarts("flaky"));
+        Assertions.assertEquals(3, flakyCounter.runs);
+        Assertions.assertTrue(System.currentTimeMillis() - begin >= 30);
+        // max intensity: 3 restarts, then left aborted
+        waitFor(registry, -3, 2);
+        Thread.sleep(100);
+        Assertions.assertEquals(3, registry.getRestarts("broken"));
+        Assertions.assertEquals(4, brokenCounter.runs);
+        Assertions.assertEquals(-3, registry.getStatus("broken"));
+        Assertions.assertEquals(0, registry.getRestarts("never"));
+        Assertions.assertTrue(registry.getNames(-3).contains("never"));
+        Assertions.assertTrue(registry.shutdown(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void fsmRegistryStop() throws Exception {
+        System.out.println("[TEST] fsmRegistryStop");
+        FSMRegistry registry = new FSMRegistry(2);
+        registry.setDefaultPolicy(FSMRestartPolicy.oneForOne(5, 60000, 0, 0));
+        for (int i = 0; i < 10; i++){
+            registry.register(waiting.newInstance("waiting" + i, new Counter(0)));
+        }
+        registry.startAll();
+        Assertions.assertEquals(10, registry.count(1));
+        // starting again a running sequence has no effect
+        Assertions.assertSame(registry.get("waiting0").getCompletion(), registry.start("waiting0"));
+        registry.stop("waiting0");
+        waitFor(registry, 1, 9);
+        // stopped: not restarted
+        Thread.sleep(50);
+        int status = registry.getStatus("waiting0");
+        Assertions.assertTrue(status == 0 || status == -3, "status " + status);
+        Assertions.assertEquals(0, registry.getRestarts("waiting0"));
+        Assertions.assertSame(registry.get("waiting1"), registry.unregister("waiting1"));
+        Assertions.assertNull(registry.get("waiting1"));
+        Assertions.assertEquals(9, registry.size());
+        Assertions.assertTrue(registry.shutdown(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(9, registry.count(0) + registry.count(-3));
+        Assertions.assertEquals(0, registry.count(1));
+    }
+}
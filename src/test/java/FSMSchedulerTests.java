@@ -0,0 +1,247 @@
+import fsm.FSM;
+import fsm.FSMSharedScheduler;
+import fsm.components.FSMCondition;
+import fsm.components.FSMStep;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FSMSchedulerTests {
+    AtomicInteger setupCounter = new AtomicInteger();
+    AtomicInteger endCounter = new AtomicInteger();
+    long delaymemory;
+
+    private FSM twoStepsFsm(String name){
+        return new FSM(name, "firstStep", 10) {
+            @Override
+            protected void threadSetup() {
+                setupCounter.incrementAndGet();
+                addStep(new FSMStep("firstStep", "First step") {
+                    @Override
+                    public void stepRunCode() {
+                    }
+
+                    @Override
+                    public void resetCode() {
+                    }
+                });
+                getStep("firstStep").addAdvanceCondition(
+                        new FSMCondition("completed", "complete the first step", "secondStep") {
+                            @Override
+                            protected boolean compare() {
+                                return true;
+                            }
+                        }
+                );
+                addStep(new FSMStep("secondStep", "Second step") {
+                    @Override
+                    public void stepRunCode() {
+                    }
+
+                    @Override
+                    public void resetCode() {
+                    }
+                });
+                getStep("secondStep").addAdvanceCondition(
+                        new FSMCondition("completed", "complete the second step", FSM.END) {
+                            @Override
+                            protected boolean compare() {
+                                return true;
+                            }
+                        }
+                );
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+                endCounter.incrementAndGet();
+            }
+        };
+    }
+
+    @Test
+    void fsmSharedScheduler(){
+        System.out.println("[TEST] fsmSharedScheduler");
+        FSMSharedScheduler scheduler = new FSMSharedScheduler(2);
+        List<FSM> machines = new ArrayList<>();
+        for (int i = 0; i < 1000; i++){
+            FSM fsm = twoStepsFsm("test" + i);
+            machines.add(fsm);
+            fsm.start(scheduler);
+        }
+        delaymemory = System.currentTimeMillis();
+        while (endCounter.get() < machines.size()){
+            if (System.currentTimeMillis() - delaymemory > 5000){
+                break;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        scheduler.shutdown();
+        Assertions.assertEquals(machines.size(), setupCounter.get());
+        Assertions.assertEquals(machines.size(), endCounter.get());
+        for (FSM fsm : machines){
+            Assertions.assertEquals(2, fsm.getStatus());
+            Assertions.assertFalse(fsm.isRunning());
+        }
+    }
+
+    @Test
+    void fsmSharedSchedulerWake(){
+        System.out.println("[TEST] fsmSharedSchedulerWake");
+        final AtomicInteger cycles = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final FSM fsm = new FSM("wake", "idle", 50) {
+            @Override
+            protected void threadSetup() {
+                addStep(new FSMStep("idle", "Waits, woken up by itself and by other threads") {
+                    @Override
+                    public void stepRunCode() {
+                        int r = running.incrementAndGet();
+                        if (r > maxRunning.get()){
+                            maxRunning.set(r);
+                        }
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            e.printStackTrace();
+                        }
+                        // woken up from inside the cycle
+                        if (cycles.incrementAndGet() <= 20){
+                            wake();
+                        }
+                        running.decrementAndGet();
+                    }
+
+                    @Override
+                    public void resetCode() {
+                    }
+                });
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+            }
+        };
+        FSMSharedScheduler scheduler = new FSMSharedScheduler(4);
+        fsm.start(scheduler);
+        // woken up by another thread
+        delaymemory = System.currentTimeMillis();
+        while (System.currentTimeMillis() - delaymemory < 300){
+            fsm.wake();
+            try {
+                Thread.sleep(0, 200000);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        // no more wakes: back to one cycle every 50 ms
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        int before = cycles.get();
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        int quiet = cycles.get() - before;
+        fsm.stop();
+        scheduler.shutdown();
+        Assertions.assertEquals(1, maxRunning.get());
+        Assertions.assertTrue(quiet >= 5 && quiet <= 14, "cycles in 500 ms: " + quiet);
+    }
+
+    @Test
+    void fsmSharedSchedulerParked(){
+        System.out.println("[TEST] fsmSharedSchedulerParked");
+        final AtomicInteger go = new AtomicInteger();
+        FSMSharedScheduler scheduler = new FSMSharedScheduler(2);
+        List<FSM> machines = new ArrayList<>();
+        for (int i = 0; i < 50; i++){
+            FSM fsm = new FSM("parked" + i, "wait", 10) {
+                @Override
+                protected void threadSetup() {
+                    FSMStep wait = new FSMStep("wait", "Waits for a signal") {
+                        @Override
+                        public void stepRunCode() {
+                        }
+
+                        @Override
+                        public void resetCode() {
+                        }
+                    };
+                    wait.setWaitForSignal(true);
+                    addStep(wait);
+                    wait.addAdvanceCondition(
+                            new FSMCondition("go", "signal received", FSM.END) {
+                                @Override
+                                protected boolean compare() {
+                                    return go.get() > 0;
+                                }
+                            }
+                    );
+                }
+
+                @Override
+                protected boolean threadOverallChecks() {
+                    return true;
+                }
+
+                @Override
+                protected void threadEnd() {
+                }
+            };
+            machines.add(fsm);
+            fsm.start(scheduler);
+        }
+        // the parked sequences leave no task in the queue
+        delaymemory = System.currentTimeMillis();
+        while (((ScheduledThreadPoolExecutor) scheduler.getExecutor()).getQueue().size() > 0
+                && System.currentTimeMillis() - delaymemory < 2000){
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        Assertions.assertEquals(0, ((ScheduledThreadPoolExecutor) scheduler.getExecutor()).getQueue().size());
+        go.set(1);
+        for (FSM fsm : machines){
+            fsm.wake();
+        }
+        delaymemory = System.currentTimeMillis();
+        while (machines.stream().anyMatch(m -> m.getStatus() != 2)
+                && System.currentTimeMillis() - delaymemory < 2000){
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        scheduler.shutdown();
+        for (FSM fsm : machines){
+            Assertions.assertEquals(2, fsm.getStatus());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import fsm.FSM;
+import fsm.FSMSharedScheduler;
+import fsm.components.FSMCondition;
+import fsm.components.FSMStep;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class FSMSignalTests {
+    volatile boolean event;
+    long delaymemory;
+
+    private FSM waitingFsm(){
+        event = false;
+        return new FSM("test", "waitStep", 10000) {
+            @Override
+            protected void threadSetup() {
+                addStep(new FSMStep("waitStep", "Wait for the event") {
+                    @Override
+                    public void stepRunCode() {
+                    }
+
+                    @Override
+                    public void resetCode() {
+                    }
+                });
+                getStep("waitStep").setWaitForSignal(true);
+                getStep("waitStep").addAdvanceCondition(
+                        new FSMCondition("event", "event received", FSM.END) {
+                            @Override
+                            protected boolean compare() {
+                                return event;
+                            }
+                        }
+                );
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+            }
+        };
+    }
+
+    private long waitEnd(FSM fsm){
+        delaymemory = System.currentTimeMillis();
+        // wait the first cycle of the step
+        while ((fsm.getStatus() != 1 || !fsm.isRunning()) && System.currentTimeMillis() - delaymemory < 5000){
+            sleep(10);
+        }
+        sleep(100);
+        long signalTime = System.currentTimeMillis();
+        event = true;
+        fsm.getStep("waitStep").getAdvanceConditions().get("event").signal();
+        while (fsm.isRunning()){
+            if (System.currentTimeMillis() - delaymemory > 5000){
+                break;
+            }
+            sleep(1);
+        }
+        return System.currentTimeMillis() - signalTime;
+    }
+
+    private void sleep(long ms){
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    void fsmSignalThread(){
+        System.out.println("[TEST] fsmSignalThread");
+        FSM fsm = waitingFsm();
+        fsm.start();
+        long latency = waitEnd(fsm);
+        Assertions.assertEquals(2, fsm.getStatus());
+        Assertions.assertTrue(latency < 1000);
+    }
+
+    @Test
+    void fsmSignalScheduler(){
+        System.out.println("[TEST] fsmSignalScheduler");
+        FSMSharedScheduler scheduler = new FSMSharedScheduler(1);
+        FSM fsm = waitingFsm();
+        fsm.start(scheduler);
+        long latency = waitEnd(fsm);
+        scheduler.shutdown();
+        Assertions.assertEquals(2, fsm.getStatus());
+        Assertions.assertTrue(latency < 1000);
+    }
+}
@@ -1,5 +1,6 @@
 import fsm.FSM;
 import fsm.components.FSMCondition;
+import fsm.components.FSMEvaluation;
 import fsm.components.FSMStep;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -322,6 +323,61 @@ public class FSMTests {
         Assertions.assertEquals(-2, fsm.getStatus());
     }
 
+    @Test
+    void fsmWrongStepNameAtStart(){
+        initStatusVariables();
+        System.out.println("[TEST] fsmWrongStepNameAtStart");
+        FSM fsm = new FSM("test", "firstStep", 100) {
+            @Override
+            protected void threadSetup() {
+                addStep(new FSMStep("firstStep", "First step") {
+                    @Override
+                    public void stepRunCode() {
+                        counter++;
+                    }
+
+                    @Override
+                    public void resetCode() {
+                    }
+                });
+                getStep("firstStep").addAdvanceCondition(
+                        new FSMCondition("completed", "complete the first step", "missingStep") {
+                            @Override
+                            protected boolean compare() {
+                                return true;
+                            }
+                        }
+                );
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+                threadEndRun = true;
+            }
+        };
+        fsm.start();
+        delaymemory = System.currentTimeMillis();
+        while (!threadEndRun){
+            if (System.currentTimeMillis() - delaymemory > 1000){
+                break;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        // the wrong step name is found before running the first step
+        Assertions.assertEquals(0, counter);
+        Assertions.assertEquals(-2, fsm.getStatus());
+        Assertions.assertTrue(fsm.isAborted());
+    }
+
 @Test
     void fsmForcedJump(){
         initStatusVariables();
@@ -369,7 +425,7 @@ public class FSMTests {
                     }
                 });
                 getStep("secondStep").addAdvanceCondition(
-                        new FSMCondition("completed", "complete the first step", "FSM.END") {
+                        new FSMCondition("completed", "complete the first step", FSM.END) {
                             @Override
                             protected boolean compare() {
                                 return true;
@@ -416,4 +472,85 @@ public class FSMTests {
     }
 
 
+    @Test
+    void fsmConditionPriority(){
+        initStatusVariables();
+        System.out.println("[TEST] fsmConditionPriority");
+        FSM fsm = new FSM("test", "firstStep", 100) {
+            @Override
+            protected void threadSetup() {
+                addStep(new FSMStep("firstStep", "First step") {
+                    @Override
+                    public void stepRunCode() {
+                    }
+
+                    @Override
+                    public void resetCode() {
+                    }
+                });
+                getStep("firstStep").setEvaluation(FSMEvaluation.PRIORITY);
+                getStep("firstStep").addAdvanceCondition(
+                        new FSMCondition("toEnd", "low priority jump to end", FSM.END) {
+                            @Override
+                            protected boolean compare() {
+                                counter += 100;
+                                return true;
+                            }
+                        }
+                );
+                FSMCondition toSecond = new FSMCondition("toSecond", "high priority jump to second step", "secondStep") {
+                    @Override
+                    protected boolean compare() {
+                        return true;
+                    }
+                };
+                toSecond.setPriority(10);
+                getStep("firstStep").addAdvanceCondition(toSecond);
+                addStep(new FSMStep("secondStep", "Second step") {
+                    @Override
+                    public void stepRunCode() {
+                        counter++;
+                    }
+
+                    @Override
+                    public void resetCode() {
+                    }
+                });
+                getStep("secondStep").addAdvanceCondition(
+                        new FSMCondition("completed", "complete the second step", FSM.END) {
+                            @Override
+                            protected boolean compare() {
+                                return true;
+                            }
+                        }
+                );
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+                threadEndRun = true;
+            }
+        };
+        fsm.start();
+        delaymemory = System.currentTimeMillis();
+        while (!threadEndRun){
+            if (System.currentTimeMillis() - delaymemory > 1000){
+                break;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        // the low priority condition is never checked
+        Assertions.assertEquals(1, counter);
+        Assertions.assertEquals(2, fsm.getStatus());
+    }
+
 }
@@ -0,0 +1,119 @@
+import fsm.FSM;
+import fsm.FSMThreads;
+import fsm.components.FSMCondition;
+import fsm.components.FSMStep;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIf;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FSMThreadsTests {
+    AtomicInteger endCounter = new AtomicInteger();
+    long delaymemory;
+
+    static boolean virtualThreadsSupported(){
+        return FSMThreads.isVirtualSupported();
+    }
+
+    /**
+     * Sequence counting down running on its first cycle and cycling until release is open
+     */
+    private FSM simpleFsm(String name, CountDownLatch running, CountDownLatch release){
+        return new FSM(name, "firstStep", 10) {
+            @Override
+            protected void threadSetup() {
+                addStep(new FSMStep("firstStep", "First step") {
+                    @Override
+                    public void stepRunCode() {
+                    }
+
+                    @Override
+                    public void resetCode() {
+                    }
+                });
+                getStep("firstStep").addAdvanceCondition(
+                        new FSMCondition("completed", "complete the first step", FSM.END) {
+                            boolean counted = false;
+
+                            @Override
+                            protected boolean compare() {
+                                if (!counted){
+                                    counted = true;
+                                    running.countDown();
+                                }
+                                return release.getCount() == 0;
+                            }
+                        }
+                );
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+                endCounter.incrementAndGet();
+            }
+        };
+    }
+
+    @Test
+    void fsmThreadFactory(){
+        System.out.println("[TEST] fsmThreadFactory");
+        AtomicInteger created = new AtomicInteger();
+        ThreadFactory platform = FSMThreads.platform();
+        FSM fsm = simpleFsm("test", new CountDownLatch(1), new CountDownLatch(0));
+        fsm.start(r -> {
+            created.incrementAndGet();
+            return platform.newThread(r);
+        });
+        delaymemory = System.currentTimeMillis();
+        while (endCounter.get() < 1){
+            if (System.currentTimeMillis() - delaymemory > 1000){
+                break;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        Assertions.assertEquals(1, created.get());
+        Assertions.assertEquals(2, fsm.getStatus());
+    }
+
+    @Test
+    @EnabledIf("virtualThreadsSupported")
+    void fsmVirtualThreads() throws InterruptedException {
+        System.out.println("[TEST] fsmVirtualThreads");
+        int machines = 100_000;
+        CountDownLatch running = new CountDownLatch(machines);
+        CountDownLatch release = new CountDownLatch(1);
+        ThreadFactory factory = FSMThreads.virtual();
+        for (int i = 0; i < machines; i++){
+            simpleFsm("test" + i, running, release).start(factory);
+        }
+        // all the machines are alive at the same time
+        Assertions.assertTrue(running.await(30, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, endCounter.get());
+        release.countDown();
+        delaymemory = System.currentTimeMillis();
+        while (endCounter.get() < machines){
+            if (System.currentTimeMillis() - delaymemory > 30000){
+                break;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        Assertions.assertEquals(machines, endCounter.get());
+    }
+}
@@ -0,0 +1,149 @@
+import fsm.FSM;
+import fsm.FSMOverrunPolicy;
+import fsm.components.FSMCondition;
+import fsm.components.FSMStep;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FSMTimingTests {
+    volatile boolean threadEndRun;
+    volatile int counter;
+    long delaymemory;
+
+    private FSM workingFsm(int cycles, int workTime, int period){
+        threadEndRun = false;
+        counter = 0;
+        return new FSM("test", "workStep", period) {
+            @Override
+            protected void threadSetup() {
+                addStep(new FSMStep("workStep", "Step doing some work") {
+                    @Override
+                    public void stepRunCode() {
+                        counter++;
+                        sleep(workTime);
+                    }
+
+                    @Override
+                    public void resetCode() {
+                    }
+                });
+                getStep("workStep").setCycleTime(period);
+                getStep("workStep").addAdvanceCondition(
+                        new FSMCondition("completed", "all cycles done", FSM.END) {
+                            @Override
+                            protected boolean compare() {
+                                return counter >= cycles;
+                            }
+                        }
+                );
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+                threadEndRun = true;
+            }
+        };
+    }
+
+    private void waitEnd(long timeout){
+        delaymemory = System.currentTimeMillis();
+        while (!threadEndRun){
+            if (System.currentTimeMillis() - delaymemory > timeout){
+                break;
+            }
+            sleep(1);
+        }
+    }
+
+    private static void sleep(long ms){
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    void fsmFixedRate(){
+        System.out.println("[TEST] fsmFixedRate");
+        FSM fsm = workingFsm(20, 15, 30);
+        fsm.setFixedRate(true);
+        long begin = System.currentTimeMillis();
+        fsm.start();
+        waitEnd(5000);
+        long elapsed = System.currentTimeMillis() - begin;
+        Assertions.assertEquals(2, fsm.getStatus());
+        // 20 cycles of 30 ms, not 30 ms plus the 15 ms of work
+        Assertions.assertTrue(elapsed < 20 * 40, "elapsed " + elapsed);
+    }
+
+    @Test
+    void fsmOverrunCallback(){
+        System.out.println("[TEST] fsmOverrunCallback");
+        AtomicInteger callbacks = new AtomicInteger();
+        FSM fsm = workingFsm(5, 30, 10);
+        fsm.setFixedRate(true);
+        fsm.setOverrunPolicy(FSMOverrunPolicy.CALLBACK);
+        fsm.setOverrunHandler((sequence, lateNanos) -> callbacks.incrementAndGet());
+        fsm.start();
+        waitEnd(5000);
+        Assertions.assertEquals(2, fsm.getStatus());
+        Assertions.assertTrue(fsm.getOverruns() > 0);
+        Assertions.assertEquals(fsm.getOverruns(), callbacks.get());
+    }
+
+    @Test
+    void fsmTimeOutWithoutStep(){
+        System.out.println("[TEST] fsmTimeOutWithoutStep");
+        threadEndRun = false;
+        AtomicInteger resets = new AtomicInteger();
+        long begin = System.currentTimeMillis();
+        FSM fsm = new FSM("test", "retryStep", 5) {
+            @Override
+            protected void threadSetup() {
+                addStep(new FSMStep("retryStep", "Step starting again on timeout") {
+                    @Override
+                    public void stepRunCode() {
+                    }
+
+                    @Override
+                    public void resetCode() {
+                        resets.incrementAndGet();
+                    }
+                });
+                // timeout without exit step: the step is reset and goes on
+                getStep("retryStep").setTimeOut(20);
+                getStep("retryStep").addAdvanceCondition(
+                        new FSMCondition("completed", "retried", FSM.END) {
+                            @Override
+                            protected boolean compare() {
+                                return System.currentTimeMillis() - begin > 100;
+                            }
+                        }
+                );
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+                threadEndRun = true;
+            }
+        };
+        fsm.start();
+        waitEnd(5000);
+        Assertions.assertEquals(2, fsm.getStatus());
+        // the reset of the start plus at least 2 timeouts
+        Assertions.assertTrue(resets.get() >= 3, "resets " + resets.get());
+    }
+}
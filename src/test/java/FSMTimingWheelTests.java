@@ -0,0 +1,122 @@
+import fsm.FSM;
+import fsm.FSMSharedScheduler;
+import fsm.FSMVirtualClock;
+import fsm.components.FSMTimingWheel;
+import fsm.definition.FSMDefinition;
+import fsm.definition.FSMInstance;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class FSMTimingWheelTests {
+    long delaymemory;
+
+    @Test
+    void fsmTimingWheelLevels(){
+        System.out.println("[TEST] fsmTimingWheelLevels");
+        FSMVirtualClock clock = new FSMVirtualClock();
+        FSMTimingWheel wheel = new FSMTimingWheel(clock, 1, TimeUnit.MILLISECONDS, false);
+        Random random = new Random(1);
+        int count = 2000;
+        long[] deadlines = new long[count];
+        long[] fired = new long[count];
+        FSMTimingWheel.Timeout[] timeouts = new FSMTimingWheel.Timeout[count];
+        for (int i = 0; i < count; i++){
+            final int n = i;
+            // from one tick to some hours, to use all the levels
+            deadlines[i] = TimeUnit.MILLISECONDS.toNanos(1 + (long) Math.pow(10, random.nextDouble() * 7));
+            timeouts[i] = wheel.newTimeout(generation -> fired[n] = clock.nanoTime());
+            wheel.schedule(timeouts[i], deadlines[i]);
+        }
+        // cancelled and moved timeouts
+        for (int i = 0; i < count; i += 10){
+            wheel.cancel(timeouts[i]);
+        }
+        for (int i = 5; i < count; i += 10){
+            deadlines[i] = deadlines[i] / 2;
+            wheel.schedule(timeouts[i], deadlines[i]);
+        }
+        Assertions.assertEquals(count - count / 10, wheel.size());
+        long tick = TimeUnit.MILLISECONDS.toNanos(1);
+        while (wheel.size() > 0){
+            clock.runFor(1, TimeUnit.MILLISECONDS);
+            wheel.advance();
+        }
+        for (int i = 0; i < count; i++){
+            if (i % 10 == 0){
+                Assertions.assertEquals(0, fired[i]);
+            } else {
+                // expired at the first tick after the deadline
+                Assertions.assertTrue(fired[i] >= deadlines[i] && fired[i] < deadlines[i] + tick,
+                        "timeout " + i + " deadline " + deadlines[i] + " fired " + fired[i]);
+            }
+        }
+    }
+
+    @Test
+    void fsmTimingWheelTimeouts() throws InterruptedException {
+        System.out.println("[TEST] fsmTimingWheelTimeouts");
+        FSMTimingWheel wheel = new FSMTimingWheel();
+        FSMSharedScheduler scheduler = new FSMSharedScheduler(2);
+        FSMDefinition<boolean[]> definition = FSMDefinition.<boolean[]>builder("wait")
+                .step("wait").waitForSignal().timeOut(100, "timedOut")
+                    .when("go", c -> c[0], FSM.END).done()
+                .step("timedOut").when("done", c -> true, FSM.END).done()
+                .build();
+        List<FSMInstance<boolean[]>> machines = new ArrayList<>();
+        for (int i = 0; i < 1000; i++){
+            // half of the machines leave the step before the timeout
+            FSMInstance<boolean[]> instance = definition.newInstance("machine" + i, new boolean[]{i % 2 == 0});
+            instance.setTimingWheel(wheel);
+            machines.add(instance);
+            instance.start(scheduler);
+        }
+        long begin = System.currentTimeMillis();
+        delaymemory = begin;
+        while (machines.stream().anyMatch(m -> m.getStatus() != 2)
+                && System.currentTimeMillis() - delaymemory < 2000){
+            Thread.sleep(5);
+        }
+        Assertions.assertTrue(System.currentTimeMillis() - begin >= 100);
+        for (int i = 0; i < 1000; i++){
+            FSMInstance<boolean[]> instance = machines.get(i);
+            Assertions.assertEquals(2, instance.getStatus());
+            int transitions = instance.getTrace().snapshot().size();
+            Assertions.assertEquals(i % 2 == 0 ? 1 : 2, transitions);
+        }
+        // the timeouts left are cancelled
+        Assertions.assertEquals(0, wheel.size());
+        wheel.shutdown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    void fsmTimingWheelEarlyExpiration() throws Exception {
+        System.out.println("[TEST] fsmTimingWheelEarlyExpiration");
+        final AtomicLong skew = new AtomicLong();
+        // the ticker expires the timeout before schedule() returns to the step
+        FSMTimingWheel wheel = new FSMTimingWheel(() -> System.nanoTime() + skew.get(), 1, TimeUnit.MILLISECONDS, false) {
+            @Override
+            public long schedule(Timeout timeout, long deadline) {
+                long generation = super.schedule(timeout, deadline);
+                skew.set(TimeUnit.HOURS.toNanos(1));
+                advance();
+                return generation;
+            }
+        };
+        FSMDefinition<boolean[]> definition = FSMDefinition.<boolean[]>builder("wait")
+                .step("wait").waitForSignal().timeOut(100, "timedOut")
+                    .when("go", c -> c[0], FSM.END).done()
+                .step("timedOut").when("done", c -> true, FSM.END).done()
+                .build();
+        FSMInstance<boolean[]> instance = definition.newInstance("early", new boolean[1]);
+        instance.setTimingWheel(wheel);
+        Assertions.assertTrue(instance.start().get(2, TimeUnit.SECONDS).isEnded());
+        Assertions.assertEquals(2, instance.getTrace().snapshot().size());
+    }
+}
@@ -0,0 +1,128 @@
+import fsm.FSM;
+import fsm.FSMVirtualClock;
+import fsm.components.FSMCondition;
+import fsm.components.FSMStep;
+import fsm.definition.FSMDefinition;
+import fsm.definition.FSMInstance;
+import fsm.trace.FSMTrace;
+import fsm.trace.FSMTraceDecoder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+
+public class FSMTraceTests {
+    volatile boolean threadEndRun;
+    long delaymemory;
+
+    @Test
+    void fsmTraceDumpOnAbort(@TempDir Path dir) throws Exception {
+        System.out.println("[TEST] fsmTraceDumpOnAbort");
+        FSM fsm = new FSM("traceTest", "firstStep", 5) {
+            @Override
+            protected void threadSetup() {
+                addStep(new FSMStep("firstStep", "First step") {
+                    @Override
+                    public void stepRunCode() {
+                    }
+
+                    @Override
+                    public void resetCode() {
+                    }
+                });
+                getStep("firstStep").addAdvanceCondition(
+                        new FSMCondition("completed", "complete the first step", "secondStep") {
+                            @Override
+                            protected boolean compare() {
+                                return true;
+                            }
+                        }
+                );
+                addStep(new FSMStep("secondStep", "Second step") {
+                    @Override
+                    public void stepRunCode() {
+                    }
+
+                    @Override
+                    public void resetCode() {
+                    }
+                });
+                getStep("secondStep").setTimeOut(20);
+                getStep("secondStep").setTimeOutStep(FSM.ABORT);
+            }
+
+            @Override
+            protected boolean threadOverallChecks() {
+                return true;
+            }
+
+            @Override
+            protected void threadEnd() {
+                threadEndRun = true;
+            }
+        };
+        fsm.setTraceDumpDirectory(dir);
+        fsm.start();
+        delaymemory = System.currentTimeMillis();
+        while (!threadEndRun){
+            if (System.currentTimeMillis() - delaymemory > 1000){
+                break;
+            }
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(fsm.isAborted());
+        FSMTrace.Snapshot snapshot = fsm.getTrace().snapshot();
+        Assertions.assertEquals(2, snapshot.size());
+        Assertions.assertEquals(FSMTrace.CAUSE_TIMEOUT, snapshot.cause(1));
+        Assertions.assertEquals(FSM.ABORT_INDEX, snapshot.to(1));
+
+        File[] files = dir.toFile().listFiles();
+        Assertions.assertNotNull(files);
+        Assertions.assertEquals(1, files.length);
+        String text = FSMTraceDecoder.decode(files[0].toPath());
+        System.out.print(text);
+        Assertions.assertTrue(text.contains("firstStep -> secondStep  [condition completed]"));
+        Assertions.assertTrue(text.contains("secondStep -> abort  [timeout]"));
+    }
+
+    @Test
+    void fsmTraceVirtualClock(@TempDir Path dir) throws Exception {
+        System.out.println("[TEST] fsmTraceVirtualClock");
+        FSMVirtualClock clock = new FSMVirtualClock();
+        FSMInstance<int[]> instance = FSMDefinition.<int[]>builder("heat")
+                .stepsDelay(60000)
+                .step("heat").timeOut(8 * 3600000, FSM.END).done()
+                .build()
+                .newInstance("virtual", new int[1]);
+        instance.start(clock);
+        clock.run();
+        Path file = dir.resolve("virtual.fsmtrace");
+        long before = System.currentTimeMillis();
+        instance.dumpTrace(file);
+        String text = FSMTraceDecoder.decode(file);
+        System.out.print(text);
+        // the entries are related to the wall clock through the virtual clock:
+        // the last transition happened at the time of the dump
+        String last = text.trim().substring(text.trim().lastIndexOf('\n') + 1);
+        Assertions.assertTrue(last.contains("heat -> end"), last);
+        long millis = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").parse(last.substring(0, 23)).getTime();
+        Assertions.assertTrue(Math.abs(millis - before) < 5000, last);
+    }
+
+    @Test
+    void fsmTraceWrapAround(){
+        System.out.println("[TEST] fsmTraceWrapAround");
+        FSMTrace trace = new FSMTrace(5);
+        Assertions.assertEquals(8, trace.getCapacity());
+        for (int i = 0; i < 20; i++){
+            trace.record(i, i + 1, 0, i);
+        }
+        FSMTrace.Snapshot snapshot = trace.snapshot();
+        Assertions.assertEquals(7, snapshot.size());
+        Assertions.assertEquals(13, snapshot.from(0));
+        Assertions.assertEquals(19, snapshot.from(6));
+    }
+}